@@ -0,0 +1,329 @@
+package com.infotech.isg.admin;
+
+import com.infotech.isg.service.AccessControl;
+import com.infotech.isg.service.TransactionIndex;
+import com.infotech.isg.service.OperatorExecutor;
+import com.infotech.isg.service.OperatorCircuitBreaker;
+import com.infotech.isg.service.OperatorStatusCache;
+import com.infotech.isg.service.OperatorConcurrencyLimiter;
+import com.infotech.isg.service.OperatorPacer;
+import com.infotech.isg.service.ClientRateLimiter;
+import com.infotech.isg.service.AuditFileWriter;
+import com.infotech.isg.ws.ISGRequestFilter;
+import com.infotech.isg.ws.ISGWSHandler;
+import com.infotech.isg.metrics.MetricsRegistry;
+import com.infotech.isg.aspect.MethodLogger;
+import com.infotech.isg.util.LatencyHistogram;
+import com.infotech.isg.validation.OperatorValidator;
+import com.infotech.isg.validation.PaymentChannelValidator;
+
+import org.springframework.stereotype.Component;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperationParameter;
+import org.springframework.jmx.export.annotation.ManagedOperationParameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * admin operations exposed through JMX.
+ *
+ * @author Sevak Gharibian
+ */
+@Component
+@ManagedResource(objectName = "com.infotech.isg:name=ISGAdmin", description = "ISG admin operations")
+public class ISGAdmin {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ISGAdmin.class);
+
+    private final AccessControl accessControl;
+    private final OperatorValidator operatorValidator;
+    private final PaymentChannelValidator paymentChannelValidator;
+    private final TransactionIndex transactionIndex;
+    private final OperatorExecutor operatorExecutor;
+    private final OperatorCircuitBreaker operatorCircuitBreaker;
+    private final OperatorStatusCache operatorStatusCache;
+    private final OperatorConcurrencyLimiter operatorConcurrencyLimiter;
+    private final OperatorPacer operatorPacer;
+    private final ClientRateLimiter clientRateLimiter;
+    private final ISGRequestFilter isgRequestFilter;
+    private final MetricsRegistry metricsRegistry;
+    private final MethodLogger methodLogger;
+    private final AuditFileWriter auditFileWriter;
+    private final ISGWSHandler isgWSHandler;
+
+    @Autowired
+    public ISGAdmin(AccessControl accessControl,
+                    OperatorValidator operatorValidator,
+                    PaymentChannelValidator paymentChannelValidator,
+                    TransactionIndex transactionIndex,
+                    OperatorExecutor operatorExecutor,
+                    OperatorCircuitBreaker operatorCircuitBreaker,
+                    OperatorStatusCache operatorStatusCache,
+                    OperatorConcurrencyLimiter operatorConcurrencyLimiter,
+                    OperatorPacer operatorPacer,
+                    ClientRateLimiter clientRateLimiter,
+                    ISGRequestFilter isgRequestFilter,
+                    MetricsRegistry metricsRegistry,
+                    MethodLogger methodLogger,
+                    AuditFileWriter auditFileWriter,
+                    ISGWSHandler isgWSHandler) {
+        this.accessControl = accessControl;
+        this.operatorValidator = operatorValidator;
+        this.paymentChannelValidator = paymentChannelValidator;
+        this.transactionIndex = transactionIndex;
+        this.operatorExecutor = operatorExecutor;
+        this.operatorCircuitBreaker = operatorCircuitBreaker;
+        this.operatorStatusCache = operatorStatusCache;
+        this.operatorConcurrencyLimiter = operatorConcurrencyLimiter;
+        this.operatorPacer = operatorPacer;
+        this.clientRateLimiter = clientRateLimiter;
+        this.isgRequestFilter = isgRequestFilter;
+        this.metricsRegistry = metricsRegistry;
+        this.methodLogger = methodLogger;
+        this.auditFileWriter = auditFileWriter;
+        this.isgWSHandler = isgWSHandler;
+    }
+
+    @ManagedOperation(description = "drops cached client, i.e. after password/ip/status change")
+    @ManagedOperationParameters({
+        @ManagedOperationParameter(name = "username", description = "client username")
+    })
+    public void invalidateClient(String username) {
+        accessControl.invalidate(username);
+        LOG.info("client cache invalidated for: {}", username);
+    }
+
+    @ManagedOperation(description = "drops all cached clients")
+    public void invalidateAllClients() {
+        accessControl.invalidateAll();
+        LOG.info("client cache invalidated");
+    }
+
+    @ManagedAttribute(description = "audit records dropped since audit file buffer was full")
+    public long getAuditFileDroppedCount() {
+        return auditFileWriter.getDroppedCount();
+    }
+
+    @ManagedAttribute(description = "SOAP message capture on/off")
+    public boolean isMessageCaptureEnabled() {
+        return isgWSHandler.isEnabled();
+    }
+
+    @ManagedAttribute(description = "SOAP message capture on/off")
+    public void setMessageCaptureEnabled(boolean enabled) {
+        isgWSHandler.setEnabled(enabled);
+    }
+
+    @ManagedAttribute(description = "ratio of SOAP requests captured, 0 to 1")
+    public double getMessageCaptureSampleRate() {
+        return isgWSHandler.getSampleRate();
+    }
+
+    @ManagedAttribute(description = "ratio of SOAP requests captured, 0 to 1")
+    public void setMessageCaptureSampleRate(double sampleRate) {
+        isgWSHandler.setSampleRate(sampleRate);
+    }
+
+    @ManagedOperation(description = "recently captured SOAP requests/responses, newest first")
+    public String dumpCapturedMessages() {
+        return isgWSHandler.dump();
+    }
+
+    @ManagedOperation(description = "drops captured SOAP requests/responses")
+    public void clearCapturedMessages() {
+        isgWSHandler.clear();
+        LOG.info("captured messages cleared");
+    }
+
+    @ManagedAttribute(description = "method profiler on/off")
+    public boolean isProfilerEnabled() {
+        return methodLogger.isEnabled();
+    }
+
+    @ManagedAttribute(description = "method profiler on/off")
+    public void setProfilerEnabled(boolean enabled) {
+        methodLogger.setEnabled(enabled);
+    }
+
+    @ManagedAttribute(description = "ratio of method calls profiled, 0 to 1")
+    public double getProfilerSampleRate() {
+        return methodLogger.getSampleRate();
+    }
+
+    @ManagedAttribute(description = "ratio of method calls profiled, 0 to 1")
+    public void setProfilerSampleRate(double sampleRate) {
+        methodLogger.setSampleRate(sampleRate);
+    }
+
+    @ManagedOperation(description = "sampled method latencies in usec, by total time")
+    public String getMethodProfile() {
+        return methodLogger.getProfile();
+    }
+
+    @ManagedOperation(description = "drops sampled method latencies")
+    public void resetMethodProfile() {
+        methodLogger.reset();
+        LOG.info("method profile reset");
+    }
+
+    @ManagedOperation(description = "reloads IP allowlist of request filter, i.e. after client ip change")
+    public void reloadIpAllowlist() {
+        isgRequestFilter.reload();
+        LOG.info("IP allowlist reloaded");
+    }
+
+    @ManagedAttribute(description = "requests rejected by request filter before SOAP parsing")
+    public long getFilterRejectedCount() {
+        return isgRequestFilter.getRejectedCount();
+    }
+
+    @ManagedOperation(description = "reloads operators and payment channels snapshot")
+    public void reloadReferenceData() {
+        operatorValidator.reload();
+        paymentChannelValidator.reload();
+        LOG.info("reference data reloaded");
+    }
+
+    @ManagedOperation(description = "reloads operator status, i.e. after operator status is changed")
+    public void reloadOperatorStatus() {
+        operatorStatusCache.reload();
+        LOG.info("operator status reloaded");
+    }
+
+    @ManagedAttribute(description = "client requests rejected since client was over its rate")
+    public long getClientRateRejectedCount() {
+        return clientRateLimiter.getRejectedCount();
+    }
+
+    @ManagedAttribute(description = "true if transaction index is warmed and in use")
+    public boolean isTransactionIndexReady() {
+        return transactionIndex.isReady();
+    }
+
+    @ManagedAttribute(description = "transaction lookups possibly found in index, checked in DB")
+    public long getTransactionIndexHitCount() {
+        return transactionIndex.getHitCount();
+    }
+
+    @ManagedAttribute(description = "transaction lookups not found in index, DB not checked")
+    public long getTransactionIndexMissCount() {
+        return transactionIndex.getMissCount();
+    }
+
+    @ManagedAttribute(description = "index hits not found in DB")
+    public long getTransactionIndexFalsePositiveCount() {
+        return transactionIndex.getFalsePositiveCount();
+    }
+
+    @ManagedOperation(description = "operator calls in progress")
+    @ManagedOperationParameters({
+        @ManagedOperationParameter(name = "operatorId", description = "operator id")
+    })
+    public int getOperatorActiveCount(int operatorId) {
+        return operatorExecutor.getActiveCount(operatorId);
+    }
+
+    @ManagedOperation(description = "operator calls waiting for a thread")
+    @ManagedOperationParameters({
+        @ManagedOperationParameter(name = "operatorId", description = "operator id")
+    })
+    public int getOperatorQueuedCount(int operatorId) {
+        return operatorExecutor.getQueuedCount(operatorId);
+    }
+
+    @ManagedOperation(description = "operator calls rejected since executor was full")
+    @ManagedOperationParameters({
+        @ManagedOperationParameter(name = "operatorId", description = "operator id")
+    })
+    public long getOperatorRejectedCount(int operatorId) {
+        return operatorExecutor.getRejectedCount(operatorId);
+    }
+
+    @ManagedOperation(description = "current adaptive limit of concurrent operator calls")
+    @ManagedOperationParameters({
+        @ManagedOperationParameter(name = "operatorId", description = "operator id")
+    })
+    public int getOperatorConcurrencyLimit(int operatorId) {
+        return operatorConcurrencyLimiter.getLimit(operatorId);
+    }
+
+    @ManagedOperation(description = "operator calls counted against concurrency limit")
+    @ManagedOperationParameters({
+        @ManagedOperationParameter(name = "operatorId", description = "operator id")
+    })
+    public int getOperatorInFlightCount(int operatorId) {
+        return operatorConcurrencyLimiter.getInFlight(operatorId);
+    }
+
+    @ManagedOperation(description = "operator calls rejected since concurrency limit was reached")
+    @ManagedOperationParameters({
+        @ManagedOperationParameter(name = "operatorId", description = "operator id")
+    })
+    public long getOperatorLimitRejectedCount(int operatorId) {
+        return operatorConcurrencyLimiter.getRejectedCount(operatorId);
+    }
+
+    @ManagedOperation(description = "operator calls shed since tps permit was not available in time")
+    @ManagedOperationParameters({
+        @ManagedOperationParameter(name = "operatorId", description = "operator id")
+    })
+    public long getOperatorShedCount(int operatorId) {
+        return operatorPacer.getShedCount(operatorId);
+    }
+
+    @ManagedOperation(description = "operator latency percentile in usec, all actions")
+    @ManagedOperationParameters({
+        @ManagedOperationParameter(name = "operatorId", description = "operator id"),
+        @ManagedOperationParameter(name = "percentile", description = "percentile, 0..100")
+    })
+    public long getOperatorLatencyPercentile(int operatorId, double percentile) {
+        LatencyHistogram latency = metricsRegistry.getLatency(operatorId);
+        return (latency == null) ? 0 : latency.getPercentile(percentile);
+    }
+
+    @ManagedOperation(description = "operator max latency in usec, all actions")
+    @ManagedOperationParameters({
+        @ManagedOperationParameter(name = "operatorId", description = "operator id")
+    })
+    public long getOperatorLatencyMax(int operatorId) {
+        LatencyHistogram latency = metricsRegistry.getLatency(operatorId);
+        return (latency == null) ? 0 : latency.getMax();
+    }
+
+    @ManagedOperation(description = "operator responses with ISG error code, 0 for OK")
+    @ManagedOperationParameters({
+        @ManagedOperationParameter(name = "operatorId", description = "operator id"),
+        @ManagedOperationParameter(name = "errorCode", description = "ISG error code")
+    })
+    public long getOperatorResponseCount(int operatorId, int errorCode) {
+        return metricsRegistry.getResponseCount(operatorId, errorCode);
+    }
+
+    @ManagedOperation(description = "operator requests in progress")
+    @ManagedOperationParameters({
+        @ManagedOperationParameter(name = "operatorId", description = "operator id")
+    })
+    public int getOperatorRequestsInProgress(int operatorId) {
+        return metricsRegistry.getInFlight(operatorId);
+    }
+
+    @ManagedOperation(description = "operator circuit state, CLOSED, OPEN or HALF_OPEN")
+    @ManagedOperationParameters({
+        @ManagedOperationParameter(name = "operatorId", description = "operator id")
+    })
+    public String getOperatorCircuitState(int operatorId) {
+        return operatorCircuitBreaker.getState(operatorId).name();
+    }
+
+    @ManagedOperation(description = "closes operator circuit, i.e. after operator is known to be back")
+    @ManagedOperationParameters({
+        @ManagedOperationParameter(name = "operatorId", description = "operator id")
+    })
+    public void resetOperatorCircuit(int operatorId) {
+        operatorCircuitBreaker.reset(operatorId);
+        LOG.info("operator circuit reset for: {}", operatorId);
+    }
+}
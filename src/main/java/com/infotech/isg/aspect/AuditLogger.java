@@ -1,24 +1,42 @@
 package com.infotech.isg.aspect;
 
 import com.infotech.isg.domain.Operator;
+import com.infotech.isg.domain.ServiceActions;
 import com.infotech.isg.validation.ErrorCodes;
 import com.infotech.isg.service.ISGService;
 import com.infotech.isg.service.ISGServiceResponse;
 import com.infotech.isg.service.AuditService;
+import com.infotech.isg.service.AuditFileWriter;
+import com.infotech.isg.metrics.MetricsRegistry;
+import com.infotech.isg.metrics.RequestTrace;
 
 import java.util.Date;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.AfterReturning;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 
 /**
  * audit logger for requests
  *
+ * availability polls are aggregated, logged only when the answer changes
+ * or once per isg.audit.availabilityInterval msec, with the polls count.
+ * latencies and response codes are recorded in metrics registry as well,
+ * per client only for clients authenticated by the request.
+ * sampled topups have their request trace logged next to audit record.
+ *
+ * audit records are written into audit file as JSON lines by audit file
+ * writer, colored audit lines are logged on isg.audit log only if
+ * isg.audit.console is set.
+ *
  * @author Sevak Gharibian
  */
 @Aspect
@@ -27,23 +45,63 @@ public class AuditLogger {
 
     private static final Logger LOG = LoggerFactory.getLogger("isg.audit");
 
+    // username authenticated by topup of current thread
+    private static final ThreadLocal<String> AUTHENTICATED = new ThreadLocal<String>();
+
     private final AuditService auditService;
+    private final AuditFileWriter auditFileWriter;
+    private final MetricsRegistry metricsRegistry;
 
+    @Value("${isg.audit.console:false}")
+    private boolean console = false;
+
+    @Value("${isg.audit.availabilityInterval:60000}")
+    private long availabilityInterval = 60000;
+
+    // availability polls per operator id
+    private final ConcurrentMap<Integer, AvailabilityPolls> availabilityPolls = new ConcurrentHashMap<Integer, AvailabilityPolls>();
 
     @Autowired
-    public AuditLogger(AuditService auditService ) {
+    public AuditLogger(AuditService auditService, AuditFileWriter auditFileWriter,
+                       MetricsRegistry metricsRegistry) {
         this.auditService = auditService;
+        this.auditFileWriter = auditFileWriter;
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    /**
+     * marks client of current topup authenticated, only then it is a metrics label
+     */
+    @AfterReturning(pointcut = "execution(public int com.infotech.isg.service.AccessControl.authenticate(..)) && args(username, ..)",
+                    returning = "errorCode")
+    public void authenticated(String username, int errorCode) {
+        if (errorCode == ErrorCodes.OK) {
+            AUTHENTICATED.set(username);
+        }
     }
 
     // around execution ISGService API
     @Around("execution(public * com.infotech.isg.service.ISGService.topup(..))")
     public Object auditTopupLog(ProceedingJoinPoint joinPoint) throws Throwable {
 
+        int operatorId = ((com.infotech.isg.service.ISGService)joinPoint.getThis()).getOperatorId();
+
         // get start time
         Date start = new Date();
+        long begin = System.nanoTime();
 
         // invoke the operation
-        Object result = joinPoint.proceed();
+        Object result;
+        String client;
+        metricsRegistry.enter(operatorId);
+        AUTHENTICATED.remove();
+        try {
+            result = joinPoint.proceed();
+        } finally {
+            client = AUTHENTICATED.get();
+            AUTHENTICATED.remove();
+            metricsRegistry.exit(operatorId);
+        }
 
         long responseTime = System.currentTimeMillis() - start.getTime();
 
@@ -67,25 +125,28 @@ public class AuditLogger {
         String action = String.valueOf(joinPoint.getArgs()[11]);
         String customerName = String.valueOf(joinPoint.getArgs()[12]);
         String vendor = String.valueOf(joinPoint.getArgs()[13]);
-        int operatorId = ((com.infotech.isg.service.ISGService)joinPoint.getThis()).getOperatorId();
 
-        // audit log in file
-        LOG.info("\u001B[32m{}\u001B[0m {} for [{},{}] from [{},{},{},T({}),RRN({}),{}] => [{}{}\u001B[0m,{}({}),{}{}\u001B[0m,{}] in {} msec",
-                 Operator.getName(operatorId),              // operator name
-                 action,                                    // action name
-                 consumer,                                  // consumer
-                 amount,                                    // amount
-                 username,                                  // username
-                 remoteIp,                                  // remote Ip
-                 channel,                                   // channel
-                 terminalId,                                // customer IP, first part
-                 bankReceipt,                               // RRN, Refnum, bank receipt => unique code from payment switch
-                 vendor,                                    // infotech by default                    
-                 (response.getStatus().equals("OK")) ? "\u001B[32m" : "\u001B[31m", response.getStatus(),
-                 ErrorCodes.toString((int)response.getISGDoc()), response.getISGDoc(),
-                 ((response.getOPRDoc() != null) && (response.getOPRDoc().startsWith("-"))) ? "\u001B[31m" : "\u001B[0m", response.getOPRDoc(),
-                 response.getMessage(),
-                 responseTime);
+        record(operatorId, actionLabel((String) joinPoint.getArgs()[11]), client, begin, response);
+
+        // audit log on console, colored
+        if (console) {
+            LOG.info("\u001B[32m{}\u001B[0m {} for [{},{}] from [{},{},{},T({}),RRN({}),{}] => [{}{}\u001B[0m,{}({}),{}{}\u001B[0m,{}] in {} msec",
+                     Operator.getName(operatorId),              // operator name
+                     action,                                    // action name
+                     consumer,                                  // consumer
+                     amount,                                    // amount
+                     username,                                  // username
+                     remoteIp,                                  // remote Ip
+                     channel,                                   // channel
+                     terminalId,                                // customer IP, first part
+                     bankReceipt,                               // RRN, Refnum, bank receipt => unique code from payment switch
+                     vendor,                                    // infotech by default                    
+                     (response.getStatus().equals("OK")) ? "\u001B[32m" : "\u001B[31m", response.getStatus(),
+                     ErrorCodes.toString((int)response.getISGDoc()), response.getISGDoc(),
+                     ((response.getOPRDoc() != null) && (response.getOPRDoc().startsWith("-"))) ? "\u001B[31m" : "\u001B[0m", response.getOPRDoc(),
+                     response.getMessage(),
+                     responseTime);
+        }
 
         // audit log in DB
         auditService.log(username, bankCode, amount, channel, state, bankReceipt, orderId,
@@ -93,6 +154,18 @@ public class AuditLogger {
                          response.getStatus(), response.getISGDoc(), response.getOPRDoc(),
                          start, responseTime, vendor);
 
+        // request trace, if sampled
+        RequestTrace trace = RequestTrace.current();
+        if (trace != null) {
+            trace.mark("audit");
+        }
+
+        // audit log in file
+        auditFileWriter.write(start, action, operatorId, username, remoteIp, channel, terminalId,
+                              consumer, amount, bankReceipt, vendor,
+                              response.getStatus(), response.getISGDoc(), response.getOPRDoc(),
+                              response.getMessage(), responseTime, (trace == null) ? null : trace.toString());
+
         return result;
     }
 
@@ -101,6 +174,7 @@ public class AuditLogger {
 
         // get start time
         Date start = new Date();
+        long begin = System.nanoTime();
 
         // invoke the operation
         Object result = joinPoint.proceed();
@@ -111,23 +185,45 @@ public class AuditLogger {
         ISGServiceResponse response = (com.infotech.isg.service.ISGServiceResponse) result;
         int operatorId = ((com.infotech.isg.service.ISGService)joinPoint.getThis()).getOperatorId();
 
-        // audit log in file
-        LOG.info("\u001B[32m{}\u001B[0m is vailable => [{}{}\u001B[0m,{}({}),{}{}\u001B[0m] in {} msec",
-                 Operator.getName(operatorId),              // operator name
-                 (response.getStatus().equals("OK")) ? "\u001B[32m" : "\u001B[31m",
-                 response.getStatus(),
-                 ((int)response.getISGDoc() < 0) ? ErrorCodes.toString((int)response.getISGDoc()) : "",
-                 response.getISGDoc(),
-                 ((response.getOPRDoc() != null) && (response.getOPRDoc().startsWith("-"))) ? "\u001B[31m" : "\u001B[0m",
-                 response.getOPRDoc(),
-                 responseTime);
+        record(operatorId, "isAvailable", null, begin, response);
 
-        // audit log in DB
+        AvailabilityPolls polls = availabilityPolls.get(operatorId);
+        if (polls == null) {
+            availabilityPolls.putIfAbsent(operatorId, new AvailabilityPolls());
+            polls = availabilityPolls.get(operatorId);
+        }
+        int count = polls.poll(response.getISGDoc(), start.getTime(), availabilityInterval);
+        if (count == 0) {
+            // same answer, aggregated
+            return result;
+        }
+
+        // audit log on console, colored
+        if (console) {
+            LOG.info("\u001B[32m{}\u001B[0m is vailable x{} => [{}{}\u001B[0m,{}({}),{}{}\u001B[0m] in {} msec",
+                     Operator.getName(operatorId),              // operator name
+                     count,                                     // polls aggregated
+                     (response.getStatus().equals("OK")) ? "\u001B[32m" : "\u001B[31m",
+                     response.getStatus(),
+                     ((int)response.getISGDoc() < 0) ? ErrorCodes.toString((int)response.getISGDoc()) : "",
+                     response.getISGDoc(),
+                     ((response.getOPRDoc() != null) && (response.getOPRDoc().startsWith("-"))) ? "\u001B[31m" : "\u001B[0m",
+                     response.getOPRDoc(),
+                     responseTime);
+        }
+
+        // audit log in DB, table has no message column for polls aggregated
         auditService.log(null, null, null, null, null, null, null,
                          null, null, null, "isAvailable", operatorId,
                          response.getStatus(), response.getISGDoc(), response.getOPRDoc(),
                          start, responseTime, null);
 
+        // audit log in file
+        auditFileWriter.write(start, "isAvailable", operatorId, null, null, null, null,
+                              null, null, null, null,
+                              response.getStatus(), response.getISGDoc(), response.getOPRDoc(),
+                              "polls: " + count, responseTime, null);
+
         return result;
     }
 
@@ -136,6 +232,7 @@ public class AuditLogger {
 
         // get start time
         Date start = new Date();
+        long begin = System.nanoTime();
 
         // invoke the operation
         Object result = joinPoint.proceed();
@@ -148,18 +245,22 @@ public class AuditLogger {
         String transactionId = joinPoint.getArgs()[1].toString();
         int operatorId = ((com.infotech.isg.service.ISGService)joinPoint.getThis()).getOperatorId();
 
-        // audit log in file
-        LOG.info("\u001B[32m{}\u001B[0m verify({},{}) => [{}{}\u001B[0m,{}({}),{}{}\u001B[0m] in {} msec",
-                 Operator.getName(operatorId),              // operator name
-                 consumer,
-                 transactionId,
-                 (response.getStatus().equals("OK")) ? "\u001B[32m" : "\u001B[31m",
-                 response.getStatus(),
-                 ((int)response.getISGDoc() < 0) ? ErrorCodes.toString((int)response.getISGDoc()) : "",
-                 response.getISGDoc(),
-                 ((response.getOPRDoc() != null) && (response.getOPRDoc().startsWith("-"))) ? "\u001B[31m" : "\u001B[0m",
-                 response.getOPRDoc(),
-                 responseTime);
+        record(operatorId, "verify", null, begin, response);
+
+        // audit log on console, colored
+        if (console) {
+            LOG.info("\u001B[32m{}\u001B[0m verify({},{}) => [{}{}\u001B[0m,{}({}),{}{}\u001B[0m] in {} msec",
+                     Operator.getName(operatorId),              // operator name
+                     consumer,
+                     transactionId,
+                     (response.getStatus().equals("OK")) ? "\u001B[32m" : "\u001B[31m",
+                     response.getStatus(),
+                     ((int)response.getISGDoc() < 0) ? ErrorCodes.toString((int)response.getISGDoc()) : "",
+                     response.getISGDoc(),
+                     ((response.getOPRDoc() != null) && (response.getOPRDoc().startsWith("-"))) ? "\u001B[31m" : "\u001B[0m",
+                     response.getOPRDoc(),
+                     responseTime);
+        }
 
         // audit log in DB
         auditService.log(null, null, null, null, null, null, null,
@@ -167,6 +268,12 @@ public class AuditLogger {
                          response.getStatus(), response.getISGDoc(), response.getOPRDoc(),
                          start, responseTime, null);
 
+        // audit log in file
+        auditFileWriter.write(start, "verify:" + transactionId, operatorId, null, null, null, null,
+                              consumer, null, null, null,
+                              response.getStatus(), response.getISGDoc(), response.getOPRDoc(),
+                              null, responseTime, null);
+
         return result;
     }
 
@@ -175,6 +282,7 @@ public class AuditLogger {
 
         // get start time
         Date start = new Date();
+        long begin = System.nanoTime();
 
         // invoke the operation
         Object result = joinPoint.proceed();
@@ -185,17 +293,21 @@ public class AuditLogger {
         ISGServiceResponse response = (com.infotech.isg.service.ISGServiceResponse) result;
         int operatorId = ((com.infotech.isg.service.ISGService)joinPoint.getThis()).getOperatorId();
 
-        // audit log in file
-        LOG.info("\u001B[32m{}\u001B[0m getBill => [{}{}\u001B[0m,{}({}),{}{}\u001B[0m,{}] in {} msec",
-                 Operator.getName(operatorId),              // operator name
-                 (response.getStatus().equals("OK")) ? "\u001B[32m" : "\u001B[31m",
-                 response.getStatus(),
-                 ((int)response.getISGDoc() < 0) ? ErrorCodes.toString((int)response.getISGDoc()) : "",
-                 response.getISGDoc(),
-                 ((response.getOPRDoc() != null) && (response.getOPRDoc().startsWith("-"))) ? "\u001B[31m" : "\u001B[0m",
-                 response.getOPRDoc(),
-                 response.getMessage(),
-                 responseTime);
+        record(operatorId, "getBill", null, begin, response);
+
+        // audit log on console, colored
+        if (console) {
+            LOG.info("\u001B[32m{}\u001B[0m getBill => [{}{}\u001B[0m,{}({}),{}{}\u001B[0m,{}] in {} msec",
+                     Operator.getName(operatorId),              // operator name
+                     (response.getStatus().equals("OK")) ? "\u001B[32m" : "\u001B[31m",
+                     response.getStatus(),
+                     ((int)response.getISGDoc() < 0) ? ErrorCodes.toString((int)response.getISGDoc()) : "",
+                     response.getISGDoc(),
+                     ((response.getOPRDoc() != null) && (response.getOPRDoc().startsWith("-"))) ? "\u001B[31m" : "\u001B[0m",
+                     response.getOPRDoc(),
+                     response.getMessage(),
+                     responseTime);
+        }
 
         // audit log in DB
         auditService.log(null, null, null, null, null, null, null,
@@ -203,6 +315,62 @@ public class AuditLogger {
                          response.getStatus(), response.getISGDoc(), response.getOPRDoc(),
                          start, responseTime, null);
 
+        // audit log in file
+        auditFileWriter.write(start, "getBill", operatorId, null, null, null, null,
+                              null, null, null, null,
+                              response.getStatus(), response.getISGDoc(), response.getOPRDoc(),
+                              response.getMessage(), responseTime, null);
+
         return result;
     }
+
+    /**
+     * action code of a valid action, so metrics labels are bounded
+     * whatever clients send
+     */
+    private String actionLabel(String action) {
+        if ((action == null) || !ServiceActions.isActionExist(action)) {
+            return "invalid";
+        }
+        return String.valueOf(ServiceActions.getActionCode(action));
+    }
+
+    /**
+     * records request latency and response codes in metrics
+     *
+     * @param begin request start, nano time
+     */
+    private void record(int operatorId, String action, String client, long begin, ISGServiceResponse response) {
+        long latency = (System.nanoTime() - begin) / 1000;
+        int errorCode = response.getStatus().equals("OK") ? ErrorCodes.OK : (int)response.getISGDoc();
+        metricsRegistry.recordLatency(operatorId, action, client, latency);
+        metricsRegistry.countResponse(operatorId, errorCode);
+        if (errorCode == ErrorCodes.OPERATOR_SERVICE_RESPONSE_NOK) {
+            metricsRegistry.countOperatorResponse(operatorId, response.getOPRDoc());
+        }
+    }
+
+    /**
+     * availability polls of an operator since last logged one
+     */
+    private static class AvailabilityPolls {
+        private long lastISGDoc = Long.MIN_VALUE;
+        private long lastLogged;
+        private int count;
+
+        /**
+         * @return polls to log including this one, zero if aggregated
+         */
+        synchronized int poll(long isgDoc, long now, long interval) {
+            count++;
+            if ((isgDoc != lastISGDoc) || (now - lastLogged >= interval)) {
+                int polls = count;
+                count = 0;
+                lastISGDoc = isgDoc;
+                lastLogged = now;
+                return polls;
+            }
+            return 0;
+        }
+    }
 }
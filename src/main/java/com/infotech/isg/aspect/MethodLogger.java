@@ -1,36 +1,192 @@
 package com.infotech.isg.aspect;
 
-import org.aspectj.lang.ProceedingJoinPoint;
-import org.aspectj.lang.annotation.Aspect;
-import org.aspectj.lang.annotation.Around;
+import com.infotech.isg.util.LatencyHistogram;
+
+import java.util.Map;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.lang.reflect.Method;
+import javax.annotation.PostConstruct;
+
+import org.aopalliance.aop.Advice;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.ClassFilter;
+import org.springframework.aop.Pointcut;
+import org.springframework.aop.aspectj.AspectJExpressionPointcut;
+import org.springframework.aop.support.AbstractPointcutAdvisor;
+import org.springframework.aop.support.StaticMethodMatcherPointcut;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
+import org.springframework.beans.factory.annotation.Value;
 
 /**
- * generic method entry logger.
+ * sampling method profiler.
+ *
+ * only methods matched by isg.profiler.pointcut are proxied, at startup,
+ * no bean is proxied for profiling if it is not set.
+ * switched on/off at runtime through JMX, a fraction of calls is timed and
+ * aggregated into per method latency histograms, nothing logged per call.
  *
  * @author Sevak Gharibian
  */
-@Aspect
 @Component
-public class MethodLogger {
+public class MethodLogger extends AbstractPointcutAdvisor implements MethodInterceptor {
 
     private static final Logger LOG = LoggerFactory.getLogger(MethodLogger.class);
 
-    // around execution any public method
-    @Around("execution(public * com.infotech.isg.service..*.*(..))"
-            + " || execution(public * com.infotech.isg.repository..*.*(..))"
-            + " || execution(public * com.infotech.isg.validation..*.*(..))"
-            + " || execution(public * com.infotech.isg.proxy..*.*(..))")
-    public Object logMethodEntry(ProceedingJoinPoint joinPoint) throws Throwable {
-        long start = System.currentTimeMillis();
-        Object result = joinPoint.proceed();
-        LOG.debug("{}.{}({}): {} in {} msec", joinPoint.getSignature().getDeclaringType().getSimpleName(),
-                  joinPoint.getSignature().getName(),
-                  joinPoint.getArgs(),
-                  result,
-                  System.currentTimeMillis() - start);
-        return result;
+    // matches no class, so nothing is proxied
+    private static final Pointcut NONE = new StaticMethodMatcherPointcut() {
+        @Override
+        public ClassFilter getClassFilter() {
+            return new ClassFilter() {
+                @Override
+                public boolean matches(Class<?> clazz) {
+                    return false;
+                }
+            };
+        }
+
+        @Override
+        public boolean matches(Method method, Class<?> targetClass) {
+            return false;
+        }
+    };
+
+    // AspectJ expression of profiled methods, i.e. execution(public * com.infotech.isg.proxy..*.*(..))
+    @Value("${isg.profiler.pointcut:}")
+    private String expression = "";
+
+    private Pointcut pointcut = NONE;
+
+    @Value("${isg.profiler.enabled:false}")
+    private volatile boolean enabled = false;
+
+    @Value("${isg.profiler.sampleRate:0.01}")
+    private volatile double sampleRate = 0.01;
+
+    // latency histograms per target class and method
+    private final ConcurrentMap<Class<?>, ConcurrentMap<Method, LatencyHistogram>> profiles =
+        new ConcurrentHashMap<Class<?>, ConcurrentMap<Method, LatencyHistogram>>();
+
+    @PostConstruct
+    public void init() {
+        if ((expression == null) || expression.trim().isEmpty()) {
+            LOG.info("no method profiler pointcut, nothing profiled");
+            return;
+        }
+        AspectJExpressionPointcut expressionPointcut = new AspectJExpressionPointcut();
+        expressionPointcut.setExpression(expression.trim());
+        pointcut = expressionPointcut;
+    }
+
+    @Override
+    public Pointcut getPointcut() {
+        return pointcut;
+    }
+
+    @Override
+    public Advice getAdvice() {
+        return this;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        if (!enabled) {
+            return invocation.proceed();
+        }
+        double rate = sampleRate;
+        if ((rate < 1) && (ThreadLocalRandom.current().nextDouble() >= rate)) {
+            return invocation.proceed();
+        }
+        long start = System.nanoTime();
+        try {
+            return invocation.proceed();
+        } finally {
+            histogram(invocation).record((System.nanoTime() - start) / 1000);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        LOG.info("method profiler {}, sample rate: {}", (enabled) ? "enabled" : "disabled", sampleRate);
+        if (enabled && (pointcut == NONE)) {
+            LOG.warn("no method profiler pointcut, nothing profiled");
+        }
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @param sampleRate ratio of calls timed, 0 to 1
+     */
+    public void setSampleRate(double sampleRate) {
+        this.sampleRate = Math.min(1, Math.max(0, sampleRate));
+    }
+
+    public void reset() {
+        profiles.clear();
+    }
+
+    /**
+     * @return one line per method, by sampled total time descending, usec
+     */
+    public String getProfile() {
+        List<String> names = new ArrayList<String>();
+        final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+        for (Map.Entry<Class<?>, ConcurrentMap<Method, LatencyHistogram>> target : profiles.entrySet()) {
+            for (Map.Entry<Method, LatencyHistogram> method : target.getValue().entrySet()) {
+                String name = target.getKey().getSimpleName() + "." + method.getKey().getName();
+                if (histograms.containsKey(name)) {
+                    // overloaded method, keep its parameter count
+                    name += "/" + method.getKey().getParameterTypes().length;
+                }
+                names.add(name);
+                histograms.put(name, method.getValue());
+            }
+        }
+        Collections.sort(names, new Comparator<String>() {
+            @Override
+            public int compare(String name1, String name2) {
+                return Long.compare(histograms.get(name2).getSum(), histograms.get(name1).getSum());
+            }
+        });
+        StringBuilder builder = new StringBuilder();
+        for (String name : names) {
+            LatencyHistogram histogram = histograms.get(name);
+            builder.append(String.format("%s count=%d p50=%d p99=%d max=%d total=%d%n", name,
+                                         histogram.getCount(), histogram.getPercentile(50),
+                                         histogram.getPercentile(99), histogram.getMax(), histogram.getSum()));
+        }
+        return builder.toString();
+    }
+
+    private LatencyHistogram histogram(MethodInvocation invocation) {
+        Method method = invocation.getMethod();
+        Class<?> target = (invocation.getThis() != null) ? invocation.getThis().getClass() : method.getDeclaringClass();
+
+        ConcurrentMap<Method, LatencyHistogram> methods = profiles.get(target);
+        if (methods == null) {
+            profiles.putIfAbsent(target, new ConcurrentHashMap<Method, LatencyHistogram>());
+            methods = profiles.get(target);
+        }
+        LatencyHistogram histogram = methods.get(method);
+        if (histogram == null) {
+            methods.putIfAbsent(method, new LatencyHistogram());
+            histogram = methods.get(method);
+        }
+        return histogram;
     }
 }
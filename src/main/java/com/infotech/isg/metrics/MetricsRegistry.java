@@ -0,0 +1,45 @@
+package com.infotech.isg.metrics;
+
+import com.infotech.isg.util.LatencyHistogram;
+
+import java.io.Writer;
+import java.io.IOException;
+
+/**
+ * in-process request metrics: latency histograms per operator, action
+ * and client, counters per ISG error code and per operator response code,
+ * and requests in progress per operator. recording is allocation free.
+ *
+ * @author Sevak Gharibian
+ */
+public interface MetricsRegistry {
+
+    /**
+     * @param client username, null if not authenticated
+     * @param latency usec
+     */
+    public void recordLatency(int operatorId, String action, String client, long latency);
+
+    /**
+     * @param errorCode ISG error code, OK for successful response
+     */
+    public void countResponse(int operatorId, int errorCode);
+
+    public void countOperatorResponse(int operatorId, String code);
+
+    public void enter(int operatorId);
+    public void exit(int operatorId);
+
+    /**
+     * latency of all actions of operator, null if nothing recorded
+     */
+    public LatencyHistogram getLatency(int operatorId);
+
+    public long getResponseCount(int operatorId, int errorCode);
+    public int getInFlight(int operatorId);
+
+    /**
+     * writes all metrics in prometheus text format
+     */
+    public void writePrometheus(Writer writer) throws IOException;
+}
@@ -0,0 +1,55 @@
+package com.infotech.isg.metrics;
+
+import java.util.Set;
+import java.util.HashSet;
+import java.io.IOException;
+import java.io.Writer;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+
+/**
+ * exposes metrics in prometheus text format.
+ *
+ * metrics are served on SOAP port outside of request filter, so only to
+ * addresses listed in isg.metrics.allowedIps, comma separated, localhost
+ * by default, others get 403.
+ *
+ * @author Sevak Gharibian
+ */
+public class MetricsServlet extends HttpServlet {
+
+    private static final String DEFAULT_ALLOWED_IPS = "127.0.0.1,0:0:0:0:0:0:0:1";
+
+    private MetricsRegistry metricsRegistry;
+    private Set<String> allowedIps;
+
+    @Override
+    public void init() throws ServletException {
+        WebApplicationContext context = WebApplicationContextUtils.getRequiredWebApplicationContext(getServletContext());
+        metricsRegistry = context.getBean(MetricsRegistry.class);
+        allowedIps = new HashSet<String>();
+        for (String ip : context.getEnvironment().getProperty("isg.metrics.allowedIps", DEFAULT_ALLOWED_IPS).split(",")) {
+            if (!ip.trim().isEmpty()) {
+                allowedIps.add(ip.trim());
+            }
+        }
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        if (!allowedIps.contains(request.getRemoteAddr())) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType("text/plain; version=0.0.4; charset=utf-8");
+        Writer writer = response.getWriter();
+        metricsRegistry.writePrometheus(writer);
+        writer.flush();
+    }
+}
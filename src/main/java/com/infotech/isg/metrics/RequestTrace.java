@@ -0,0 +1,135 @@
+package com.infotech.isg.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * per request stage timing trace of sampled requests.
+ *
+ * trace is bound to request thread, and to operator executor thread while
+ * operator is called. each stage is marked when it ends, its duration is the
+ * time since previous mark. when request is not sampled there is no trace and
+ * marking a stage is a single thread local lookup.
+ *
+ * @author Sevak Gharibian
+ */
+public final class RequestTrace {
+
+    private static final int MAX_STAGES = 32;
+    private static final ThreadLocal<RequestTrace> CURRENT = new ThreadLocal<RequestTrace>();
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+    private static final String PREFIX = Long.toString(System.currentTimeMillis(), 36) + "-";
+
+    private final String id;
+    private final String request;
+    private final long start;
+    private final String[] stages = new String[MAX_STAGES];
+    private final long[] marks = new long[MAX_STAGES];
+    private int count;
+    private String operatorTId;
+
+    private RequestTrace(String request) {
+        this.id = PREFIX + Long.toString(SEQUENCE.incrementAndGet(), 36);
+        this.request = request;
+        this.start = System.nanoTime();
+    }
+
+    /**
+     * starts a trace bound to current thread
+     */
+    public static RequestTrace start(String request) {
+        RequestTrace trace = new RequestTrace(request);
+        CURRENT.set(trace);
+        return trace;
+    }
+
+    /**
+     * ends trace of current thread
+     */
+    public static void end() {
+        CURRENT.remove();
+    }
+
+    /**
+     * @return trace of current thread, null if not sampled
+     */
+    public static RequestTrace current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * binds trace to current thread, i.e. operator executor thread
+     *
+     * @return previous trace of current thread, to be bound back
+     */
+    public static RequestTrace bind(RequestTrace trace) {
+        RequestTrace previous = CURRENT.get();
+        if (trace == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(trace);
+        }
+        return previous;
+    }
+
+    /**
+     * marks end of stage in current trace, if any
+     */
+    public static void stage(String stage) {
+        RequestTrace trace = CURRENT.get();
+        if (trace != null) {
+            trace.mark(stage);
+        }
+    }
+
+    /**
+     * sets operator transaction id of current trace, if any
+     */
+    public static void operatorTId(String operatorTId) {
+        RequestTrace trace = CURRENT.get();
+        if (trace != null) {
+            trace.setOperatorTId(operatorTId);
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return msec since trace started
+     */
+    public long getElapsed() {
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    public synchronized void mark(String stage) {
+        if (count < MAX_STAGES) {
+            stages[count] = stage;
+            marks[count] = System.nanoTime();
+            count++;
+        }
+    }
+
+    public synchronized void setOperatorTId(String operatorTId) {
+        this.operatorTId = operatorTId;
+    }
+
+    /**
+     * @return id, request, operator transaction id and stage durations in msec
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder(128);
+        builder.append(id).append(' ').append(request).append(" oprTId=").append(operatorTId).append(" [");
+        long last = start;
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(stages[i]).append('=').append(String.format(Locale.ROOT, "%.3f", (marks[i] - last) / 1e6));
+            last = marks[i];
+        }
+        return builder.append("] in ").append((last - start) / 1000000).append(" msec").toString();
+    }
+}
@@ -0,0 +1,50 @@
+package com.infotech.isg.metrics;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.springframework.stereotype.Component;
+import org.springframework.beans.factory.annotation.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * samples requests for stage timing trace, logs slow ones.
+ *
+ * isg.trace.sampleRate: ratio of requests traced, 0 to 1, 0 is off
+ * isg.trace.slowThreshold: msec, traced requests taking longer are logged
+ *
+ * @author Sevak Gharibian
+ */
+@Component
+public class RequestTracer {
+
+    private static final Logger SLOW_LOG = LoggerFactory.getLogger("isg.slow");
+
+    @Value("${isg.trace.sampleRate:0}")
+    private double sampleRate = 0;
+
+    @Value("${isg.trace.slowThreshold:5000}")
+    private long slowThreshold = 5000;
+
+    /**
+     * @return trace bound to current thread, null if request not sampled
+     */
+    public RequestTrace start(String request) {
+        if ((sampleRate <= 0)
+            || ((sampleRate < 1) && (ThreadLocalRandom.current().nextDouble() >= sampleRate))) {
+            return null;
+        }
+        return RequestTrace.start(request);
+    }
+
+    public void end(RequestTrace trace) {
+        if (trace == null) {
+            return;
+        }
+        trace.mark("ws");
+        RequestTrace.end();
+        if (trace.getElapsed() >= slowThreshold) {
+            SLOW_LOG.warn("slow request: {}", trace);
+        }
+    }
+}
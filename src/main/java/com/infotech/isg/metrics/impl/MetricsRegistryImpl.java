@@ -0,0 +1,227 @@
+package com.infotech.isg.metrics.impl;
+
+import com.infotech.isg.domain.Operator;
+import com.infotech.isg.metrics.MetricsRegistry;
+import com.infotech.isg.util.LatencyHistogram;
+import com.infotech.isg.validation.ErrorCodes;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.io.Writer;
+import java.io.IOException;
+
+import org.springframework.stereotype.Component;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * metrics registry implementation.
+ *
+ * metrics are created on first use and kept for process lifetime, actions,
+ * clients and operator response codes are capped, so random usernames or codes can
+ * not grow memory unbounded. latencies are exported in seconds.
+ *
+ * @author Sevak Gharibian
+ */
+@Component
+public class MetricsRegistryImpl implements MetricsRegistry {
+
+    private static final int MAX_ERROR_CODES = 64;
+    private static final int MAX_OPERATOR_CODES = 256;
+    private static final int MAX_ACTIONS = 32;
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    @Value("${isg.metrics.maxClients:1000}")
+    private int maxClients = 1000;
+
+    private final ConcurrentMap<Integer, OperatorMetrics> operators = new ConcurrentHashMap<Integer, OperatorMetrics>();
+    private final ConcurrentMap<String, LatencyHistogram> clients = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    @Override
+    public void recordLatency(int operatorId, String action, String client, long latency) {
+        OperatorMetrics metrics = operator(operatorId);
+        metrics.latency.record(latency);
+        if (action != null) {
+            LatencyHistogram histogram = histogram(metrics.actions, action, MAX_ACTIONS);
+            if (histogram != null) {
+                histogram.record(latency);
+            }
+        }
+        if (client != null) {
+            LatencyHistogram histogram = histogram(clients, client, maxClients);
+            if (histogram != null) {
+                histogram.record(latency);
+            }
+        }
+    }
+
+    @Override
+    public void countResponse(int operatorId, int errorCode) {
+        int index = -errorCode;
+        if ((index >= 0) && (index < MAX_ERROR_CODES)) {
+            operator(operatorId).errors.incrementAndGet(index);
+        }
+    }
+
+    @Override
+    public void countOperatorResponse(int operatorId, String code) {
+        if (code == null) {
+            return;
+        }
+        OperatorMetrics metrics = operator(operatorId);
+        AtomicLong counter = metrics.codes.get(code);
+        if (counter == null) {
+            if (metrics.codes.size() >= MAX_OPERATOR_CODES) {
+                return;
+            }
+            metrics.codes.putIfAbsent(code, new AtomicLong());
+            counter = metrics.codes.get(code);
+        }
+        counter.incrementAndGet();
+    }
+
+    @Override
+    public void enter(int operatorId) {
+        operator(operatorId).inFlight.incrementAndGet();
+    }
+
+    @Override
+    public void exit(int operatorId) {
+        operator(operatorId).inFlight.decrementAndGet();
+    }
+
+    @Override
+    public LatencyHistogram getLatency(int operatorId) {
+        OperatorMetrics metrics = operators.get(operatorId);
+        return (metrics == null) ? null : metrics.latency;
+    }
+
+    @Override
+    public long getResponseCount(int operatorId, int errorCode) {
+        OperatorMetrics metrics = operators.get(operatorId);
+        int index = -errorCode;
+        if ((metrics == null) || (index < 0) || (index >= MAX_ERROR_CODES)) {
+            return 0;
+        }
+        return metrics.errors.get(index);
+    }
+
+    @Override
+    public int getInFlight(int operatorId) {
+        OperatorMetrics metrics = operators.get(operatorId);
+        return (metrics == null) ? 0 : metrics.inFlight.get();
+    }
+
+    @Override
+    public void writePrometheus(Writer writer) throws IOException {
+        writer.write("# HELP isg_latency_seconds request latency per operator\n");
+        writer.write("# TYPE isg_latency_seconds summary\n");
+        for (Map.Entry<Integer, OperatorMetrics> entry : operators.entrySet()) {
+            writeSummary(writer, "isg_latency_seconds", "operator=\"" + name(entry.getKey()) + "\"", entry.getValue().latency);
+        }
+
+        writer.write("# HELP isg_action_latency_seconds request latency per operator and action\n");
+        writer.write("# TYPE isg_action_latency_seconds summary\n");
+        for (Map.Entry<Integer, OperatorMetrics> entry : operators.entrySet()) {
+            for (Map.Entry<String, LatencyHistogram> action : entry.getValue().actions.entrySet()) {
+                writeSummary(writer, "isg_action_latency_seconds",
+                             "operator=\"" + name(entry.getKey()) + "\",action=\"" + escape(action.getKey()) + "\"",
+                             action.getValue());
+            }
+        }
+
+        writer.write("# HELP isg_client_latency_seconds topup latency per client\n");
+        writer.write("# TYPE isg_client_latency_seconds summary\n");
+        for (Map.Entry<String, LatencyHistogram> client : clients.entrySet()) {
+            writeSummary(writer, "isg_client_latency_seconds", "client=\"" + escape(client.getKey()) + "\"", client.getValue());
+        }
+
+        writer.write("# HELP isg_responses_total responses per operator and ISG error code\n");
+        writer.write("# TYPE isg_responses_total counter\n");
+        for (Map.Entry<Integer, OperatorMetrics> entry : operators.entrySet()) {
+            AtomicLongArray errors = entry.getValue().errors;
+            for (int i = 0; i < MAX_ERROR_CODES; i++) {
+                long count = errors.get(i);
+                if (count > 0) {
+                    String code = ErrorCodes.toString(-i);
+                    writer.write("isg_responses_total{operator=\"" + name(entry.getKey()) + "\",code=\""
+                                 + (code.isEmpty() ? Integer.toString(-i) : code) + "\"} " + count + "\n");
+                }
+            }
+        }
+
+        writer.write("# HELP isg_operator_responses_total responses per operator response code\n");
+        writer.write("# TYPE isg_operator_responses_total counter\n");
+        for (Map.Entry<Integer, OperatorMetrics> entry : operators.entrySet()) {
+            for (Map.Entry<String, AtomicLong> code : entry.getValue().codes.entrySet()) {
+                writer.write("isg_operator_responses_total{operator=\"" + name(entry.getKey()) + "\",code=\""
+                             + escape(code.getKey()) + "\"} " + code.getValue().get() + "\n");
+            }
+        }
+
+        writer.write("# HELP isg_in_flight requests in progress per operator\n");
+        writer.write("# TYPE isg_in_flight gauge\n");
+        for (Map.Entry<Integer, OperatorMetrics> entry : operators.entrySet()) {
+            writer.write("isg_in_flight{operator=\"" + name(entry.getKey()) + "\"} " + entry.getValue().inFlight.get() + "\n");
+        }
+    }
+
+    private void writeSummary(Writer writer, String metric, String labels, LatencyHistogram histogram) throws IOException {
+        for (double quantile : QUANTILES) {
+            writer.write(metric + "{" + labels + ",quantile=\"" + quantile + "\"} "
+                         + seconds(histogram.getPercentile(quantile * 100)) + "\n");
+        }
+        writer.write(metric + "_sum{" + labels + "} " + seconds(histogram.getSum()) + "\n");
+        writer.write(metric + "_count{" + labels + "} " + histogram.getCount() + "\n");
+    }
+
+    private OperatorMetrics operator(int operatorId) {
+        OperatorMetrics metrics = operators.get(operatorId);
+        if (metrics == null) {
+            operators.putIfAbsent(operatorId, new OperatorMetrics());
+            metrics = operators.get(operatorId);
+        }
+        return metrics;
+    }
+
+    /**
+     * histogram for key, created if less than max, else null
+     */
+    private static LatencyHistogram histogram(ConcurrentMap<String, LatencyHistogram> histograms, String key, int max) {
+        LatencyHistogram histogram = histograms.get(key);
+        if (histogram == null) {
+            if (histograms.size() >= max) {
+                return null;
+            }
+            histograms.putIfAbsent(key, new LatencyHistogram());
+            histogram = histograms.get(key);
+        }
+        return histogram;
+    }
+
+    private static String name(int operatorId) {
+        return escape(Operator.getName(operatorId));
+    }
+
+    private static String seconds(long usec) {
+        return Double.toString(usec / 1e6);
+    }
+
+    private static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static class OperatorMetrics {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final ConcurrentMap<String, LatencyHistogram> actions = new ConcurrentHashMap<String, LatencyHistogram>();
+        private final AtomicLongArray errors = new AtomicLongArray(MAX_ERROR_CODES);
+        private final ConcurrentMap<String, AtomicLong> codes = new ConcurrentHashMap<String, AtomicLong>();
+        private final AtomicInteger inFlight = new AtomicInteger();
+    }
+}
@@ -2,6 +2,8 @@ package com.infotech.isg.service;
 
 import com.infotech.isg.domain.Client;
 
+import java.util.Set;
+
 /**
  * providing access control service for clients
  *
@@ -10,4 +12,13 @@ import com.infotech.isg.domain.Client;
 public interface AccessControl {
     public int authenticate(String username, String password, String remoteIp);
     public Client getClient(String username);
+    public void invalidate(String username);
+    public void invalidateAll();
+
+    /**
+     * loads all clients into cache
+     *
+     * @return IPs of all clients, null if clients can not be listed
+     */
+    public Set<String> getClientIps();
 }
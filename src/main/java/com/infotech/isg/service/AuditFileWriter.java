@@ -0,0 +1,23 @@
+package com.infotech.isg.service;
+
+import java.util.Date;
+
+/**
+ * writes audit records into audit file, one JSON object per line
+ *
+ * @author Sevak Gharibian
+ */
+public interface AuditFileWriter {
+
+    /**
+     * queues audit record, never blocks, record is dropped if queue is full
+     */
+    public void write(Date timestamp, String action, int operatorId,
+                      String username, String remoteIp, String channel,
+                      String terminalId, String consumer, String amount,
+                      String bankReceipt, String vendor, String status,
+                      long isgDoc, String oprDoc, String message,
+                      long responseTime, String trace);
+
+    public long getDroppedCount();
+}
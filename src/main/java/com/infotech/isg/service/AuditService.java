@@ -14,4 +14,9 @@ public interface AuditService {
                     String remoteIp, String action, int operatorId,
                     String status, long isgDoc, String oprDoc,
                     Date timestamp, long responseTime, String vendor);
+
+    /**
+     * writes audit records spilled to file into DB
+     */
+    public void replaySpill();
 }
@@ -5,8 +5,15 @@ import com.infotech.isg.domain.Balance;
 /**
  * balance service API
  *
+ * MCI pins are counted per denomination in memory, a pin is reserved before
+ * routing a request to MCI, then committed or released based on the outcome.
+ *
  * @author Sevak Gharibian
  */
 public interface BalanceService {
     public Balance findById(Integer id);
+    public boolean reserveMCI(int amount);
+    public void commitMCI(int amount);
+    public void releaseMCI(int amount);
+    public void reconcile();
 }
@@ -0,0 +1,16 @@
+package com.infotech.isg.service;
+
+/**
+ * per client request rate limits.
+ *
+ * @author Sevak Gharibian
+ */
+public interface ClientRateLimiter {
+
+    /**
+     * @return false if client is over its rate
+     */
+    public boolean tryAcquire(String username);
+
+    public long getRejectedCount();
+}
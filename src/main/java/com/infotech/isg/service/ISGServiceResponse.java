@@ -3,6 +3,7 @@ package com.infotech.isg.service;
 import javax.xml.bind.annotation.XmlRootElement;
 import javax.xml.bind.annotation.XmlType;
 import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlTransient;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlAccessType;
 
@@ -40,6 +41,10 @@ public class ISGServiceResponse {
     @XmlElement(name = "param4")
     private String param4;
 
+    // topup request was sent to operator, not published to clients
+    @XmlTransient
+    private boolean sentToOperator;
+
     public String getStatus() {
         return status;
     }
@@ -125,6 +130,14 @@ public class ISGServiceResponse {
         this.param4 = param4;
     }
 
+    public boolean isSentToOperator() {
+        return sentToOperator;
+    }
+
+    public void setSentToOperator(boolean sentToOperator) {
+        this.sentToOperator = sentToOperator;
+    }
+
     @Override
     public String toString() {
         return String.format("[status:%s,ISGDoc:%d,oprDoc:%s,message:%s]", status, isgDoc, oprDoc, message);
@@ -0,0 +1,78 @@
+package com.infotech.isg.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MTN account, immutable credentials of one vendor account
+ * along with number of requests in progress on it.
+ *
+ * @author Sevak Gharibian
+ */
+public class MTNAccount {
+
+    private final String vendor;
+    private final String url;
+    private final String username;
+    private final String password;
+    private final String namespace;
+    private final String vendorName;
+    private final int weight;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public MTNAccount(String vendor, String url, String username, String password,
+                      String namespace, String vendorName, int weight) {
+        this.vendor = vendor;
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.namespace = namespace;
+        this.vendorName = vendorName;
+        this.weight = weight;
+    }
+
+    public String getVendor() {
+        return vendor;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public String getNamespace() {
+        return namespace;
+    }
+
+    public String getVendorName() {
+        return vendorName;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public void acquire() {
+        inFlight.incrementAndGet();
+    }
+
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MTNAccount[vendor=%s, url=%s, username=%s, weight=%d, inFlight=%d]",
+                             vendor, url, username, weight, inFlight.get());
+    }
+}
@@ -0,0 +1,17 @@
+package com.infotech.isg.service;
+
+/**
+ * MTN accounts per vendor, built at startup.
+ *
+ * @author Sevak Gharibian
+ */
+public interface MTNAccountRegistry {
+
+    /**
+     * selects least loaded account of vendor, relative to account weight,
+     * returns null if vendor unknown, account should be released after use
+     */
+    public MTNAccount acquire(String vendor);
+
+    public void release(MTNAccount account);
+}
@@ -0,0 +1,38 @@
+package com.infotech.isg.service;
+
+/**
+ * per operator circuit breaker.
+ * trips on consecutive operator not available/timeout failures,
+ * while open, requests fail fast without reaching operator.
+ *
+ * @author Sevak Gharibian
+ */
+public interface OperatorCircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /**
+     * true if request may be sent to operator, in half open state
+     * only a single probe request is allowed at a time
+     */
+    public boolean allowRequest(int operatorId);
+
+    /**
+     * operator responded, whatever the response
+     */
+    public void onSuccess(int operatorId);
+
+    /**
+     * operator not available or timed out
+     */
+    public void onFailure(int operatorId);
+
+    /**
+     * request allowed was not sent to operator, its probe slot
+     * if taken is given back, no outcome counted
+     */
+    public void cancel(int operatorId);
+
+    public State getState(int operatorId);
+    public void reset(int operatorId);
+}
@@ -0,0 +1,39 @@
+package com.infotech.isg.service;
+
+/**
+ * adaptive per operator limit of concurrent operator calls.
+ * limit shrinks as operator latency climbs and grows back as it recovers,
+ * under contention it is shared among clients by weight.
+ *
+ * @author Sevak Gharibian
+ */
+public interface OperatorConcurrencyLimiter {
+
+    /**
+     * @param client username, null if call not made for a client
+     * @return false if operator calls in progress already reached limit,
+     *         or client already has its share of the limit
+     */
+    public boolean tryAcquire(int operatorId, String client);
+
+    /**
+     * operator call acquired by tryAcquire is done
+     *
+     * @param client username given to tryAcquire
+     * @param latency msec operator call took
+     * @param dropped true if operator call failed or timed out
+     */
+    public void release(int operatorId, String client, long latency, boolean dropped);
+
+    /**
+     * operator call acquired by tryAcquire was not sent,
+     * slot is given back without adjusting limit
+     *
+     * @param client username given to tryAcquire
+     */
+    public void cancel(int operatorId, String client);
+
+    public int getLimit(int operatorId);
+    public int getInFlight(int operatorId);
+    public long getRejectedCount(int operatorId);
+}
@@ -0,0 +1,24 @@
+package com.infotech.isg.service;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * bounded per operator executors (bulkheads) for operator calls.
+ * a stuck operator can only hold its own threads and queue.
+ *
+ * @author Sevak Gharibian
+ */
+public interface OperatorExecutor {
+
+    /**
+     * submits task to operator executor
+     *
+     * @throws OperatorRejectedException if operator executor is full
+     */
+    public <T> Future<T> submit(int operatorId, Callable<T> task);
+
+    public int getActiveCount(int operatorId);
+    public int getQueuedCount(int operatorId);
+    public long getRejectedCount(int operatorId);
+}
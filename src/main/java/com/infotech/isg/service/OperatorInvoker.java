@@ -0,0 +1,45 @@
+package com.infotech.isg.service;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * invokes operator services on operator executors within a deadline.
+ *
+ * topup deadline is given by caller, within per operator/per client policy
+ * of getDeadline, when passed, response is ambiguous and
+ * OperatorUnknownResponseException is thrown.
+ *
+ * @author Sevak Gharibian
+ */
+public interface OperatorInvoker {
+
+    public CompletableFuture<OperatorServiceResponse> topupAsync(int operatorId, OperatorService operatorService,
+            String consumer, int amount,
+            long transactionId, String action,
+            String customerName, String vendor,
+            String channel, String clientUsername, long deadline);
+
+    public CompletableFuture<OperatorServiceResponse> getBillAsync(int operatorId, OperatorService operatorService,
+            String consumer);
+
+    /**
+     * blocking topup, waiting for topupAsync within deadline
+     *
+     * @param deadline msec left of getDeadline for this call
+     */
+    public OperatorServiceResponse topup(int operatorId, OperatorService operatorService,
+                                         String consumer, int amount,
+                                         long transactionId, String action,
+                                         String customerName, String vendor,
+                                         String channel, String clientUsername, long deadline);
+
+    /**
+     * blocking getBill, waiting for getBillAsync within deadline
+     */
+    public OperatorServiceResponse getBill(int operatorId, OperatorService operatorService, String consumer);
+
+    /**
+     * msec an operator call is waited for this client
+     */
+    public long getDeadline(int operatorId, String clientUsername);
+}
@@ -0,0 +1,19 @@
+package com.infotech.isg.service;
+
+/**
+ * outbound pacing of operator calls within operator contract TPS,
+ * per operator and per vendor account.
+ *
+ * @author Sevak Gharibian
+ */
+public interface OperatorPacer {
+
+    /**
+     * waits for operator and vendor permits, at most maxWait msec
+     *
+     * @return false if permit not available within maxWait, call should be shed
+     */
+    public boolean pace(int operatorId, String vendor, long maxWait);
+
+    public long getShedCount(int operatorId);
+}
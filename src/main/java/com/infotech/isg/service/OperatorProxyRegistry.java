@@ -0,0 +1,35 @@
+package com.infotech.isg.service;
+
+import com.infotech.isg.proxy.mci.MCIProxy;
+import com.infotech.isg.proxy.mcipinless.MCIPinLessProxy;
+import com.infotech.isg.proxy.jiring.JiringProxy;
+import com.infotech.isg.proxy.rightel.RightelProxy;
+import com.infotech.isg.proxy.vopay.VopayProxy;
+import com.infotech.isg.proxy.mtn.MTNProxy;
+import com.infotech.isg.util.EndpointGroup;
+import com.infotech.isg.util.ProxyPool;
+
+/**
+ * operator endpoints built once from configuration, each thread calling
+ * an endpoint gets its own proxy.
+ * MTN proxies are pooled per account and vendor name.
+ *
+ * @author Sevak Gharibian
+ */
+public interface OperatorProxyRegistry {
+    public EndpointGroup<MCIProxy> getMCIEndpoints();
+    public EndpointGroup<MCIPinLessProxy> getMCIPinLessEndpoints();
+    public EndpointGroup<JiringProxy> getJiringEndpoints();
+    public EndpointGroup<RightelProxy> getRightelEndpoints();
+    public VopayProxy getVopayProxy();
+
+    /**
+     * idle MTN proxies of account, built with given vendor name
+     */
+    public ProxyPool<MTNProxy> getMTNProxyPool(MTNAccount account, String vendorName);
+
+    /**
+     * drops pooled proxies idle longer than idle timeout
+     */
+    public void evict();
+}
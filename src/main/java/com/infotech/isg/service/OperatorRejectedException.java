@@ -0,0 +1,20 @@
+package com.infotech.isg.service;
+
+/**
+ * custom exception for operator service
+ * used when operator call is rejected locally and never sent,
+ * i.e. operator executor full or call deadline passed while still queued,
+ * operator is not available to caller but has not failed itself
+ *
+ * @author Sevak Gharibian
+ */
+public class OperatorRejectedException extends OperatorNotAvailableException {
+
+    public OperatorRejectedException(String message) {
+        super(message);
+    }
+
+    public OperatorRejectedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,25 @@
+package com.infotech.isg.service;
+
+/**
+ * in-memory operator availability, fed by operator status table
+ * and by active probing of operators.
+ *
+ * @author Sevak Gharibian
+ */
+public interface OperatorStatusCache {
+
+    /**
+     * @return null if operator status not available
+     */
+    public Boolean isAvailable(int operatorId);
+
+    /**
+     * reloads operator status table, i.e. after it is changed
+     */
+    public void reload();
+
+    /**
+     * probes operators with a cheap operator call
+     */
+    public void probe();
+}
@@ -0,0 +1,27 @@
+package com.infotech.isg.service;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * custom exception for operator service
+ * used when operator call deadline passed while call is still in progress,
+ * response is ambiguous for now, but late response may be captured later
+ *
+ * @author Sevak Gharibian
+ */
+public class OperatorTimeoutException extends OperatorUnknownResponseException {
+
+    private final CompletableFuture<OperatorServiceResponse> lateResponse;
+
+    public OperatorTimeoutException(String message, CompletableFuture<OperatorServiceResponse> lateResponse) {
+        super(message);
+        this.lateResponse = lateResponse;
+    }
+
+    /**
+     * completes when operator call finally returns
+     */
+    public CompletableFuture<OperatorServiceResponse> getLateResponse() {
+        return lateResponse;
+    }
+}
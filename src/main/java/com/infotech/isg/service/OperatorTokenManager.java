@@ -0,0 +1,34 @@
+package com.infotech.isg.service;
+
+/**
+ * operator session token cache, per (url, username).
+ *
+ * @author Sevak Gharibian
+ */
+public interface OperatorTokenManager {
+
+    /**
+     * fetches a new token from operator,
+     * throws OperatorNotAvailableException if token not available
+     */
+    public interface TokenSource {
+        public String fetch();
+    }
+
+    /**
+     * returns cached token if still valid, else fetches a new one,
+     * only one fetch per (url, username) at a time, others wait for it.
+     * ttl zero or less means token is not cached.
+     */
+    public String getToken(String url, String username, long ttl, TokenSource tokenSource);
+
+    /**
+     * drops token rejected by operator, if still cached
+     */
+    public void invalidate(String url, String username, String token);
+
+    /**
+     * refreshes tokens about to expire
+     */
+    public void refresh();
+}
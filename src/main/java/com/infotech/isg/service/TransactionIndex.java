@@ -0,0 +1,30 @@
+package com.infotech.isg.service;
+
+/**
+ * in-memory probabilistic index of recent transactions,
+ * keyed on (bank receipt, bank code, client id).
+ * false means transaction certainly not registered recently,
+ * true means it may exist and DB should be checked.
+ * false is only taken as never registered if index is complete.
+ *
+ * @author Sevak Gharibian
+ */
+public interface TransactionIndex {
+    public boolean mightContain(String bankReceipt, String bankCode, int clientId);
+    public void put(String bankReceipt, String bankCode, int clientId);
+    public void recordFalsePositive();
+    public boolean isReady();
+
+    /**
+     * index covers every transaction in DB, not only recent ones
+     */
+    public boolean isComplete();
+
+    /**
+     * verifies complete index has seen all recent transactions in DB
+     */
+    public void verify();
+    public long getHitCount();
+    public long getMissCount();
+    public long getFalsePositiveCount();
+}
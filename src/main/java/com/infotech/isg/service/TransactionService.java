@@ -0,0 +1,35 @@
+package com.infotech.isg.service;
+
+import com.infotech.isg.domain.Transaction;
+
+import java.util.List;
+
+/**
+ * transaction service API, each call runs in its own short DB transaction
+ * so that no connection is held while waiting for operators.
+ *
+ * @author Sevak Gharibian
+ */
+public interface TransactionService {
+    public void save(Transaction transaction);
+    public List<Transaction> findByRefNumBankCodeClientId(String refNum, String bankCode, int clientId);
+    public Transaction findByProviderOperatorTId(int provider, String transactionId);
+
+    /**
+     * resolves STF of transaction to its stf and stfResult, only if still
+     * unresolved, i.e. not resolved by STF process in the meantime
+     *
+     * @return false if STF already resolved
+     */
+    public boolean resolveStf(Transaction transaction);
+
+    /**
+     * sets transaction for STF to try again, i.e. if its STF value is invalid
+     */
+    public void setForStf(Transaction transaction);
+
+    /**
+     * sets in-flight transactions left behind by a dead process for STF
+     */
+    public void recoverInFlight();
+}
@@ -6,49 +6,200 @@ import com.infotech.isg.validation.ErrorCodes;
 import com.infotech.isg.util.HashGenerator;
 import com.infotech.isg.repository.ClientRepository;
 
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
 import org.springframework.stereotype.Service;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 
 /**
  * performing access control logic for clients
  *
+ * clients are cached by username for a limited time, unknown usernames
+ * are cached as well for a shorter time, so known clients need no DB access
+ * on each request. only password hash is cached, password is compared by
+ * its hash in constant time.
+ * all clients can be loaded at once, i.e. for their IPs, through JPA,
+ * so only with jpa profiles.
+ *
  * @author Sevak Gharibian
  */
 @Service
 public class AccessControlImpl implements AccessControl {
 
     private final ClientRepository clientRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ConcurrentMap<String, CachedClient> clients = new ConcurrentHashMap<String, CachedClient>();
+    private EntityManager entityManager;
+
+    @Value("${isg.client.cacheTtl:60000}")
+    private long cacheTtl = 60000;
+
+    @Value("${isg.client.negativeCacheTtl:10000}")
+    private long negativeCacheTtl = 10000;
+
+    @Value("${isg.client.cacheSize:10000}")
+    private int cacheSize = 10000;
 
     @Autowired
-    public AccessControlImpl(ClientRepository clientRepository) {
+    public AccessControlImpl(ClientRepository clientRepository,
+                             PlatformTransactionManager transactionManager) {
         this.clientRepository = clientRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    /**
+     * all clients can be loaded if set, i.e. with jpa profiles
+     */
+    @Autowired(required = false)
+    public void setEntityManagerFactory(EntityManagerFactory entityManagerFactory) {
+        this.entityManager = SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory);
     }
 
     @Override
-    @Transactional(readOnly = true)
     public int authenticate(String username, String password, String remoteIp) {
-        Client client = clientRepository.findByUsername(username);
-        if (client == null) {
+        if ((username == null) || (password == null)) {
             return ErrorCodes.INVALID_USERNAME_OR_PASSWORD;
         }
-        if (!client.getPassword().equals(HashGenerator.getSHA512(password))) {
+        CachedClient cachedClient = lookup(username);
+        if (cachedClient.client == null) {
             return ErrorCodes.INVALID_USERNAME_OR_PASSWORD;
         }
-        if (!client.getIsActive()) {
+        if (!cachedClient.verify(password)) {
+            return ErrorCodes.INVALID_USERNAME_OR_PASSWORD;
+        }
+        if (!cachedClient.isActive) {
             return ErrorCodes.DISABLED_CLIENT_ACCOUNT;
         }
-        if (!client.getIps().contains(remoteIp)) {
+        if (!cachedClient.ips.contains(remoteIp)) {
             return ErrorCodes.INVALID_CLIENT_IP;
         }
         return ErrorCodes.OK;
     }
 
     @Override
-    @Transactional(readOnly = true)
     public Client getClient(String username) {
-        Client client = clientRepository.findByUsername(username);
-        return client;
+        if (username == null) {
+            return null;
+        }
+        return lookup(username).client;
+    }
+
+    @Override
+    public void invalidate(String username) {
+        if (username != null) {
+            clients.remove(username);
+        }
     }
-}
 
+    @Override
+    public void invalidateAll() {
+        clients.clear();
+    }
+
+    @Override
+    public Set<String> getClientIps() {
+        if (entityManager == null) {
+            return null;
+        }
+        final long expires = System.currentTimeMillis() + cacheTtl;
+        List<CachedClient> all = transactionTemplate.execute(new TransactionCallback<List<CachedClient>>() {
+            @Override
+            public List<CachedClient> doInTransaction(TransactionStatus status) {
+                List<CachedClient> result = new ArrayList<CachedClient>();
+                for (Client client : entityManager.createQuery("select c from Client c", Client.class).getResultList()) {
+                    result.add(new CachedClient(client, expires));
+                }
+                return result;
+            }
+        });
+        Set<String> ips = new HashSet<String>();
+        for (CachedClient cachedClient : all) {
+            clients.put(cachedClient.client.getUsername(), cachedClient);
+            ips.addAll(cachedClient.ips);
+        }
+        return ips;
+    }
+
+    private CachedClient lookup(String username) {
+        long now = System.currentTimeMillis();
+        CachedClient cachedClient = clients.get(username);
+        if ((cachedClient != null) && (cachedClient.expires > now)) {
+            return cachedClient;
+        }
+
+        cachedClient = load(username, now);
+
+        // do not let random usernames grow the cache unbounded
+        if ((cachedClient.client != null) || (clients.size() < cacheSize)) {
+            clients.put(username, cachedClient);
+        }
+        return cachedClient;
+    }
+
+    /**
+     * snapshot is taken within transaction, as client IPs may be loaded lazily
+     */
+    private CachedClient load(final String username, final long now) {
+        return transactionTemplate.execute(new TransactionCallback<CachedClient>() {
+            @Override
+            public CachedClient doInTransaction(TransactionStatus status) {
+                Client client = clientRepository.findByUsername(username);
+                if (client == null) {
+                    return new CachedClient(null, now + negativeCacheTtl);
+                }
+                return new CachedClient(client, now + cacheTtl);
+            }
+        });
+    }
+
+    /**
+     * immutable client snapshot
+     */
+    private static class CachedClient {
+        private final Client client;
+        private final boolean isActive;
+        private final Set<String> ips;
+        private final byte[] passwordHash;
+        private final long expires;
+
+        CachedClient(Client client, long expires) {
+            this.client = client;
+            this.expires = expires;
+            if (client == null) {
+                this.isActive = false;
+                this.ips = Collections.<String>emptySet();
+                this.passwordHash = null;
+            } else {
+                this.isActive = client.getIsActive();
+                this.ips = (client.getIps() == null)
+                           ? Collections.<String>emptySet()
+                           : Collections.unmodifiableSet(new HashSet<String>(client.getIps()));
+                this.passwordHash = (client.getPassword() == null) ? null : client.getPassword().getBytes(StandardCharsets.UTF_8);
+            }
+        }
+
+        boolean verify(String password) {
+            if (passwordHash == null) {
+                return false;
+            }
+            return MessageDigest.isEqual(passwordHash, HashGenerator.getSHA512(password).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,391 @@
+package com.infotech.isg.service.impl;
+
+import com.infotech.isg.domain.Operator;
+import com.infotech.isg.service.AuditFileWriter;
+import com.infotech.isg.validation.ErrorCodes;
+import com.infotech.isg.util.RingBuffer;
+
+import java.util.Date;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.stereotype.Service;
+import org.springframework.beans.factory.annotation.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * audit file writer implementation
+ *
+ * audit records are offered to a lock-free ring buffer, request threads never
+ * wait for disk. a dedicated writer thread encodes records as JSON lines and
+ * appends each batch with a single FileChannel write.
+ * file is rotated by size or interval, rotated files are renamed with a time
+ * suffix and gzipped in background.
+ *
+ * @author Sevak Gharibian
+ */
+@Service
+public class AuditFileWriterImpl implements AuditFileWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AuditFileWriterImpl.class);
+
+    @Value("${isg.audit.file:/var/log/isg.audit.log}")
+    private String file = "/var/log/isg.audit.log";
+
+    @Value("${isg.audit.file.bufferSize:16384}")
+    private int bufferSize = 16384;
+
+    @Value("${isg.audit.file.maxSize:209715200}")
+    private long maxSize = 209715200;
+
+    @Value("${isg.audit.file.rotateInterval:86400000}")
+    private long rotateInterval = 86400000;
+
+    @Value("${isg.audit.file.compress:true}")
+    private boolean compress = true;
+
+    private static final int BATCH_SIZE = 512;
+    private static final long IDLE_WAIT = 10;
+
+    private RingBuffer<Record> buffer;
+    private Thread writer;
+    private ExecutorService compressor;
+    private volatile boolean running;
+
+    // writer thread only
+    private FileChannel channel;
+    private long size;
+    private long rotateAt;
+    private final StringBuilder line = new StringBuilder(1024);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private ByteBuffer bytes = ByteBuffer.allocate(64 * 1024);
+    private final SimpleDateFormat timestampFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+    private final SimpleDateFormat suffixFormat = new SimpleDateFormat("yyyyMMdd-HHmmss");
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        buffer = new RingBuffer<Record>(bufferSize);
+        compressor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "isg-audit-compressor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        running = true;
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "isg-audit-file-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        try {
+            writer.join(10000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        compressor.shutdown();
+        LOG.info("audit file writer stopped, dropped: {}", dropped.get());
+    }
+
+    @Override
+    public void write(Date timestamp, String action, int operatorId,
+                      String username, String remoteIp, String channel,
+                      String terminalId, String consumer, String amount,
+                      String bankReceipt, String vendor, String status,
+                      long isgDoc, String oprDoc, String message,
+                      long responseTime, String trace) {
+
+        Record record = new Record();
+        record.timestamp = timestamp;
+        record.action = action;
+        record.operatorId = operatorId;
+        record.username = username;
+        record.remoteIp = remoteIp;
+        record.channel = channel;
+        record.terminalId = terminalId;
+        record.consumer = consumer;
+        record.amount = amount;
+        record.bankReceipt = bankReceipt;
+        record.vendor = vendor;
+        record.status = status;
+        record.isgDoc = isgDoc;
+        record.oprDoc = oprDoc;
+        record.message = message;
+        record.responseTime = responseTime;
+        record.trace = trace;
+
+        if (!buffer.offer(record)) {
+            long count = dropped.incrementAndGet();
+            if ((count == 1) || (count % 1000 == 0)) {
+                LOG.warn("audit file buffer full, {} audit records dropped so far", count);
+            }
+        }
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private void writeLoop() {
+        List<Record> batch = new ArrayList<Record>(BATCH_SIZE);
+        while (running || (buffer.size() > 0)) {
+            buffer.drainTo(batch, BATCH_SIZE);
+            if (batch.isEmpty()) {
+                try {
+                    Thread.sleep(IDLE_WAIT);
+                } catch (InterruptedException e) {
+                    // keep going until buffer is flushed
+                }
+                continue;
+            }
+            try {
+                write(batch);
+            } catch (IOException | RuntimeException e) {
+                dropped.addAndGet(batch.size());
+                LOG.error("error writing {} audit records into file: {}, dropped", batch.size(), file, e);
+                close();
+            } finally {
+                batch.clear();
+            }
+        }
+        close();
+    }
+
+    private void write(List<Record> batch) throws IOException {
+        long now = System.currentTimeMillis();
+        if ((channel != null) && ((size >= maxSize) || (now >= rotateAt))) {
+            rotate(now);
+        }
+        if (channel == null) {
+            open(now);
+        }
+
+        bytes.clear();
+        for (Record record : batch) {
+            line.setLength(0);
+            format(record);
+            line.append('\n');
+            encode();
+        }
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            size += channel.write(bytes);
+        }
+    }
+
+    /**
+     * encodes line into byte buffer, growing it if needed
+     */
+    private void encode() {
+        int needed = line.length() * 3;
+        if (bytes.remaining() < needed) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(bytes.capacity() * 2, bytes.position() + needed));
+            bytes.flip();
+            larger.put(bytes);
+            bytes = larger;
+        }
+        encoder.reset();
+        encoder.encode(CharBuffer.wrap(line), bytes, true);
+    }
+
+    private void open(long now) throws IOException {
+        channel = FileChannel.open(new File(file).toPath(), StandardOpenOption.CREATE,
+                                   StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        size = channel.size();
+        rotateAt = now + rotateInterval;
+    }
+
+    private void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.error("error closing audit file: {}", file, e);
+        }
+        channel = null;
+    }
+
+    private void rotate(long now) {
+        close();
+        File current = new File(file);
+        String rotatedName = file + "." + suffixFormat.format(new Date(now));
+        File rotated = new File(rotatedName);
+        for (int i = 1; rotated.exists() || new File(rotated.getPath() + ".gz").exists(); i++) {
+            rotated = new File(rotatedName + "-" + i);
+        }
+        if (!current.renameTo(rotated)) {
+            LOG.error("error rotating audit file: {} to {}, going on with current one", file, rotated);
+            return;
+        }
+        LOG.info("audit file rotated to: {}", rotated);
+        if (compress) {
+            final File segment = rotated;
+            compressor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    gzip(segment);
+                }
+            });
+        }
+    }
+
+    private void gzip(File segment) {
+        File gzipped = new File(segment.getPath() + ".gz");
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            in = new FileInputStream(segment);
+            out = new GZIPOutputStream(new FileOutputStream(gzipped), 64 * 1024);
+            byte[] chunk = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(chunk)) > 0) {
+                out.write(chunk, 0, read);
+            }
+            out.close();
+            out = null;
+            in.close();
+            in = null;
+            if (!segment.delete()) {
+                LOG.warn("compressed audit file: {} could not be deleted", segment);
+            }
+        } catch (IOException e) {
+            LOG.error("error compressing audit file: {}, left uncompressed", segment, e);
+            gzipped.delete();
+        } finally {
+            closeQuietly(in);
+            closeQuietly(out);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+
+    private void format(Record record) {
+        line.append('{');
+        field("timestamp", (record.timestamp == null) ? null : timestampFormat.format(record.timestamp));
+        line.append(',');
+        field("operator", Operator.getName(record.operatorId));
+        line.append(',');
+        field("action", record.action);
+        line.append(',');
+        field("username", record.username);
+        line.append(',');
+        field("remoteIp", record.remoteIp);
+        line.append(',');
+        field("channel", record.channel);
+        line.append(',');
+        field("terminalId", record.terminalId);
+        line.append(',');
+        field("consumer", record.consumer);
+        line.append(',');
+        field("amount", record.amount);
+        line.append(',');
+        field("bankReceipt", record.bankReceipt);
+        line.append(',');
+        field("vendor", record.vendor);
+        line.append(',');
+        field("status", record.status);
+        line.append(",\"isgDoc\":").append(record.isgDoc).append(',');
+        field("error", ("OK".equals(record.status) || (record.isgDoc >= 0)) ? null : ErrorCodes.toString((int) record.isgDoc));
+        line.append(',');
+        field("oprDoc", record.oprDoc);
+        line.append(',');
+        field("message", record.message);
+        line.append(",\"responseTime\":").append(record.responseTime).append(',');
+        field("trace", record.trace);
+        line.append('}');
+    }
+
+    private void field(String name, String value) {
+        line.append('"').append(name).append("\":");
+        if (value == null) {
+            line.append("null");
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': line.append("\\\""); break;
+                case '\\': line.append("\\\\"); break;
+                case '\n': line.append("\\n"); break;
+                case '\r': line.append("\\r"); break;
+                case '\t': line.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        line.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        line.append(c);
+                    }
+                    break;
+            }
+        }
+        line.append('"');
+    }
+
+    /**
+     * audit record waiting in buffer
+     */
+    private static class Record {
+        private Date timestamp;
+        private String action;
+        private int operatorId;
+        private String username;
+        private String remoteIp;
+        private String channel;
+        private String terminalId;
+        private String consumer;
+        private String amount;
+        private String bankReceipt;
+        private String vendor;
+        private String status;
+        private long isgDoc;
+        private String oprDoc;
+        private String message;
+        private long responseTime;
+        private String trace;
+    }
+}
@@ -2,31 +2,149 @@ package com.infotech.isg.service.impl;
 
 import com.infotech.isg.service.AuditService;
 import com.infotech.isg.domain.Audit;
-import com.infotech.isg.repository.AuditLogRepository;
 
 import java.util.Date;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.FileReader;
+import java.io.BufferedReader;
+import java.io.PrintWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.text.ParseException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import javax.sql.DataSource;
+import javax.persistence.Column;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Table;
+import javax.persistence.Transient;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.springframework.stereotype.Service;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * audit log implementation
  *
+ * audit records are queued in a bounded in-memory queue and written
+ * by a dedicated writer thread, as JDBC batch inserts group committed
+ * in one DB transaction. insert statement is built from Audit entity
+ * mapping, its table and field columns.
+ * overflow policy when queue is full:
+ * BLOCK: caller waits for free space
+ * DROP: record is dropped and counted
+ * SPILL: record is appended to local spill file
+ *
+ * records failed to be written into DB are spilled as well. spill file is
+ * replayed into DB periodically, replayed records are spilled again if DB
+ * is still not available.
+ *
  * @author Sevak Gharibian
  */
 @Service
 public class AuditServiceImpl implements AuditService {
 
-    private final AuditLogRepository auditLogRepository;
+    private static final Logger LOG = LoggerFactory.getLogger(AuditServiceImpl.class);
+
+    public enum OverflowPolicy { BLOCK, DROP, SPILL }
+
+    // spill file fields are tab separated, null is written as \N
+    private static final String NULL = "\\N";
+    private static final int FIELDS = 18;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${isg.audit.queueSize:10000}")
+    private int queueSize = 10000;
+
+    @Value("${isg.audit.batchSize:200}")
+    private int batchSize = 200;
+
+    @Value("${isg.audit.overflow:SPILL}")
+    private String overflow = "SPILL";
+
+    @Value("${isg.audit.spillFile:/var/log/isg.audit.spill}")
+    private String spillFile = "/var/log/isg.audit.spill";
+
+    @Value("${isg.audit.shutdownTimeout:10000}")
+    private long shutdownTimeout = 10000;
+
+    // mapped Audit fields, generated id excluded, in insert statement order
+    private static final List<Field> COLUMNS = mappedFields(Audit.class);
+    private static final String INSERT_QUERY = insertQuery(Audit.class, COLUMNS);
+
+    private BlockingQueue<Audit> queue;
+    private OverflowPolicy overflowPolicy;
+    private Thread writer;
+    private volatile boolean running;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
 
     @Autowired
-    public AuditServiceImpl(AuditLogRepository auditLogRepository) {
-        this.auditLogRepository = auditLogRepository;
+    public AuditServiceImpl(DataSource dataSource,
+                            PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @PostConstruct
+    public void start() {
+        try {
+            overflowPolicy = OverflowPolicy.valueOf(overflow.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            LOG.error("invalid audit overflow policy: {}, using SPILL", overflow);
+            overflowPolicy = OverflowPolicy.SPILL;
+        }
+        queue = new ArrayBlockingQueue<Audit>(queueSize);
+        running = true;
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "isg-audit-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        try {
+            writer.join(shutdownTimeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // writer could not flush all in time, keep the rest in spill file
+        List<Audit> rest = new ArrayList<Audit>();
+        queue.drainTo(rest);
+        if (!rest.isEmpty()) {
+            spill(rest);
+        }
+        LOG.info("audit writer stopped, dropped: {}, spilled: {}, replayed: {}", dropped.get(), spilled.get(), replayed.get());
     }
 
     @Override
-    @Transactional
     public void log(String username, String bankCode, String amount,
                     String channel, String state, String bankReceipt,
                     String orderId, String consumer, String customerIp,
@@ -56,6 +174,306 @@ public class AuditServiceImpl implements AuditService {
         audit.setTimestamp(timestamp);
         audit.setResponseTime(responseTime);
         audit.setVendor(vendor);
-        auditLogRepository.save(audit);
-   }
+
+        if (queue.offer(audit)) {
+            return;
+        }
+
+        // queue is full
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    queue.put(audit);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    spill(audit);
+                }
+                break;
+
+            case DROP:
+                long count = dropped.incrementAndGet();
+                if ((count == 1) || (count % 1000 == 0)) {
+                    LOG.warn("audit queue full, {} audit records dropped so far", count);
+                }
+                break;
+
+            default:
+                spill(audit);
+                break;
+        }
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getSpilledCount() {
+        return spilled.get();
+    }
+
+    public long getReplayedCount() {
+        return replayed.get();
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    private void writeLoop() {
+        List<Audit> batch = new ArrayList<Audit>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Audit audit = queue.poll(500, TimeUnit.MILLISECONDS);
+                if (audit == null) {
+                    continue;
+                }
+                batch.add(audit);
+                queue.drainTo(batch, batchSize - 1);
+                write(batch);
+            } catch (InterruptedException e) {
+                // keep going until queue is flushed
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * @return false if batch is spilled to file
+     */
+    private boolean write(final List<Audit> batch) {
+        try {
+            insert(batch);
+            return true;
+        } catch (RuntimeException e) {
+            LOG.error("error writing {} audit records into DB, spilled to file", batch.size(), e);
+            spill(batch);
+            return false;
+        }
+    }
+
+    private void insert(List<Audit> batch) {
+        final List<Object[]> args = new ArrayList<Object[]>(batch.size());
+        for (Audit audit : batch) {
+            Object[] values = new Object[COLUMNS.size()];
+            for (int i = 0; i < values.length; i++) {
+                try {
+                    values[i] = COLUMNS.get(i).get(audit);
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException("audit field not accessible: " + COLUMNS.get(i).getName(), e);
+                }
+            }
+            args.add(values);
+        }
+        // group commit, one DB transaction for whole batch
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                jdbcTemplate.batchUpdate(INSERT_QUERY, args);
+            }
+        });
+    }
+
+    /**
+     * persistent fields of entity, static, transient and generated ones excluded
+     */
+    private static List<Field> mappedFields(Class<?> entity) {
+        List<Field> fields = new ArrayList<Field>();
+        for (Field field : entity.getDeclaredFields()) {
+            int modifiers = field.getModifiers();
+            if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)
+                || field.isAnnotationPresent(Transient.class) || field.isAnnotationPresent(GeneratedValue.class)) {
+                continue;
+            }
+            field.setAccessible(true);
+            fields.add(field);
+        }
+        return fields;
+    }
+
+    /**
+     * insert statement into entity table, column names as mapped, else field names
+     */
+    private static String insertQuery(Class<?> entity, List<Field> fields) {
+        Table table = entity.getAnnotation(Table.class);
+        StringBuilder query = new StringBuilder("insert into ");
+        query.append(((table != null) && !table.name().isEmpty()) ? table.name() : entity.getSimpleName());
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < fields.size(); i++) {
+            Column column = fields.get(i).getAnnotation(Column.class);
+            query.append((i == 0) ? "(" : ", ");
+            query.append(((column != null) && !column.name().isEmpty()) ? column.name() : fields.get(i).getName());
+            values.append((i == 0) ? "?" : ", ?");
+        }
+        return query.append(") values(").append(values).append(")").toString();
+    }
+
+    @Override
+    @Scheduled(fixedDelayString = "${isg.audit.replayInterval:60000}")
+    public void replaySpill() {
+        File replay = new File(spillFile + ".replay");
+        synchronized (this) {
+            // left by a failed replay, else take current spill file
+            if (!replay.exists()) {
+                File spill = new File(spillFile);
+                if (!spill.exists()) {
+                    return;
+                }
+                if (!spill.renameTo(replay)) {
+                    LOG.error("error renaming audit spill file: {}, not replayed", spillFile);
+                    return;
+                }
+            }
+        }
+
+        BufferedReader in = null;
+        long count = 0;
+        try {
+            in = new BufferedReader(new FileReader(replay));
+            List<Audit> batch = new ArrayList<Audit>(batchSize);
+            String line;
+            while ((line = in.readLine()) != null) {
+                Audit audit = parse(line);
+                if (audit == null) {
+                    LOG.error("invalid audit spill line skipped: {}", line);
+                    continue;
+                }
+                batch.add(audit);
+                if (batch.size() == batchSize) {
+                    count += write(batch) ? batch.size() : 0;
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                count += write(batch) ? batch.size() : 0;
+            }
+        } catch (IOException e) {
+            LOG.error("error reading audit spill file: {}, retried next time", replay, e);
+            return;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    LOG.warn("error closing audit spill file: {}", replay, e);
+                }
+            }
+        }
+        // records failed again are already in spill file
+        if (!replay.delete()) {
+            LOG.error("error deleting replayed audit spill file: {}", replay);
+        }
+        replayed.addAndGet(count);
+        LOG.info("{} audit records replayed from spill file", count);
+    }
+
+    private void spill(Audit audit) {
+        List<Audit> audits = new ArrayList<Audit>(1);
+        audits.add(audit);
+        spill(audits);
+    }
+
+    private synchronized void spill(List<Audit> audits) {
+        PrintWriter out = null;
+        try {
+            out = new PrintWriter(new FileWriter(spillFile, true));
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+            for (Audit audit : audits) {
+                out.println(format(format.format(audit.getTimestamp()), audit.getUsername(), audit.getBankCode(),
+                                   audit.getAmount(), audit.getChannel(), audit.getState(), audit.getBankReceipt(),
+                                   audit.getOrderId(), audit.getConsumer(), audit.getCustomerIp(), audit.getRemoteIp(),
+                                   audit.getAction(), Integer.toString(audit.getOperatorId()), audit.getStatus(),
+                                   Long.toString(audit.getIsgDoc()), audit.getOprDoc(),
+                                   Long.toString(audit.getResponseTime()), audit.getVendor()));
+            }
+            spilled.addAndGet(audits.size());
+        } catch (IOException e) {
+            dropped.addAndGet(audits.size());
+            LOG.error("error writing audit spill file: {}, {} audit records dropped", spillFile, audits.size(), e);
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    private static String format(String... fields) {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                line.append('\t');
+            }
+            if (fields[i] == null) {
+                line.append(NULL);
+                continue;
+            }
+            for (int j = 0; j < fields[i].length(); j++) {
+                char c = fields[i].charAt(j);
+                switch (c) {
+                    case '\\': line.append("\\\\"); break;
+                    case '\t': line.append("\\t"); break;
+                    case '\n': line.append("\\n"); break;
+                    case '\r': line.append("\\r"); break;
+                    default: line.append(c); break;
+                }
+            }
+        }
+        return line.toString();
+    }
+
+    private static String unescape(String field) {
+        if (field.equals(NULL)) {
+            return null;
+        }
+        StringBuilder value = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if ((c != '\\') || (i == field.length() - 1)) {
+                value.append(c);
+                continue;
+            }
+            c = field.charAt(++i);
+            switch (c) {
+                case 't': value.append('\t'); break;
+                case 'n': value.append('\n'); break;
+                case 'r': value.append('\r'); break;
+                default: value.append(c); break;
+            }
+        }
+        return value.toString();
+    }
+
+    /**
+     * @return null if line is not a valid spilled audit record
+     */
+    private static Audit parse(String line) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != FIELDS) {
+            return null;
+        }
+        try {
+            Audit audit = new Audit();
+            audit.setTimestamp(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").parse(unescape(fields[0])));
+            audit.setUsername(unescape(fields[1]));
+            audit.setBankCode(unescape(fields[2]));
+            audit.setAmount(unescape(fields[3]));
+            audit.setChannel(unescape(fields[4]));
+            audit.setState(unescape(fields[5]));
+            audit.setBankReceipt(unescape(fields[6]));
+            audit.setOrderId(unescape(fields[7]));
+            audit.setConsumer(unescape(fields[8]));
+            audit.setCustomerIp(unescape(fields[9]));
+            audit.setRemoteIp(unescape(fields[10]));
+            audit.setAction(unescape(fields[11]));
+            audit.setOperatorId(Integer.parseInt(fields[12]));
+            audit.setStatus(unescape(fields[13]));
+            audit.setIsgDoc(Long.parseLong(fields[14]));
+            audit.setOprDoc(unescape(fields[15]));
+            audit.setResponseTime(Long.parseLong(fields[16]));
+            audit.setVendor(unescape(fields[17]));
+            return audit;
+        } catch (ParseException | NumberFormatException e) {
+            return null;
+        }
+    }
 }
@@ -4,23 +4,55 @@ import com.infotech.isg.service.BalanceService;
 import com.infotech.isg.domain.Balance;
 import com.infotech.isg.repository.BalanceRepository;
 
+import java.util.concurrent.atomic.AtomicLongArray;
+
 import org.springframework.stereotype.Service;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.transaction.annotation.Transactional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * balance service impl
  *
+ * keeps MCI pin inventory in memory, lock-free counter per denomination.
+ * available = DB count last reconciled against - committed not yet seen in DB - in-flight reservations.
+ * inventory is reconciled with DB periodically, a decrease of DB count is taken as
+ * committed pins seen in DB, an increase as a refill on top of them, so that a refill
+ * never hides pins committed since. if DB count is lower than what is reserved,
+ * available goes negative and no more reservation is possible until it is refilled.
+ *
  * @author Sevak Gharibian
  */
 @Service
 public class BalanceServiceImpl implements BalanceService {
 
+    private static final Logger LOG = LoggerFactory.getLogger(BalanceServiceImpl.class);
+
+    private static final int BALANCE_ID = 1;
+    private static final int[] DENOMINATIONS = {10000, 20000, 50000, 100000, 200000, 500000, 1000000};
+
     private final BalanceRepository balanceRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    private final AtomicLongArray available = new AtomicLongArray(DENOMINATIONS.length);
+    private final AtomicLongArray inFlight = new AtomicLongArray(DENOMINATIONS.length);
+    // committed pins not yet seen in DB count
+    private final AtomicLongArray committed = new AtomicLongArray(DENOMINATIONS.length);
+    // DB count last reconciled against
+    private volatile long[] lastCounts;
 
     @Autowired
-    public BalanceServiceImpl(BalanceRepository balanceRepository) {
+    public BalanceServiceImpl(BalanceRepository balanceRepository,
+                              PlatformTransactionManager transactionManager) {
         this.balanceRepository = balanceRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
     }
 
     @Override
@@ -28,4 +60,98 @@ public class BalanceServiceImpl implements BalanceService {
     public Balance findById(Integer id) {
         return balanceRepository.findById(id);
     }
+
+    @Override
+    public boolean reserveMCI(int amount) {
+        int index = indexOf(amount);
+        if (index < 0) {
+            return false;
+        }
+        if (lastCounts == null) {
+            reconcile();
+        }
+        while (true) {
+            long count = available.get(index);
+            if (count <= 0) {
+                return false;
+            }
+            if (available.compareAndSet(index, count, count - 1)) {
+                inFlight.incrementAndGet(index);
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void commitMCI(int amount) {
+        int index = indexOf(amount);
+        if (index >= 0) {
+            inFlight.decrementAndGet(index);
+            committed.incrementAndGet(index);
+        }
+    }
+
+    @Override
+    public void releaseMCI(int amount) {
+        int index = indexOf(amount);
+        if (index >= 0) {
+            inFlight.decrementAndGet(index);
+            available.incrementAndGet(index);
+        }
+    }
+
+    @Override
+    @Scheduled(fixedDelayString = "${isg.balance.reconcileInterval:10000}")
+    public synchronized void reconcile() {
+        Balance balance = null;
+        try {
+            balance = load();
+        } catch (RuntimeException e) {
+            LOG.error("error loading balance, MCI inventory not reconciled", e);
+            return;
+        }
+        if (balance == null) {
+            LOG.error("balance not found, MCI inventory not reconciled");
+            return;
+        }
+
+        long[] counts = {balance.getMci10000(), balance.getMci20000(), balance.getMci50000(),
+                         balance.getMci100000(), balance.getMci200000(), balance.getMci500000(),
+                         balance.getMci1000000()
+                        };
+        long[] last = lastCounts;
+        for (int i = 0; i < DENOMINATIONS.length; i++) {
+            long lastCount = (last == null) ? 0L : last[i];
+            if (lastCount == counts[i]) {
+                continue;
+            }
+            // decrease is taken as committed pins seen in DB, never more than committed so far
+            long seen = 0;
+            if (last != null) {
+                seen = Math.min(committed.get(i), Math.max(0L, lastCount - counts[i]));
+                committed.addAndGet(i, -seen);
+            }
+            // rebased on new DB count, applied as delta so that concurrent reservations are not lost
+            available.addAndGet(i, counts[i] - lastCount + seen);
+        }
+        lastCounts = counts;
+    }
+
+    private Balance load() {
+        return transactionTemplate.execute(new TransactionCallback<Balance>() {
+            @Override
+            public Balance doInTransaction(TransactionStatus status) {
+                return balanceRepository.findById(BALANCE_ID);
+            }
+        });
+    }
+
+    private static int indexOf(int amount) {
+        for (int i = 0; i < DENOMINATIONS.length; i++) {
+            if (DENOMINATIONS[i] == amount) {
+                return i;
+            }
+        }
+        return -1;
+    }
 }
@@ -0,0 +1,86 @@
+package com.infotech.isg.service.impl;
+
+import com.infotech.isg.service.ClientRateLimiter;
+import com.infotech.isg.util.TokenBucket;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.stereotype.Service;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * token bucket per client, created on first request of client and cached.
+ *
+ * rate of each client is configured by isg.ini keys:
+ * isg.client.[username].tps, isg.client.[username].burst
+ * defaulting to isg.client.tps and isg.client.burst,
+ * tps zero or less means not limited, burst defaults to tps.
+ *
+ * @author Sevak Gharibian
+ */
+@Service
+public class ClientRateLimiterImpl implements ClientRateLimiter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ClientRateLimiterImpl.class);
+
+    private final Environment environment;
+    private final ConcurrentMap<String, Rate> rates = new ConcurrentHashMap<String, Rate>();
+    private final AtomicLong rejected = new AtomicLong();
+
+    @Autowired
+    public ClientRateLimiterImpl(Environment environment) {
+        this.environment = environment;
+    }
+
+    @Override
+    public boolean tryAcquire(String username) {
+        if (username == null) {
+            return true;
+        }
+        Rate rate = rates.get(username);
+        if (rate == null) {
+            rates.putIfAbsent(username, create(username));
+            rate = rates.get(username);
+        }
+        if ((rate.bucket == null) || rate.bucket.tryAcquire()) {
+            return true;
+        }
+        long count = rejected.incrementAndGet();
+        if ((count == 1) || (count % 100 == 0)) {
+            LOG.warn("client {} over {} tps, {} requests rejected so far", username, rate.bucket.getRate(), count);
+        }
+        return false;
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    private Rate create(String username) {
+        double tps = environment.getProperty("isg.client." + username + ".tps", Double.class,
+                                             environment.getProperty("isg.client.tps", Double.class, 0.0));
+        if (tps <= 0) {
+            return new Rate(null);
+        }
+        double burst = environment.getProperty("isg.client." + username + ".burst", Double.class,
+                                               environment.getProperty("isg.client.burst", Double.class, tps));
+        return new Rate(new TokenBucket(tps, Math.max(1, burst)));
+    }
+
+    /**
+     * client rate, no bucket if not limited
+     */
+    private static class Rate {
+        private final TokenBucket bucket;
+
+        Rate(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+    }
+}
@@ -7,26 +7,48 @@ import com.infotech.isg.domain.Client;
 import com.infotech.isg.validation.RequestValidator;
 import com.infotech.isg.validation.TransactionValidator;
 import com.infotech.isg.validation.ErrorCodes;
-import com.infotech.isg.repository.TransactionRepository;
 import com.infotech.isg.repository.OperatorStatusRepository;
+import com.infotech.isg.service.TransactionService;
 import com.infotech.isg.service.OperatorService;
+import com.infotech.isg.service.OperatorInvoker;
+import com.infotech.isg.service.OperatorCircuitBreaker;
+import com.infotech.isg.service.OperatorConcurrencyLimiter;
+import com.infotech.isg.service.OperatorPacer;
+import com.infotech.isg.service.ClientRateLimiter;
+import com.infotech.isg.service.OperatorStatusCache;
 import com.infotech.isg.service.OperatorServiceResponse;
 import com.infotech.isg.service.OperatorNotAvailableException;
+import com.infotech.isg.service.OperatorRejectedException;
 import com.infotech.isg.service.OperatorUnknownResponseException;
+import com.infotech.isg.service.OperatorTimeoutException;
 import com.infotech.isg.service.AccessControl;
 import com.infotech.isg.service.ISGService;
 import com.infotech.isg.service.ISGServiceResponse;
 import com.infotech.isg.service.ISGException;
+import com.infotech.isg.metrics.RequestTrace;
 
 import java.util.List;
 import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
-* abstract implementation for ISG service
+* abstract implementation for ISG service, topup registers a pending transaction
+* before calling operator and records operator outcome once known.
 *
 * @author Sevak Gharibian
 */
@@ -35,15 +57,100 @@ public abstract class ISGServiceImpl implements ISGService {
     private static final Logger LOG = LoggerFactory.getLogger(MCIServiceImpl.class);
 
     protected AccessControl accessControl;
-    protected TransactionRepository transactionRepository;
+    protected TransactionService transactionService;
     protected OperatorStatusRepository operatorStatusRepository;
     protected OperatorService operatorService;
     protected RequestValidator requestValidator;
     protected TransactionValidator transactionValidator;
     protected int operatorId;
+    protected OperatorInvoker operatorInvoker;
+    protected OperatorCircuitBreaker operatorCircuitBreaker;
+    protected OperatorStatusCache operatorStatusCache;
+    protected OperatorConcurrencyLimiter operatorConcurrencyLimiter;
+    protected OperatorPacer operatorPacer;
+    protected ClientRateLimiter clientRateLimiter;
+
+    // in-flight topups shared by all operators, keyed on bank receipt, bank code and client
+    private static final ConcurrentMap<String, CountDownLatch> TOPUPS_IN_FLIGHT = new ConcurrentHashMap<String, CountDownLatch>();
+
+    // releases operator calls timed out whose late response never comes, shared by all operators
+    private static final ScheduledThreadPoolExecutor LATE_RELEASE_TIMER = createLateReleaseTimer();
+
+    // max msec to wait for an in-flight topup with same bank receipt
+    @Value("${isg.topup.inFlightWait:40000}")
+    private long inFlightWait = 40000;
+
+    // max msec a topup waits for operator tps permit, never more than its deadline
+    @Value("${isg.pacer.maxWait:1000}")
+    private long pacerMaxWait = 1000;
+
+    // operator call timed out holds its limiter slot until late response,
+    // at most this many times its deadline
+    @Value("${isg.limiter.lateReleaseFactor:3}")
+    private int lateReleaseFactor = 3;
+
+    private static ScheduledThreadPoolExecutor createLateReleaseTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "isg-late-release");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    /**
+     * operator calls go through invoker if set, else called directly
+     */
+    @Autowired(required = false)
+    public void setOperatorInvoker(OperatorInvoker operatorInvoker) {
+        this.operatorInvoker = operatorInvoker;
+    }
+
+    /**
+     * operator calls are guarded by circuit breaker if set
+     */
+    @Autowired(required = false)
+    public void setOperatorCircuitBreaker(OperatorCircuitBreaker operatorCircuitBreaker) {
+        this.operatorCircuitBreaker = operatorCircuitBreaker;
+    }
+
+    /**
+     * operator availability is read from cache if set, else from DB
+     */
+    @Autowired(required = false)
+    public void setOperatorStatusCache(OperatorStatusCache operatorStatusCache) {
+        this.operatorStatusCache = operatorStatusCache;
+    }
+
+    /**
+     * concurrent operator calls are limited if set
+     */
+    @Autowired(required = false)
+    public void setOperatorConcurrencyLimiter(OperatorConcurrencyLimiter operatorConcurrencyLimiter) {
+        this.operatorConcurrencyLimiter = operatorConcurrencyLimiter;
+    }
+
+    /**
+     * topups are paced within operator tps if set
+     */
+    @Autowired(required = false)
+    public void setOperatorPacer(OperatorPacer operatorPacer) {
+        this.operatorPacer = operatorPacer;
+    }
+
+    /**
+     * client request rates are limited if set
+     */
+    @Autowired(required = false)
+    public void setClientRateLimiter(ClientRateLimiter clientRateLimiter) {
+        this.clientRateLimiter = clientRateLimiter;
+    }
 
     @Override
-    @Transactional
     public ISGServiceResponse topup(String username, String password,
                                     String bankCode, int amount,
                                     String channel, String state,
@@ -57,26 +164,84 @@ public abstract class ISGServiceImpl implements ISGService {
                                               amount, channel, state,
                                               bankReceipt, orderId, consumer,
                                               customerIp, remoteIp, action, operatorId);
+        RequestTrace.stage("validate");
         if (errorCode != ErrorCodes.OK) {
             return new ISGServiceResponse("ERROR", errorCode, null);
         }
 
         // authenticate client
         errorCode = accessControl.authenticate(username, password, remoteIp);
+        RequestTrace.stage("authenticate");
         if (errorCode != ErrorCodes.OK) {
             return new ISGServiceResponse("ERROR", errorCode, null);
         }
+
+        // limit client request rate
+        if ((clientRateLimiter != null) && !clientRateLimiter.tryAcquire(username)) {
+            return new ISGServiceResponse("ERROR", ErrorCodes.CLIENT_RATE_LIMIT_EXCEEDED, null);
+        }
         Client client = accessControl.getClient(username);
+        RequestTrace.stage("clientLimit");
+
+        // wait for any in-flight topup with same bank receipt, then validate
+        // as usual, so concurrent duplicates get REPETITIVE or DONOT_REVERSE
+        String flightKey = bankReceipt + "|" + bankCode + "|" + client.getId();
+        CountDownLatch flight = new CountDownLatch(1);
+        CountDownLatch leader;
+        while ((leader = TOPUPS_IN_FLIGHT.putIfAbsent(flightKey, flight)) != null) {
+            if (!awaitInFlight(leader)) {
+                // still in progress, outcome unknown
+                LOG.warn("topup still in progress for bank receipt: {}, operator_service_error_donot_reverse code returned", flightKey);
+                return new ISGServiceResponse("ERROR", ErrorCodes.OPERATOR_SERVICE_ERROR_DONOT_REVERSE, null);
+            }
+        }
+        RequestTrace.stage("inFlightWait");
+
+        try {
+            return topup(client, username, bankCode, amount, channel, state,
+                         bankReceipt, orderId, consumer, customerIp, remoteIp,
+                         action, customerName, vendor);
+        } finally {
+            TOPUPS_IN_FLIGHT.remove(flightKey, flight);
+            flight.countDown();
+        }
+    }
+
+    private boolean awaitInFlight(CountDownLatch leader) {
+        try {
+            return leader.await(inFlightWait, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * pending transaction is committed in-flight, status -1 and no STF, before
+     * calling operator, so STF never resolves it meanwhile, outcome is saved by
+     * a second transaction. if process dies in between, transaction service
+     * sets it for STF after in-flight timeout.
+     */
+    private ISGServiceResponse topup(Client client, String username,
+                                     String bankCode, int amount,
+                                     String channel, String state,
+                                     String bankReceipt, String orderId,
+                                     String consumer, String customerIp,
+                                     String remoteIp, String action,
+                                     String customerName, String vendor) {
+
+        int errorCode = ErrorCodes.OK;
 
         // validate if transaction is duplicate
         errorCode = transactionValidator.validate(bankReceipt, bankCode, client.getId(),
                     orderId, operatorId, amount, channel, consumer, customerIp);
+        RequestTrace.stage("transactionValidate");
         if (errorCode != ErrorCodes.OK) {
             // TODO: may need more review
             switch (errorCode) {
                 case ErrorCodes.STF_RESOLVED_SUCCESSFUL:
                     // STF has resolved this transaction as successful
-                    List<Transaction> transactions = transactionRepository.findByRefNumBankCodeClientId(bankReceipt, bankCode, client.getId());
+                    List<Transaction> transactions = transactionService.findByRefNumBankCodeClientId(bankReceipt, bankCode, client.getId());
                     long transactionId = 0;
                     String operatorTId = null;
                     if ((transactions != null) && (transactions.size() > 0)) {
@@ -90,6 +255,28 @@ public abstract class ISGServiceImpl implements ISGService {
             }
         }
 
+        // operator call deadline, time spent on pacing and pending insert is taken out of it
+        long admitted = System.currentTimeMillis();
+        long deadline = (operatorInvoker == null) ? 0 : operatorInvoker.getDeadline(operatorId, username);
+
+        // fail fast, nothing registered while operator circuit is open, operator at concurrency limit or tps
+        // checked in this order, so no permit is spent on a call rejected earlier
+        if (!allowRequest()) {
+            LOG.warn("operator circuit open, OPERATOR_SERVICE_ERROR returned");
+            return new ISGServiceResponse("ERROR", ErrorCodes.OPERATOR_SERVICE_ERROR, "operator circuit open");
+        }
+        if (!tryAcquire(username)) {
+            cancelRequest();
+            LOG.warn("operator concurrency limit reached, OPERATOR_SERVICE_ERROR returned");
+            return new ISGServiceResponse("ERROR", ErrorCodes.OPERATOR_SERVICE_ERROR, "operator concurrency limit reached");
+        }
+        if (!pace(vendor, deadline)) {
+            onRejected(username);
+            LOG.warn("operator tps reached, OPERATOR_SERVICE_ERROR returned");
+            return new ISGServiceResponse("ERROR", ErrorCodes.OPERATOR_SERVICE_ERROR, "operator tps reached");
+        }
+        RequestTrace.stage("admission");
+
         // register ongoing transaction
         Transaction transaction = new Transaction();
         transaction.setProvider(operatorId);
@@ -109,88 +296,338 @@ public abstract class ISGServiceImpl implements ISGService {
         transaction.setBankVerify(amount);
         transaction.setVerifyDateTime(new Date());
         transaction.setVendor(vendor);
-        transactionRepository.save(transaction);
+        // in-flight, not set for STF until operator outcome is known
+        transaction.setStf(null);
+        transaction.setStfResult(null);
+        transaction.setOperatorResponseCode(null);
+        long start = System.currentTimeMillis();
+        try {
+            transactionService.save(transaction);
+        } catch (RuntimeException e) {
+            onRejected(username);
+            throw e;
+        }
+        RequestTrace.stage("pendingInsert");
 
         OperatorServiceResponse operatorServiceResponse = null;
         try {
-            operatorServiceResponse = operatorService.topup(consumer, amount, 
-                                                            transaction.getId(), action, 
-                                                            customerName, vendor, channel, username);
+            if (operatorInvoker != null) {
+                operatorServiceResponse = operatorInvoker.topup(operatorId, operatorService, consumer, amount,
+                                                                transaction.getId(), action,
+                                                                customerName, vendor, channel, username,
+                                                                Math.max(1, deadline - (System.currentTimeMillis() - admitted)));
+            } else {
+                operatorServiceResponse = operatorService.topup(consumer, amount,
+                                                                transaction.getId(), action,
+                                                                customerName, vendor, channel, username);
+            }
         } catch (OperatorNotAvailableException e) {
+            RequestTrace.stage("operator");
+            if (e instanceof OperatorRejectedException) {
+                onRejected(username);
+            } else {
+                onFailure(username, start);
+            }
             transaction.setStatus(ErrorCodes.OPERATOR_SERVICE_ERROR);
-            transactionRepository.save(transaction);
+            clearStf(transaction);
+            transactionService.save(transaction);
+            RequestTrace.stage("outcomeUpdate");
             LOG.error("operator service not available, OPERATOR_SERVICE_ERROR returned", e);
             String message = e.getMessage() + ((e.getCause() != null) ? ": " + e.getCause().getMessage() : "");
             return new ISGServiceResponse("ERROR", ErrorCodes.OPERATOR_SERVICE_ERROR, message);
         } catch (OperatorUnknownResponseException e) {
+            RequestTrace.stage("operator");
+            onUnknownResponse(username, start, e);
             // ambiguous status, set for STF
             transaction.setStatus(ErrorCodes.OPERATOR_SERVICE_ERROR_DONOT_REVERSE);
             transaction.setStf(1);
             transaction.setStfResult(0);
             transaction.setOperatorResponseCode(-1);
-            transactionRepository.save(transaction);
+            transactionService.save(transaction);
+            RequestTrace.stage("outcomeUpdate");
+            if (e instanceof OperatorTimeoutException) {
+                // registered after STF saved, so late response is never overwritten
+                resolveLateResponse(transaction, ((OperatorTimeoutException) e).getLateResponse());
+            }
             LOG.error("error in calling service provider, STF set and operator_service_error_donot_reverse code returned", e);
             String message = e.getMessage() + ((e.getCause() != null) ? ": " + e.getCause().getMessage() : "");
-            return new ISGServiceResponse("ERROR", ErrorCodes.OPERATOR_SERVICE_ERROR_DONOT_REVERSE, message);
+            return sent(new ISGServiceResponse("ERROR", ErrorCodes.OPERATOR_SERVICE_ERROR_DONOT_REVERSE, message));
+        } catch (RuntimeException e) {
+            onError(username, start);
+            throw e;
         }
+        RequestTrace.stage("operator");
+        onSuccess(username, start);
 
         if (operatorServiceResponse == null) {
             transaction.setStatus(ErrorCodes.OPERATOR_SERVICE_ERROR);
-            transactionRepository.save(transaction);
-            return new ISGServiceResponse("ERROR", ErrorCodes.OPERATOR_SERVICE_ERROR, null);
+            clearStf(transaction);
+            transactionService.save(transaction);
+            RequestTrace.stage("outcomeUpdate");
+            return sent(new ISGServiceResponse("ERROR", ErrorCodes.OPERATOR_SERVICE_ERROR, null));
         }
 
+        RequestTrace.operatorTId(operatorServiceResponse.getTransactionId());
+
         if (!operatorServiceResponse.getCode().equalsIgnoreCase("0")) {
             // operation not successful
             transaction.setStatus(ErrorCodes.OPERATOR_SERVICE_RESPONSE_NOK);
+            clearStf(transaction);
             transaction.setOperatorDateTime(new Date());
             transaction.setOperatorResponseCode(Integer.parseInt(operatorServiceResponse.getCode()));
             transaction.setOperatorResponse(operatorServiceResponse.getMessage());
             transaction.setToken(operatorServiceResponse.getToken());
             transaction.setOperatorTId(operatorServiceResponse.getTransactionId());
             transaction.setOperatorCommand(operatorServiceResponse.getStatus());
-            transactionRepository.save(transaction);
+            transactionService.save(transaction);
+            RequestTrace.stage("outcomeUpdate");
             ISGServiceResponse response = new ISGServiceResponse("ERROR", ErrorCodes.OPERATOR_SERVICE_RESPONSE_NOK, operatorServiceResponse.getCode());
             //response.setMessage(operatorServiceResponse.getMessage());
-            return response;
+            return sent(response);
         }
 
         // operation successful, OK
         transaction.setStatus(1);
+        clearStf(transaction);
         transaction.setOperatorDateTime(new Date());
         transaction.setOperatorResponseCode(Integer.parseInt(operatorServiceResponse.getCode()));
         transaction.setOperatorResponse(operatorServiceResponse.getMessage());
         transaction.setToken(operatorServiceResponse.getToken());
         transaction.setOperatorTId(operatorServiceResponse.getTransactionId());
         transaction.setOperatorCommand(operatorServiceResponse.getStatus());
-        transactionRepository.save(transaction);
+        transactionService.save(transaction);
+        RequestTrace.stage("outcomeUpdate");
         ISGServiceResponse response = new ISGServiceResponse("OK", transaction.getId(), operatorServiceResponse.getTransactionId());
         //response.setMessage(operatorServiceResponse.getMessage());
+        return sent(response);
+    }
+
+    /**
+     * topup response once its request is sent to operator,
+     * whatever the outcome
+     */
+    private static ISGServiceResponse sent(ISGServiceResponse response) {
+        response.setSentToOperator(true);
         return response;
     }
 
+    /**
+     * operator call timed out but is still in progress,
+     * STF is resolved as soon as its late response is received, unless
+     * STF process has resolved it in the meantime.
+     * stfResult is set the way transaction status is, 1 if successful.
+     */
+    private void resolveLateResponse(final Transaction transaction, CompletableFuture<OperatorServiceResponse> lateResponse) {
+        lateResponse.whenComplete(new BiConsumer<OperatorServiceResponse, Throwable>() {
+            @Override
+            public void accept(OperatorServiceResponse operatorServiceResponse, Throwable error) {
+                try {
+                    if (error != null) {
+                        Throwable cause = (error instanceof CompletionException) ? error.getCause() : error;
+                        if (!(cause instanceof OperatorNotAvailableException)) {
+                            // still ambiguous, left for STF
+                            LOG.warn("late response for transaction: {} still ambiguous, left for STF", transaction.getId());
+                            return;
+                        }
+                        // nothing charged
+                        transaction.setStf(3);
+                        transaction.setStfResult(ErrorCodes.OPERATOR_SERVICE_ERROR);
+                    } else if (operatorServiceResponse == null) {
+                        transaction.setStf(3);
+                        transaction.setStfResult(ErrorCodes.OPERATOR_SERVICE_ERROR);
+                    } else {
+                        boolean successful = operatorServiceResponse.getCode().equalsIgnoreCase("0");
+                        transaction.setStf(successful ? 2 : 3);
+                        transaction.setStfResult(successful ? 1 : ErrorCodes.OPERATOR_SERVICE_RESPONSE_NOK);
+                        transaction.setOperatorDateTime(new Date());
+                        transaction.setOperatorResponseCode(Integer.parseInt(operatorServiceResponse.getCode()));
+                        transaction.setOperatorResponse(operatorServiceResponse.getMessage());
+                        transaction.setToken(operatorServiceResponse.getToken());
+                        transaction.setOperatorTId(operatorServiceResponse.getTransactionId());
+                        transaction.setOperatorCommand(operatorServiceResponse.getStatus());
+                    }
+                    if (transactionService.resolveStf(transaction)) {
+                        LOG.info("STF resolved to {} by late response for transaction: {}", transaction.getStf(), transaction.getId());
+                    } else {
+                        LOG.info("STF already resolved for transaction: {}, late response ignored", transaction.getId());
+                    }
+                } catch (RuntimeException e) {
+                    LOG.error("error resolving STF by late response for transaction: {}, left for STF", transaction.getId(), e);
+                }
+            }
+        });
+    }
+
+    /**
+     * operator outcome is definitive, pending transaction no more needs STF
+     */
+    private void clearStf(Transaction transaction) {
+        transaction.setStf(null);
+        transaction.setStfResult(null);
+        transaction.setOperatorResponseCode(null);
+    }
+
+    private boolean allowRequest() {
+        return (operatorCircuitBreaker == null) || operatorCircuitBreaker.allowRequest(operatorId);
+    }
+
+    /**
+     * request allowed by circuit breaker is not sent
+     */
+    private void cancelRequest() {
+        if (operatorCircuitBreaker != null) {
+            operatorCircuitBreaker.cancel(operatorId);
+        }
+    }
+
+    /**
+     * waits for operator tps permit, never longer than operator call deadline
+     *
+     * @param deadline msec operator call is waited, zero if not bounded
+     */
+    private boolean pace(String vendor, long deadline) {
+        if (operatorPacer == null) {
+            return true;
+        }
+        long maxWait = pacerMaxWait;
+        if (deadline > 0) {
+            maxWait = Math.min(maxWait, deadline);
+        }
+        return operatorPacer.pace(operatorId, vendor, maxWait);
+    }
+
+    private boolean tryAcquire(String username) {
+        return (operatorConcurrencyLimiter == null) || operatorConcurrencyLimiter.tryAcquire(operatorId, username);
+    }
+
+    private void release(String username, long start, boolean dropped) {
+        if (operatorConcurrencyLimiter != null) {
+            operatorConcurrencyLimiter.release(operatorId, username, System.currentTimeMillis() - start, dropped);
+        }
+    }
+
+    /**
+     * operator responded, whatever the response
+     */
+    private void onSuccess(String username, long start) {
+        if (operatorCircuitBreaker != null) {
+            operatorCircuitBreaker.onSuccess(operatorId);
+        }
+        release(username, start, false);
+    }
+
+    /**
+     * operator not available
+     */
+    private void onFailure(String username, long start) {
+        if (operatorCircuitBreaker != null) {
+            operatorCircuitBreaker.onFailure(operatorId);
+        }
+        release(username, start, true);
+    }
+
+    /**
+     * operator outcome unknown, an ambiguous response counts as operator
+     * response, a call failed with no response, i.e. connection failure, as failure
+     */
+    private void onUnknownResponse(String username, long start, OperatorUnknownResponseException e) {
+        if (e instanceof OperatorTimeoutException) {
+            onTimeout(username, start, (OperatorTimeoutException) e);
+        } else if (e.getCause() != null) {
+            onFailure(username, start);
+        } else {
+            onSuccess(username, start);
+        }
+    }
+
+    /**
+     * operator timed out, call is still in progress until its late response,
+     * its slot is released once, on late response or after lateReleaseFactor
+     * times its deadline if late response never comes
+     */
+    private void onTimeout(final String username, final long start, OperatorTimeoutException e) {
+        if (operatorCircuitBreaker != null) {
+            operatorCircuitBreaker.onFailure(operatorId);
+        }
+        long deadline = (operatorInvoker == null) ? 0 : operatorInvoker.getDeadline(operatorId, username);
+        if ((e.getLateResponse() == null) || (deadline <= 0) || (lateReleaseFactor <= 0)) {
+            release(username, start, true);
+            return;
+        }
+        final AtomicBoolean released = new AtomicBoolean();
+        final ScheduledFuture<?> cap = LATE_RELEASE_TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (released.compareAndSet(false, true)) {
+                    LOG.warn("no late response from {} after {} msec, operator call released", OperatorKeys.of(operatorId),
+                             System.currentTimeMillis() - start);
+                    release(username, start, true);
+                }
+            }
+        }, deadline * lateReleaseFactor, TimeUnit.MILLISECONDS);
+        e.getLateResponse().whenComplete(new BiConsumer<OperatorServiceResponse, Throwable>() {
+            @Override
+            public void accept(OperatorServiceResponse operatorServiceResponse, Throwable error) {
+                cap.cancel(false);
+                if (released.compareAndSet(false, true)) {
+                    release(username, start, true);
+                }
+            }
+        });
+    }
+
+    /**
+     * operator call rejected locally, never sent, gives back what was taken,
+     * i.e. operator executor full or deadline passed while queued, not an operator failure
+     */
+    private void onRejected(String username) {
+        cancelRequest();
+        if (operatorConcurrencyLimiter != null) {
+            operatorConcurrencyLimiter.cancel(operatorId, username);
+        }
+    }
+
+    /**
+     * unexpected error, no outcome counted, only releases operator call
+     */
+    private void onError(String username, long start) {
+        cancelRequest();
+        release(username, start, true);
+    }
+
     @Override
-    @Transactional
     public ISGServiceResponse isOperatorAvailable() {
-        OperatorStatus operatorStatus = operatorStatusRepository.findById(operatorId);
+        // open circuit means operator not available, whatever its status
+        if ((operatorCircuitBreaker != null)
+            && (operatorCircuitBreaker.getState(operatorId) == OperatorCircuitBreaker.State.OPEN)) {
+            return new ISGServiceResponse("OK", 0L, null);
+        }
+
+        // from status cache if set, without DB access
+        Boolean isAvailable = null;
+        if (operatorStatusCache != null) {
+            isAvailable = operatorStatusCache.isAvailable(operatorId);
+        } else {
+            OperatorStatus operatorStatus = operatorStatusRepository.findById(operatorId);
+            isAvailable = (operatorStatus == null) ? null : operatorStatus.getIsAvailable();
+        }
 
-        if (operatorStatus == null) {
+        if (isAvailable == null) {
             throw new ISGException("operator status not available");
         }
 
-        return new ISGServiceResponse("OK", (operatorStatus.getIsAvailable()) ? 1L : 0L, null);
+        return new ISGServiceResponse("OK", (isAvailable) ? 1L : 0L, null);
     }
 
     @Override
-    @Transactional
     public ISGServiceResponse verifyTransaction(String consumer, String transactionId) {
-        Transaction transaction = transactionRepository.findByProviderOperatorTId(operatorId, transactionId);
+        Transaction transaction = transactionService.findByProviderOperatorTId(operatorId, transactionId);
 
         if (transaction == null) {
             return new ISGServiceResponse("ERROR", ErrorCodes.INVALID_TRANSACTION_ID, null);
         }
 
-        if ((transaction.getStatus() == 1) || (transaction.getStf() == 2)) {
+        if ((transaction.getStatus() == 1) || ((transaction.getStf() != null) && (transaction.getStf() == 2))) {
             return new ISGServiceResponse("OK", transaction.getId(), transaction.getOperatorTId());
         } else {
             return new ISGServiceResponse("ERROR", transaction.getStatus(),
@@ -205,18 +642,43 @@ public abstract class ISGServiceImpl implements ISGService {
 
     @Override
     public ISGServiceResponse getBill(String consumer) {
+        if (!allowRequest()) {
+            LOG.warn("operator circuit open, OPERATOR_SERVICE_ERROR returned");
+            return new ISGServiceResponse("ERROR", ErrorCodes.OPERATOR_SERVICE_ERROR, "operator circuit open");
+        }
+        if (!tryAcquire(null)) {
+            cancelRequest();
+            LOG.warn("operator concurrency limit reached, OPERATOR_SERVICE_ERROR returned");
+            return new ISGServiceResponse("ERROR", ErrorCodes.OPERATOR_SERVICE_ERROR, "operator concurrency limit reached");
+        }
+
+        long start = System.currentTimeMillis();
         OperatorServiceResponse operatorServiceResponse = null;
         try {
-            operatorServiceResponse = operatorService.getBill(consumer);
+            if (operatorInvoker != null) {
+                operatorServiceResponse = operatorInvoker.getBill(operatorId, operatorService, consumer);
+            } else {
+                operatorServiceResponse = operatorService.getBill(consumer);
+            }
         } catch (OperatorNotAvailableException e) {
+            if (e instanceof OperatorRejectedException) {
+                onRejected(null);
+            } else {
+                onFailure(null, start);
+            }
             LOG.error("operator service not available, OPERATOR_SERVICE_ERROR returned", e);
             String message = e.getMessage() + ((e.getCause() != null) ? ": " + e.getCause().getMessage() : "");
             return new ISGServiceResponse("ERROR", ErrorCodes.OPERATOR_SERVICE_ERROR, message);
         } catch (OperatorUnknownResponseException e) {
+            onUnknownResponse(null, start, e);
             LOG.error("error in calling service provider, OPERATOR_SERVICE_ERROR returned", e);
             String message = e.getMessage() + ((e.getCause() != null) ? ": " + e.getCause().getMessage() : "");
             return new ISGServiceResponse("ERROR", ErrorCodes.OPERATOR_SERVICE_ERROR, message);
+        } catch (RuntimeException e) {
+            onError(null, start);
+            throw e;
         }
+        onSuccess(null, start);
 
         if (operatorServiceResponse == null) {
             return new ISGServiceResponse("ERROR", ErrorCodes.OPERATOR_SERVICE_ERROR, null);
@@ -2,17 +2,20 @@ package com.infotech.isg.service.impl;
 
 import com.infotech.isg.domain.ServiceActions;
 import com.infotech.isg.service.OperatorService;
+import com.infotech.isg.service.OperatorProxyRegistry;
 import com.infotech.isg.service.OperatorServiceResponse;
 import com.infotech.isg.service.OperatorNotAvailableException;
 import com.infotech.isg.service.OperatorUnknownResponseException;
 import com.infotech.isg.service.ISGException;
+import com.infotech.isg.metrics.RequestTrace;
 import com.infotech.isg.proxy.ProxyAccessException;
+import com.infotech.isg.util.EndpointGroup.Endpoint;
 import com.infotech.isg.proxy.jiring.JiringProxy;
-import com.infotech.isg.proxy.jiring.JiringProxyImpl;
 import com.infotech.isg.proxy.jiring.TCSRequest;
 import com.infotech.isg.proxy.jiring.TCSResponse;
 
 import org.springframework.stereotype.Service;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,24 +33,24 @@ public class JiringOperatorServiceImpl implements OperatorService {
     private static final String PAYBILL_BRAND_ID = "47";
     private static final String WALLET_BRAND_ID = "49";
 
-    @Value("${jiring.url}")
-    private String url;
-
-    @Value("${jiring.username}")
-    private String username;
-
-    @Value("${jiring.password}")
-    private String password;
-
     @Value("${jiring.brand}")
     private String brand;
 
+    private final OperatorProxyRegistry operatorProxyRegistry;
+
+    @Autowired
+    public JiringOperatorServiceImpl(OperatorProxyRegistry operatorProxyRegistry) {
+        this.operatorProxyRegistry = operatorProxyRegistry;
+    }
+
 
     @Override
     public OperatorServiceResponse topup(String consumer, int amount, long transactionId, String action, 
                                          String customerName, String vendor, String channel, String clientUsername) {
 
-        JiringProxy jiringProxy = new JiringProxyImpl(url, username, password);
+        // healthiest endpoint, no fail over once selected
+        Endpoint<JiringProxy> endpoint = operatorProxyRegistry.getJiringEndpoints().select();
+        JiringProxy jiringProxy = endpoint.getProxy();
 
         // normalize consumer/cell-number for jiring
         // 0**********
@@ -64,12 +67,16 @@ public class JiringOperatorServiceImpl implements OperatorService {
 
         // get token from jiring
         TCSResponse response = null;
+        long start = System.currentTimeMillis();
         try {
             // sender: customerName if wallet, else consumer 
             response = jiringProxy.salesRequest(consumer, amount, brandId, (brandId == WALLET_BRAND_ID) ? customerName : consumer);   
         } catch (ProxyAccessException e) {
+            endpoint.record(false, System.currentTimeMillis() - start);
             throw new OperatorNotAvailableException("error in jiring SalesRequest", e);
         }
+        endpoint.record(true, System.currentTimeMillis() - start);
+        RequestTrace.stage("salesRequest");
 
         if ((response == null)
             || (response.getResult() == null)) {
@@ -91,11 +98,15 @@ public class JiringOperatorServiceImpl implements OperatorService {
 
         String token = response.getParam1();
         response = null;
+        start = System.currentTimeMillis();
         try {
             response = jiringProxy.salesRequestExec(token, false);
         } catch (ProxyAccessException e) {
+            endpoint.record(false, System.currentTimeMillis() - start);
             throw new OperatorUnknownResponseException("error in jiring SalesRequestExec, ambiguous result", e);
         }
+        endpoint.record(true, System.currentTimeMillis() - start);
+        RequestTrace.stage("salesRequestExec");
 
         if ((response == null)
             || (response.getResult() == null)) {
@@ -114,7 +125,9 @@ public class JiringOperatorServiceImpl implements OperatorService {
 
     @Override
     public OperatorServiceResponse getBill(String consumer) {
-        JiringProxy jiringProxy = new JiringProxyImpl(url, username, password);
+        // healthiest endpoint, no fail over once selected
+        Endpoint<JiringProxy> endpoint = operatorProxyRegistry.getJiringEndpoints().select();
+        JiringProxy jiringProxy = endpoint.getProxy();
 
         // normalize consumer/cell-number for jiring
         // 0**********
@@ -122,12 +135,15 @@ public class JiringOperatorServiceImpl implements OperatorService {
 
         // get token from jiring
         TCSResponse response = null;
+        long start = System.currentTimeMillis();
         try {
             // dummy amount for pay-bill check-only action
             response = jiringProxy.salesRequest(consumer, 100, PAYBILL_BRAND_ID, consumer);
         } catch (ProxyAccessException e) {
+            endpoint.record(false, System.currentTimeMillis() - start);
             throw new OperatorNotAvailableException("error in jiring SalesRequest", e);
         }
+        endpoint.record(true, System.currentTimeMillis() - start);
 
         if ((response == null)
             || (response.getResult() == null)) {
@@ -149,11 +165,14 @@ public class JiringOperatorServiceImpl implements OperatorService {
 
         String token = response.getParam1();
         response = null;
+        start = System.currentTimeMillis();
         try {
             response = jiringProxy.salesRequestExec(token, true);
         } catch (ProxyAccessException e) {
+            endpoint.record(false, System.currentTimeMillis() - start);
             throw new OperatorUnknownResponseException("error in jiring SalesRequestExec, ambiguous result", e);
         }
+        endpoint.record(true, System.currentTimeMillis() - start);
 
         if ((response == null)
             || (response.getResult() == null)) {
@@ -1,25 +1,24 @@
 package com.infotech.isg.service.impl;
 
 import com.infotech.isg.service.OperatorService;
+import com.infotech.isg.service.OperatorTokenManager;
+import com.infotech.isg.service.OperatorProxyRegistry;
 import com.infotech.isg.service.OperatorServiceResponse;
 import com.infotech.isg.service.OperatorNotAvailableException;
 import com.infotech.isg.service.OperatorUnknownResponseException;
+import com.infotech.isg.metrics.RequestTrace;
 import com.infotech.isg.proxy.ProxyAccessException;
+import com.infotech.isg.util.EndpointGroup.Endpoint;
 import com.infotech.isg.proxy.mci.MCIProxy;
 import com.infotech.isg.proxy.mci.MCIProxyImpl;
 import com.infotech.isg.proxy.mci.MCIProxyRechargeResponse;
 import com.infotech.isg.proxy.mci.MCIProxyRechargeCapabilityResponse;
 import com.infotech.isg.proxy.mci.MCIProxyGetTokenResponse;
 
-import java.util.concurrent.Future;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeoutException;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.Callable;
+import java.util.Arrays;
 
 import org.springframework.stereotype.Service;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,18 +33,6 @@ public class MCIOperatorServiceImpl implements OperatorService {
 
     private static final Logger LOG = LoggerFactory.getLogger(MCIOperatorServiceImpl.class);
 
-    @Value("${mci.url}")
-    private String url;
-
-    @Value("${mci.username}")
-    private String username;
-
-    @Value("${mci.password}")
-    private String password;
-
-    @Value("${mci.namespace}")
-    private String namespace;
-
     @Value("${mci2.url}")
     private String url2;
 
@@ -58,10 +45,50 @@ public class MCIOperatorServiceImpl implements OperatorService {
     @Value("${mci2.namespace}")
     private String namespace2;
 
-    @Value("${mci.timeout}")
-    private String timeout;
+    // msec broker token is reused, zero or less gets new token for each recharge
+    @Value("${mci.tokenTtl:0}")
+    private long tokenTtl = 0;
 
-    private static ExecutorService executor = Executors.newCachedThreadPool();
+    // comma separated response codes meaning token rejected by operator
+    @Value("${mci.tokenRejectedCodes:}")
+    private String tokenRejectedCodes = "";
+
+    private final OperatorTokenManager operatorTokenManager;
+    private final OperatorProxyRegistry operatorProxyRegistry;
+
+    @Autowired
+    public MCIOperatorServiceImpl(OperatorTokenManager operatorTokenManager,
+                                  OperatorProxyRegistry operatorProxyRegistry) {
+        this.operatorTokenManager = operatorTokenManager;
+        this.operatorProxyRegistry = operatorProxyRegistry;
+    }
+
+    /**
+     * gets token from endpoint, cached per endpoint if mci.tokenTtl set
+     */
+    private String getToken(final Endpoint<MCIProxy> endpoint) {
+        return operatorTokenManager.getToken(endpoint.getUrl(), endpoint.getUsername(), tokenTtl, new OperatorTokenManager.TokenSource() {
+            @Override
+            public String fetch() {
+                // get token from MCI
+                long start = System.currentTimeMillis();
+                MCIProxyGetTokenResponse getTokenResponse = null;
+                try {
+                    getTokenResponse = endpoint.getProxy().getToken();
+                } catch (ProxyAccessException e) {
+                    throw new OperatorNotAvailableException("error in mci GetToken", e);
+                }
+
+                String token = getTokenResponse.getToken();
+                if (token == null) {
+                    throw new OperatorNotAvailableException("invalid token from mci");
+                }
+                // only fetched tokens are scored, cached ones say nothing of endpoint
+                endpoint.record(true, System.currentTimeMillis() - start);
+                return token;
+            }
+        });
+    }
 
     @Override
     public OperatorServiceResponse topup(String consumer, int amount, 
@@ -69,170 +96,123 @@ public class MCIOperatorServiceImpl implements OperatorService {
                                             String customerName, String vendor, 
                                             String channel, String clientUsername) {
 
-        CallableTopup callableTopup = new CallableTopup(consumer, amount, transactionId, action, customerName, vendor, channel);
-        Future<OperatorServiceResponse> future = executor.submit(callableTopup);
-    
-        int timeoutMillis = 2000;
-        try {
-            timeoutMillis = Integer.parseInt(timeout);
-        } catch (NumberFormatException e) {
-            // invalid timeout param value, use the default
-            LOG.error("invalid mci timeout param, using default 2000");
+        // get token from healthiest endpoint, on error fail over to next one, nothing sent yet
+        Endpoint<MCIProxy> endpoint = null;
+        String token = null;
+        OperatorNotAvailableException tokenError = null;
+        for (Endpoint<MCIProxy> candidate : operatorProxyRegistry.getMCIEndpoints().ordered()) {
+            long start = System.currentTimeMillis();
+            try {
+                token = getToken(candidate);
+                endpoint = candidate;
+                break;
+            } catch (OperatorNotAvailableException e) {
+                candidate.record(false, System.currentTimeMillis() - start);
+                LOG.warn("{} GetToken failed on {}: {}", "mci", candidate, e.getMessage());
+                tokenError = e;
+            }
         }
-
-        if (clientUsername.equals("customersoap")) {
-            timeoutMillis = 30000; // 30 sec fixed for customersoap, they do not support -10, do_not_reverse
+        if (endpoint == null) {
+            throw tokenError;
         }
+        RequestTrace.stage("token");
+        MCIProxy mciProxy = endpoint.getProxy();
 
-        try {
-            OperatorServiceResponse response  = future.get(timeoutMillis, TimeUnit.MILLISECONDS);
-            return response;
-        } catch (InterruptedException e ) {
-            // async job interrupted, operator result unknown
-            // throw unknown result, this will be set for STF, switch should recheck later
-            throw new OperatorUnknownResponseException("interrupted, recharge response is ambiguous from MCI, set for STF");
-        } catch (ExecutionException e ) {
-            // async job threw exception, rethrow the same exception
-            if (e.getCause() instanceof OperatorNotAvailableException) {
-                throw (OperatorNotAvailableException)e.getCause();
-            } else if (e.getCause() instanceof OperatorUnknownResponseException) {
-                throw (OperatorUnknownResponseException)e.getCause();
-            } else {
-                throw new RuntimeException(e.getCause());
-            }                 
-        } catch (TimeoutException e ) {
-            // async job not completed yet
-            // throw unknown result, this will be set for STF, switch should recheck later
-            throw new OperatorUnknownResponseException("timeout, recharge response is ambiguous from MCI, set for STF");
-        }    
-    }
-
-    @Override
-    public OperatorServiceResponse getBill(String consumer) {
-        throw new UnsupportedOperationException("pay-bill not defined in MCI, try jiring");
-    }
+        /*
+        MCIProxy mciProxy2 = new MCIProxyImpl(url2, username2, password2, namespace2);
 
-    class CallableTopup implements Callable<OperatorServiceResponse> {
-
-        private final String consumer; 
-        private final int amount; 
-        private final long transactionId; 
-        private final String action; 
-        private final String customerName; 
-        private final String vendor; 
-        private final String channel;
-
-        public CallableTopup(String consumer, int amount, 
-                             long transactionId, String action, 
-                             String customerName, String vendor, 
-                             String channel) {
-            this.consumer = consumer;
-            this.amount = amount;
-            this.transactionId = transactionId;
-            this.action = action;
-            this.customerName = customerName;
-            this.vendor = vendor;
-            this.channel = channel;
+        // check MCI recharge capability
+        MCIProxyRechargeCapabilityResponse rechargeCapabilityResponse = null;
+        try {
+            rechargeCapabilityResponse = mciProxy2.rechargeCapability(token, consumer, amount, transactionId);
+        } catch (ProxyAccessException e) {
+            throw new OperatorNotAvailableException("error in mci recharge capability", e);
         }
 
-        @Override
-        public OperatorServiceResponse call() throws Exception {
-            return doTopup();
+        // check recharge capability response
+        if ((rechargeCapabilityResponse == null)
+            || (rechargeCapabilityResponse.getResponse() == null)
+            || (rechargeCapabilityResponse.getResponse().size() < 2)
+            || (rechargeCapabilityResponse.getCode() == null)) {
+            // invalid response
+            throw new OperatorNotAvailableException("invalid mci recharge capability response");
         }
 
-        private OperatorServiceResponse doTopup() {
-
-            MCIProxy mciProxy = new MCIProxyImpl(url, username, password, namespace);
-
-            // get token from MCI
-            MCIProxyGetTokenResponse getTokenResponse = null;
-            try {
-                getTokenResponse = mciProxy.getToken();
-            } catch (ProxyAccessException e) {
-                throw new OperatorNotAvailableException("error in mci GetToken", e);
-            }
-
-            String token = getTokenResponse.getToken();
-            if (token == null) {
-                throw new OperatorNotAvailableException("invalid token from mci");
-            }
-
-            /*
-            MCIProxy mciProxy2 = new MCIProxyImpl(url2, username2, password2, namespace2);
-
-            // check MCI recharge capability
-            MCIProxyRechargeCapabilityResponse rechargeCapabilityResponse = null;
-            try {
-                rechargeCapabilityResponse = mciProxy2.rechargeCapability(token, consumer, amount, transactionId);
-            } catch (ProxyAccessException e) {
-                throw new OperatorNotAvailableException("error in mci recharge capability", e);
-            }
+        // check recharge capability response
+        if ((Integer.parseInt(rechargeCapabilityResponse.getCode()) > 0)
+            || (Integer.parseInt(rechargeCapabilityResponse.getCode()) < -1017)
+            || ((Integer.parseInt(rechargeCapabilityResponse.getCode()) > -1001) && (Integer.parseInt(rechargeCapabilityResponse.getCode()) < -1))) {
+            // invalid response code
+            throw new OperatorNotAvailableException("invalid mci recharge capability response");
+        }
 
-            // check recharge capability response
-            if ((rechargeCapabilityResponse == null)
-                || (rechargeCapabilityResponse.getResponse() == null)
-                || (rechargeCapabilityResponse.getResponse().size() < 2)
-                || (rechargeCapabilityResponse.getCode() == null)) {
-                // invalid response
-                throw new OperatorNotAvailableException("invalid mci recharge capability response");
-            }
+        // check recharge capability response code            
+        if (Integer.parseInt(rechargeCapabilityResponse.getCode()) != 0) {
+            // set response, status not exist for MCI
+            OperatorServiceResponse response = new OperatorServiceResponse();
+            response.setCode(rechargeCapabilityResponse.getCode());
+            response.setMessage(rechargeCapabilityResponse.getDetail());
+            response.setTransactionId(rechargeCapabilityResponse.getDetail());
+            response.setToken(token);
+            return response;
+        }
+        */
 
-            // check recharge capability response
-            if ((Integer.parseInt(rechargeCapabilityResponse.getCode()) > 0)
-                || (Integer.parseInt(rechargeCapabilityResponse.getCode()) < -1017)
-                || ((Integer.parseInt(rechargeCapabilityResponse.getCode()) > -1001) && (Integer.parseInt(rechargeCapabilityResponse.getCode()) < -1))) {
-                // invalid response code
-                throw new OperatorNotAvailableException("invalid mci recharge capability response");
-            }
+        // request MCI to recharge
+        // no fail over from here, recharge may have been done
+        MCIProxyRechargeResponse rechargeResponse = null;
+        long start = System.currentTimeMillis();
+        try {
+            rechargeResponse = mciProxy.recharge(token, consumer, amount, transactionId);
+        } catch (ProxyAccessException e) {
+            endpoint.record(false, System.currentTimeMillis() - start);
+            throw new OperatorUnknownResponseException("error in mci Recharge", e);
+        }
+        endpoint.record(true, System.currentTimeMillis() - start);
+        RequestTrace.stage("recharge");
+
+        // check recharge response
+        if ((rechargeResponse == null)
+            || (rechargeResponse.getResponse() == null)
+            || (rechargeResponse.getResponse().size() < 2)
+            || (rechargeResponse.getCode() == null)) {
+            // invalid response, should be set for STF
+            throw new OperatorUnknownResponseException("recharge response is ambiguous from MCI, set for STF");
+        }
 
-            // check recharge capability response code            
-            if (Integer.parseInt(rechargeCapabilityResponse.getCode()) != 0) {
-                // set response, status not exist for MCI
-                OperatorServiceResponse response = new OperatorServiceResponse();
-                response.setCode(rechargeCapabilityResponse.getCode());
-                response.setMessage(rechargeCapabilityResponse.getDetail());
-                response.setTransactionId(rechargeCapabilityResponse.getDetail());
-                response.setToken(token);
-                return response;
-            }
-            */
+        // MCI error codes list changing all the time, error code validation seems useless
+        /*
+        if ((Integer.parseInt(rechargeResponse.getCode()) > 0)
+            || (Integer.parseInt(rechargeResponse.getCode()) < -1017)
+            || ((Integer.parseInt(rechargeResponse.getCode()) > -1001) && (Integer.parseInt(rechargeResponse.getCode()) < -1))) {
+            // invalid response code, should be set for STF
+            throw new OperatorUnknownResponseException("recharge response code is ambiguous from MCI, set for STF");
+        }
+        */
 
-            // request MCI to recharge
-            MCIProxyRechargeResponse rechargeResponse = null;
-            try {
-                rechargeResponse = mciProxy.recharge(token, consumer, amount, transactionId);
-            } catch (ProxyAccessException e) {
-                throw new OperatorUnknownResponseException("error in mci Recharge", e);
-            }
+        checkTokenRejected(endpoint, token, rechargeResponse.getCode());
 
-            // check recharge response
-            if ((rechargeResponse == null)
-                || (rechargeResponse.getResponse() == null)
-                || (rechargeResponse.getResponse().size() < 2)
-                || (rechargeResponse.getCode() == null)) {
-                // invalid response, should be set for STF
-                throw new OperatorUnknownResponseException("recharge response is ambiguous from MCI, set for STF");
-            }
+        // set response, status not exist for MCI
+        OperatorServiceResponse response = new OperatorServiceResponse();
+        response.setCode(rechargeResponse.getCode());
+        response.setMessage(rechargeResponse.getDetail());
+        response.setTransactionId(rechargeResponse.getDetail());
+        response.setToken(token);
 
-            // MCI error codes list changing all the time, error code validation seems useless
-            /*
-            if ((Integer.parseInt(rechargeResponse.getCode()) > 0)
-                || (Integer.parseInt(rechargeResponse.getCode()) < -1017)
-                || ((Integer.parseInt(rechargeResponse.getCode()) > -1001) && (Integer.parseInt(rechargeResponse.getCode()) < -1))) {
-                // invalid response code, should be set for STF
-                throw new OperatorUnknownResponseException("recharge response code is ambiguous from MCI, set for STF");
-            }
-            */
+        return response;
+    }
 
-            // set response, status not exist for MCI
-            OperatorServiceResponse response = new OperatorServiceResponse();
-            response.setCode(rechargeResponse.getCode());
-            response.setMessage(rechargeResponse.getDetail());
-            response.setTransactionId(rechargeResponse.getDetail());
-            response.setToken(token);
+    /**
+     * drops cached token if response code means token rejected
+     */
+    private void checkTokenRejected(Endpoint<MCIProxy> endpoint, String token, String code) {
+        if ((code != null) && Arrays.asList(tokenRejectedCodes.split(",")).contains(code.trim())) {
+            operatorTokenManager.invalidate(endpoint.getUrl(), endpoint.getUsername(), token);
+        }
+    }
 
-            return response;
-    
-        }        
+    @Override
+    public OperatorServiceResponse getBill(String consumer) {
+        throw new UnsupportedOperationException("pay-bill not defined in MCI, try jiring");
     }
 }
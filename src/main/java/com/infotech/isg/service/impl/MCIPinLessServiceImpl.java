@@ -2,7 +2,7 @@ package com.infotech.isg.service.impl;
 
 import com.infotech.isg.domain.Operator;
 import com.infotech.isg.service.AccessControl;
-import com.infotech.isg.repository.TransactionRepository;
+import com.infotech.isg.service.TransactionService;
 import com.infotech.isg.repository.OperatorStatusRepository;
 import com.infotech.isg.validation.TransactionValidator;
 import com.infotech.isg.validation.RequestValidator;
@@ -22,13 +22,13 @@ public class MCIPinLessServiceImpl extends ISGServiceImpl {
 
     @Autowired
     public MCIPinLessServiceImpl(AccessControl accessControl,
-                          TransactionRepository transactionRepository,
+                          TransactionService transactionService,
                           @Qualifier("MCIPinLessOperatorService") OperatorService operatorService,
                           @Qualifier("MCIRequestValidator") RequestValidator requestValidator,
                           TransactionValidator transactionValidator,
                           OperatorStatusRepository operatorStatusRepository) {
         this.accessControl = accessControl;
-        this.transactionRepository = transactionRepository;
+        this.transactionService = transactionService;
         this.operatorService = operatorService;
         this.requestValidator = requestValidator;
         this.transactionValidator = transactionValidator;
@@ -0,0 +1,136 @@
+package com.infotech.isg.service.impl;
+
+import com.infotech.isg.service.MTNAccount;
+import com.infotech.isg.service.MTNAccountRegistry;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PostConstruct;
+
+import org.springframework.stereotype.Service;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.core.env.PropertySource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * MTN account registry implementation.
+ *
+ * accounts are read from isg.ini keys:
+ * mtn.[vendor].url, .username, .password, .namespace, .vendor, .weight
+ * for more accounts per vendor, mtn.[vendor].[account].url, ...
+ * weight is optional, default 1.
+ *
+ * @author Sevak Gharibian
+ */
+@Service
+public class MTNAccountRegistryImpl implements MTNAccountRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MTNAccountRegistryImpl.class);
+
+    private static final String PREFIX = "mtn.";
+    private static final String SUFFIX = ".url";
+
+    private final Environment environment;
+    private final AtomicInteger next = new AtomicInteger();
+    private Map<String, List<MTNAccount>> accounts;
+
+    @Autowired
+    public MTNAccountRegistryImpl(Environment environment) {
+        this.environment = environment;
+    }
+
+    @PostConstruct
+    public void start() {
+        Map<String, List<MTNAccount>> map = new HashMap<String, List<MTNAccount>>();
+        for (String id : accountIds()) {
+            String key = PREFIX + id;
+            int dot = id.indexOf('.');
+            String vendor = ((dot < 0) ? id : id.substring(0, dot)).toLowerCase();
+            int weight = 1;
+            try {
+                weight = Math.max(1, Integer.parseInt(environment.getProperty(key + ".weight", "1").trim()));
+            } catch (NumberFormatException e) {
+                LOG.error("invalid {}.weight param, using default 1", key);
+            }
+            MTNAccount account = new MTNAccount(vendor,
+                                                environment.getProperty(key + ".url"),
+                                                environment.getProperty(key + ".username"),
+                                                environment.getProperty(key + ".password"),
+                                                environment.getProperty(key + ".namespace"),
+                                                environment.getProperty(key + ".vendor"),
+                                                weight);
+            if (!map.containsKey(vendor)) {
+                map.put(vendor, new ArrayList<MTNAccount>());
+            }
+            map.get(vendor).add(account);
+            LOG.info("MTN account registered: {}", account);
+        }
+        for (Map.Entry<String, List<MTNAccount>> entry : map.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+        accounts = Collections.unmodifiableMap(map);
+    }
+
+    @Override
+    public MTNAccount acquire(String vendor) {
+        if (vendor == null) {
+            return null;
+        }
+        List<MTNAccount> vendorAccounts = accounts.get(vendor.toLowerCase());
+        if (vendorAccounts == null) {
+            return null;
+        }
+        // start from a rotating position, so ties are spread over accounts
+        int size = vendorAccounts.size();
+        int start = (next.getAndIncrement() & Integer.MAX_VALUE) % size;
+        MTNAccount selected = null;
+        for (int i = 0; i < size; i++) {
+            MTNAccount account = vendorAccounts.get((start + i) % size);
+            // least in-flight relative to weight, a * wb < b * wa
+            if ((selected == null)
+                || ((long) account.getInFlight() * selected.getWeight() < (long) selected.getInFlight() * account.getWeight())) {
+                selected = account;
+            }
+        }
+        selected.acquire();
+        return selected;
+    }
+
+    @Override
+    public void release(MTNAccount account) {
+        if (account != null) {
+            account.release();
+        }
+    }
+
+    /**
+     * [vendor] or [vendor].[account] for all mtn.*.url keys
+     */
+    private Set<String> accountIds() {
+        Set<String> ids = new TreeSet<String>();
+        if (!(environment instanceof ConfigurableEnvironment)) {
+            return ids;
+        }
+        for (PropertySource<?> propertySource : ((ConfigurableEnvironment) environment).getPropertySources()) {
+            if (!(propertySource instanceof EnumerablePropertySource)) {
+                continue;
+            }
+            for (String name : ((EnumerablePropertySource<?>) propertySource).getPropertyNames()) {
+                if (name.startsWith(PREFIX) && name.endsWith(SUFFIX) && (name.length() > PREFIX.length() + SUFFIX.length())) {
+                    ids.add(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+                }
+            }
+        }
+        return ids;
+    }
+}
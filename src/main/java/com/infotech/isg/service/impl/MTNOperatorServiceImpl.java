@@ -1,19 +1,21 @@
 package com.infotech.isg.service.impl;
 
 import com.infotech.isg.service.OperatorService;
+import com.infotech.isg.service.MTNAccount;
+import com.infotech.isg.service.MTNAccountRegistry;
+import com.infotech.isg.service.OperatorProxyRegistry;
 import com.infotech.isg.service.OperatorServiceResponse;
 import com.infotech.isg.service.OperatorNotAvailableException;
 import com.infotech.isg.service.OperatorUnknownResponseException;
+import com.infotech.isg.metrics.RequestTrace;
 import com.infotech.isg.proxy.ProxyAccessException;
 import com.infotech.isg.proxy.mtn.MTNProxy;
-import com.infotech.isg.proxy.mtn.MTNProxyImpl;
 import com.infotech.isg.proxy.mtn.MTNProxyResponse;
 import com.infotech.isg.domain.ServiceActions;
+import com.infotech.isg.util.ProxyPool;
 
 import org.springframework.stereotype.Service;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.env.Environment;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,46 +29,37 @@ public class MTNOperatorServiceImpl implements OperatorService {
 
     private static final Logger LOG = LoggerFactory.getLogger(MTNOperatorServiceImpl.class);
 
-    @Autowired
-    private Environment env;
-
-    //@Value("${mtn.url}")
-    private String url;
-
-    //@Value("${mtn.username}")
-    private String username;
+    private final MTNAccountRegistry mtnAccountRegistry;
+    private final OperatorProxyRegistry operatorProxyRegistry;
 
-    //@Value("${mtn.password}")
-    private String password;
-
-    //@Value("${mtn.namespace}")
-    private String namespace;
-
-    //@Value("${mtn.vendor}")
-    private String vendorName;
+    @Autowired
+    public MTNOperatorServiceImpl(MTNAccountRegistry mtnAccountRegistry, OperatorProxyRegistry operatorProxyRegistry) {
+        this.mtnAccountRegistry = mtnAccountRegistry;
+        this.operatorProxyRegistry = operatorProxyRegistry;
+    }
 
     @Override
     public OperatorServiceResponse topup(String consumer, int amount, long transactionId, String action, 
                                         String customerName, String vendor, String channel, String clientUsername) {
-        
-        if (vendor.equalsIgnoreCase("infotech")) {
-            url = env.getProperty("mtn.infotech.url");
-            username = env.getProperty("mtn.infotech.username");
-            password = env.getProperty("mtn.infotech.password");
-            namespace = env.getProperty("mtn.infotech.namespace");
-            vendorName = env.getProperty("mtn.infotech.vendor");
-        } else if (vendor.equalsIgnoreCase("mtn")) {
-            url = env.getProperty("mtn.mtn.url");
-            username = env.getProperty("mtn.mtn.username");
-            password = env.getProperty("mtn.mtn.password");
-            namespace = env.getProperty("mtn.mtn.namespace");
-            vendorName = env.getProperty("mtn.mtn.vendor");
-        } else {
+
+        MTNAccount account = mtnAccountRegistry.acquire(vendor);
+        if (account == null) {
             // unknown vendor
             throw new OperatorNotAvailableException("unknown vendor for MTN");
         }
+        try {
+            return topup(account, consumer, amount, transactionId, action, customerName, channel);
+        } finally {
+            mtnAccountRegistry.release(account);
+        }
+    }
+
+    private OperatorServiceResponse topup(MTNAccount account, String consumer, int amount, long transactionId,
+                                          String action, String customerName, String channel) {
 
-        MTNProxy mtnProxy = new MTNProxyImpl(url, username, password, (customerName != null) ? customerName : vendorName, namespace);
+        ProxyPool<MTNProxy> pool = operatorProxyRegistry.getMTNProxyPool(account,
+                                   (customerName != null) ? customerName : account.getVendorName());
+        MTNProxy mtnProxy = pool.borrow();
 
         MTNProxyResponse mtnResponse = null;
         try {
@@ -106,8 +99,11 @@ public class MTNOperatorServiceImpl implements OperatorService {
                 default: break;
             }
         } catch (ProxyAccessException e) {
+            // proxy not released, its connection may be broken
             throw new OperatorUnknownResponseException("response unknown/ambiguous from MTN", e);
         }
+        pool.release(mtnProxy);
+        RequestTrace.stage("recharge");
 
         // check recharge response
         if ((mtnResponse == null)
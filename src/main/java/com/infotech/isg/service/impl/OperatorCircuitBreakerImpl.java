@@ -0,0 +1,187 @@
+package com.infotech.isg.service.impl;
+
+import com.infotech.isg.service.OperatorCircuitBreaker;
+
+import java.util.Map;
+import java.util.HashMap;
+import javax.annotation.PostConstruct;
+
+import org.springframework.stereotype.Service;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * per operator circuit breakers.
+ *
+ * breaker of each operator is configured by isg.ini keys:
+ * [operator].breaker.failureThreshold, consecutive failures to open, zero or less disables
+ * [operator].breaker.openTimeout, msec to stay open before a probe request is let through
+ * defaulting to isg.breaker.failureThreshold and isg.breaker.openTimeout.
+ *
+ * per endpoint failures are handled by endpoint groups of operator proxy registry.
+ *
+ * @author Sevak Gharibian
+ */
+@Service
+public class OperatorCircuitBreakerImpl implements OperatorCircuitBreaker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OperatorCircuitBreakerImpl.class);
+
+    private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    private static final long DEFAULT_OPEN_TIMEOUT = 30000;
+
+    private final Environment environment;
+    private final Map<Integer, Breaker> breakers = new HashMap<Integer, Breaker>();
+
+    @Autowired
+    public OperatorCircuitBreakerImpl(Environment environment) {
+        this.environment = environment;
+    }
+
+    @PostConstruct
+    public void start() {
+        int failureThreshold = environment.getProperty("isg.breaker.failureThreshold", Integer.class, DEFAULT_FAILURE_THRESHOLD);
+        long openTimeout = environment.getProperty("isg.breaker.openTimeout", Long.class, DEFAULT_OPEN_TIMEOUT);
+        for (int operatorId : OperatorKeys.OPERATOR_IDS) {
+            String name = OperatorKeys.of(operatorId);
+            breakers.put(operatorId, new Breaker(name,
+                                                 environment.getProperty(name + ".breaker.failureThreshold", Integer.class, failureThreshold),
+                                                 environment.getProperty(name + ".breaker.openTimeout", Long.class, openTimeout)));
+        }
+    }
+
+    @Override
+    public boolean allowRequest(int operatorId) {
+        Breaker breaker = breakers.get(operatorId);
+        return (breaker == null) || breaker.allowRequest();
+    }
+
+    @Override
+    public void onSuccess(int operatorId) {
+        Breaker breaker = breakers.get(operatorId);
+        if (breaker != null) {
+            breaker.onSuccess();
+        }
+    }
+
+    @Override
+    public void onFailure(int operatorId) {
+        Breaker breaker = breakers.get(operatorId);
+        if (breaker != null) {
+            breaker.onFailure();
+        }
+    }
+
+    @Override
+    public void cancel(int operatorId) {
+        Breaker breaker = breakers.get(operatorId);
+        if (breaker != null) {
+            breaker.cancel();
+        }
+    }
+
+    @Override
+    public State getState(int operatorId) {
+        Breaker breaker = breakers.get(operatorId);
+        return (breaker == null) ? State.CLOSED : breaker.getState();
+    }
+
+    @Override
+    public void reset(int operatorId) {
+        Breaker breaker = breakers.get(operatorId);
+        if (breaker != null) {
+            breaker.reset();
+        }
+    }
+
+    private static class Breaker {
+        private final String name;
+        private final int failureThreshold;
+        private final long openTimeout;
+
+        private State state = State.CLOSED;
+        private int failures;
+        private long openedAt;
+        private long probeStartedAt;
+        private boolean probing;
+
+        Breaker(String name, int failureThreshold, long openTimeout) {
+            this.name = name;
+            this.failureThreshold = failureThreshold;
+            this.openTimeout = openTimeout;
+        }
+
+        synchronized boolean allowRequest() {
+            if (failureThreshold <= 0) {
+                return true;
+            }
+            long now = System.currentTimeMillis();
+            if ((state == State.OPEN) && (now - openedAt >= openTimeout)) {
+                state = State.HALF_OPEN;
+                probing = false;
+                LOG.info("{} circuit half open", name);
+            }
+            switch (state) {
+                case CLOSED:
+                    return true;
+
+                case HALF_OPEN:
+                    // single probe, another one if probe outcome never reported
+                    if (probing && (now - probeStartedAt < openTimeout)) {
+                        return false;
+                    }
+                    probing = true;
+                    probeStartedAt = now;
+                    return true;
+
+                default:
+                    return false;
+            }
+        }
+
+        synchronized void onSuccess() {
+            failures = 0;
+            if (state != State.CLOSED) {
+                state = State.CLOSED;
+                probing = false;
+                LOG.info("{} circuit closed", name);
+            }
+        }
+
+        synchronized void onFailure() {
+            if (failureThreshold <= 0) {
+                return;
+            }
+            failures++;
+            if ((state == State.HALF_OPEN) || ((state == State.CLOSED) && (failures >= failureThreshold))) {
+                state = State.OPEN;
+                openedAt = System.currentTimeMillis();
+                probing = false;
+                LOG.warn("{} circuit open after {} consecutive failures", name, failures);
+            }
+        }
+
+        synchronized void cancel() {
+            if (state == State.HALF_OPEN) {
+                // let next request probe
+                probing = false;
+            }
+        }
+
+        synchronized State getState() {
+            if ((state == State.OPEN) && (System.currentTimeMillis() - openedAt >= openTimeout)) {
+                return State.HALF_OPEN;
+            }
+            return state;
+        }
+
+        synchronized void reset() {
+            state = State.CLOSED;
+            failures = 0;
+            probing = false;
+            LOG.info("{} circuit reset", name);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.infotech.isg.service.impl;
+
+import com.infotech.isg.service.OperatorConcurrencyLimiter;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+
+import org.springframework.stereotype.Service;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * AIMD concurrency limits per operator.
+ *
+ * a call slower than latencyThreshold, failed or timed out multiplies
+ * the limit by backoffRatio, any other call adds 1/limit to it while
+ * at least half of the limit is in use, i.e. one per round of calls.
+ *
+ * limit of each operator is configured by isg.ini keys:
+ * [operator].limiter.initialLimit, minLimit, maxLimit, backoffRatio, latencyThreshold
+ * defaulting to isg.limiter.* keys.
+ *
+ * once half of the limit is in use, operator slots are shared fairly among
+ * clients with calls in progress, in proportion to isg.client.[username].weight
+ * (default 1), a client over its share is rejected while others get through.
+ *
+ * @author Sevak Gharibian
+ */
+@Service
+public class OperatorConcurrencyLimiterImpl implements OperatorConcurrencyLimiter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OperatorConcurrencyLimiterImpl.class);
+
+    private static final int DEFAULT_INITIAL_LIMIT = 20;
+    private static final int DEFAULT_MIN_LIMIT = 2;
+    private static final int DEFAULT_MAX_LIMIT = 50;
+    private static final double DEFAULT_BACKOFF_RATIO = 0.9;
+    private static final long DEFAULT_LATENCY_THRESHOLD = 5000;
+
+    private final Environment environment;
+    private final Map<Integer, Limiter> limiters = new HashMap<Integer, Limiter>();
+    private final ConcurrentMap<String, Double> weights = new ConcurrentHashMap<String, Double>();
+
+    @Autowired
+    public OperatorConcurrencyLimiterImpl(Environment environment) {
+        this.environment = environment;
+    }
+
+    @PostConstruct
+    public void start() {
+        for (int operatorId : OperatorKeys.OPERATOR_IDS) {
+            limiters.put(operatorId, create(OperatorKeys.of(operatorId)));
+        }
+    }
+
+    @Override
+    public boolean tryAcquire(int operatorId, String client) {
+        Limiter limiter = limiters.get(operatorId);
+        return (limiter == null) || limiter.tryAcquire(client, weight(client));
+    }
+
+    @Override
+    public void release(int operatorId, String client, long latency, boolean dropped) {
+        Limiter limiter = limiters.get(operatorId);
+        if (limiter != null) {
+            limiter.release(client, weight(client), latency, dropped);
+        }
+    }
+
+    @Override
+    public void cancel(int operatorId, String client) {
+        Limiter limiter = limiters.get(operatorId);
+        if (limiter != null) {
+            limiter.free(client, weight(client));
+        }
+    }
+
+    @Override
+    public int getLimit(int operatorId) {
+        return get(operatorId).getLimit();
+    }
+
+    @Override
+    public int getInFlight(int operatorId) {
+        return get(operatorId).getInFlight();
+    }
+
+    @Override
+    public long getRejectedCount(int operatorId) {
+        return get(operatorId).rejected.get();
+    }
+
+    private Limiter get(int operatorId) {
+        Limiter limiter = limiters.get(operatorId);
+        if (limiter == null) {
+            throw new IllegalArgumentException("no limiter for operator: " + operatorId);
+        }
+        return limiter;
+    }
+
+    private Limiter create(String name) {
+        int minLimit = property(name, "minLimit", Integer.class, DEFAULT_MIN_LIMIT);
+        int maxLimit = Math.max(minLimit, property(name, "maxLimit", Integer.class, DEFAULT_MAX_LIMIT));
+        int initialLimit = Math.min(maxLimit, Math.max(minLimit, property(name, "initialLimit", Integer.class, DEFAULT_INITIAL_LIMIT)));
+        double backoffRatio = property(name, "backoffRatio", Double.class, DEFAULT_BACKOFF_RATIO);
+        long latencyThreshold = property(name, "latencyThreshold", Long.class, DEFAULT_LATENCY_THRESHOLD);
+        LOG.info("{} limiter created, initial: {}, min: {}, max: {}, latency threshold: {}",
+                 name, initialLimit, minLimit, maxLimit, latencyThreshold);
+        return new Limiter(name, initialLimit, minLimit, maxLimit, backoffRatio, latencyThreshold);
+    }
+
+    private double weight(String client) {
+        if (client == null) {
+            return 0;
+        }
+        Double weight = weights.get(client);
+        if (weight == null) {
+            weight = Math.max(0.1, environment.getProperty("isg.client." + client + ".weight", Double.class, 1.0));
+            weights.putIfAbsent(client, weight);
+        }
+        return weight;
+    }
+
+    private <T> T property(String name, String key, Class<T> type, T defaultValue) {
+        return environment.getProperty(name + ".limiter." + key, type,
+                                       environment.getProperty("isg.limiter." + key, type, defaultValue));
+    }
+
+    private static class Limiter {
+        private final String name;
+        private final int minLimit;
+        private final int maxLimit;
+        private final double backoffRatio;
+        private final long latencyThreshold;
+        private final AtomicLong rejected = new AtomicLong();
+
+        private double limit;
+        private int inFlight;
+
+        // calls in progress per client and total weight of those clients
+        private final Map<String, Integer> clients = new HashMap<String, Integer>();
+        private double activeWeight;
+
+        Limiter(String name, int initialLimit, int minLimit, int maxLimit,
+                double backoffRatio, long latencyThreshold) {
+            this.name = name;
+            this.limit = initialLimit;
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            this.backoffRatio = backoffRatio;
+            this.latencyThreshold = latencyThreshold;
+        }
+
+        synchronized boolean tryAcquire(String client, double weight) {
+            if (inFlight >= (int) limit) {
+                return reject("concurrency limit " + (int) limit + " reached");
+            }
+            Integer clientInFlight = (client == null) ? null : clients.get(client);
+            if ((client != null) && (inFlight * 2 >= (int) limit)) {
+                // under contention, client gets its weighted share of the limit
+                double totalWeight = activeWeight + ((clientInFlight == null) ? weight : 0);
+                int share = Math.max(1, (int) (limit * weight / totalWeight));
+                if ((clientInFlight != null) && (clientInFlight >= share)) {
+                    return reject(client + " share " + share + " reached");
+                }
+            }
+            inFlight++;
+            if (client != null) {
+                if (clientInFlight == null) {
+                    clientInFlight = 0;
+                    activeWeight += weight;
+                }
+                clients.put(client, clientInFlight + 1);
+            }
+            return true;
+        }
+
+        private boolean reject(String reason) {
+            long count = rejected.incrementAndGet();
+            if ((count == 1) || (count % 100 == 0)) {
+                LOG.warn("{} {}, {} operator calls rejected so far", name, reason, count);
+            }
+            return false;
+        }
+
+        synchronized void free(String client, double weight) {
+            inFlight--;
+            Integer clientInFlight = (client == null) ? null : clients.get(client);
+            if (clientInFlight != null) {
+                if (clientInFlight <= 1) {
+                    clients.remove(client);
+                    activeWeight = Math.max(0, activeWeight - weight);
+                } else {
+                    clients.put(client, clientInFlight - 1);
+                }
+            }
+        }
+
+        synchronized void release(String client, double weight, long latency, boolean dropped) {
+            free(client, weight);
+            if (dropped || (latency > latencyThreshold)) {
+                int last = (int) limit;
+                limit = Math.max(minLimit, limit * backoffRatio);
+                if ((int) limit < last) {
+                    LOG.info("{} concurrency limit decreased to {}", name, (int) limit);
+                }
+            } else if (inFlight * 2 >= (int) limit) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+        }
+
+        synchronized int getLimit() {
+            return (int) limit;
+        }
+
+        synchronized int getInFlight() {
+            return inFlight;
+        }
+    }
+}
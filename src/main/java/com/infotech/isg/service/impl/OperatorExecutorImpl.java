@@ -0,0 +1,147 @@
+package com.infotech.isg.service.impl;
+
+import com.infotech.isg.service.OperatorExecutor;
+import com.infotech.isg.service.OperatorRejectedException;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.stereotype.Service;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * per operator bounded thread pools.
+ *
+ * pool of each operator is configured by isg.ini keys:
+ * [operator].executor.coreThreads, [operator].executor.maxThreads, [operator].executor.queueSize
+ * where operator is one of mci, mcipinless, mtn, jiring, rightel, vopay.
+ *
+ * @author Sevak Gharibian
+ */
+@Service
+public class OperatorExecutorImpl implements OperatorExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OperatorExecutorImpl.class);
+
+    private static final int DEFAULT_CORE_THREADS = 10;
+    private static final int DEFAULT_MAX_THREADS = 50;
+    private static final int DEFAULT_QUEUE_SIZE = 0;
+
+    private final Environment environment;
+    private final Map<Integer, Bulkhead> bulkheads = new HashMap<Integer, Bulkhead>();
+
+    @Autowired
+    public OperatorExecutorImpl(Environment environment) {
+        this.environment = environment;
+    }
+
+    @PostConstruct
+    public void start() {
+        for (int operatorId : OperatorKeys.OPERATOR_IDS) {
+            bulkheads.put(operatorId, create(OperatorKeys.of(operatorId)));
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        for (Bulkhead bulkhead : bulkheads.values()) {
+            // pending operator calls are already set for STF
+            bulkhead.executor.shutdownNow();
+        }
+        LOG.info("operator executors stopped");
+    }
+
+    @Override
+    public <T> Future<T> submit(int operatorId, Callable<T> task) {
+        Bulkhead bulkhead = get(operatorId);
+        try {
+            return bulkhead.executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            long count = bulkhead.rejected.incrementAndGet();
+            if ((count == 1) || (count % 100 == 0)) {
+                LOG.warn("{} executor full, {} operator calls rejected so far", bulkhead.name, count);
+            }
+            throw new OperatorRejectedException(bulkhead.name + " executor full", e);
+        }
+    }
+
+    @Override
+    public int getActiveCount(int operatorId) {
+        return get(operatorId).executor.getActiveCount();
+    }
+
+    @Override
+    public int getQueuedCount(int operatorId) {
+        return get(operatorId).executor.getQueue().size();
+    }
+
+    @Override
+    public long getRejectedCount(int operatorId) {
+        return get(operatorId).rejected.get();
+    }
+
+    private Bulkhead get(int operatorId) {
+        Bulkhead bulkhead = bulkheads.get(operatorId);
+        if (bulkhead == null) {
+            throw new IllegalArgumentException("no executor for operator: " + operatorId);
+        }
+        return bulkhead;
+    }
+
+    private Bulkhead create(String name) {
+        int coreThreads = environment.getProperty(name + ".executor.coreThreads", Integer.class, DEFAULT_CORE_THREADS);
+        int maxThreads = Math.max(coreThreads, environment.getProperty(name + ".executor.maxThreads", Integer.class, DEFAULT_MAX_THREADS));
+        int queueSize = environment.getProperty(name + ".executor.queueSize", Integer.class, DEFAULT_QUEUE_SIZE);
+
+        BlockingQueue<Runnable> queue = (queueSize > 0)
+                                        ? new ArrayBlockingQueue<Runnable>(queueSize)
+                                        : new SynchronousQueue<Runnable>();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(coreThreads, maxThreads, 60, TimeUnit.SECONDS,
+                queue, new NamedThreadFactory("isg-" + name + "-"), new ThreadPoolExecutor.AbortPolicy());
+        LOG.info("{} executor created, core: {}, max: {}, queue: {}", name, coreThreads, maxThreads, queueSize);
+        return new Bulkhead(name, executor);
+    }
+
+    private static class Bulkhead {
+        private final String name;
+        private final ThreadPoolExecutor executor;
+        private final AtomicLong rejected = new AtomicLong();
+
+        Bulkhead(String name, ThreadPoolExecutor executor) {
+            this.name = name;
+            this.executor = executor;
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.infotech.isg.service.impl;
+
+import com.infotech.isg.service.OperatorInvoker;
+import com.infotech.isg.service.OperatorExecutor;
+import com.infotech.isg.service.OperatorService;
+import com.infotech.isg.service.OperatorServiceResponse;
+import com.infotech.isg.service.OperatorRejectedException;
+import com.infotech.isg.service.OperatorUnknownResponseException;
+import com.infotech.isg.service.OperatorTimeoutException;
+import com.infotech.isg.metrics.RequestTrace;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.stereotype.Service;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.core.env.PropertySource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * operator invoker implementation.
+ *
+ * deadline policy, msec, from isg.ini:
+ * [operator].timeout per operator, i.e. mci.timeout, defaults to isg.operator.timeout
+ * isg.client.[username].[operator].timeout per client on one operator, overrides operator deadline
+ * isg.client.[username].timeout per client on all operators, overrides operator deadline
+ * all resolved once at startup.
+ *
+ * if deadline passes while call is still queued in operator executor, it is
+ * cancelled and fails as operator not available, since nothing is sent yet.
+ *
+ * caller request trace, if any, is bound to executor thread during operator call.
+ *
+ * @author Sevak Gharibian
+ */
+@Service
+public class OperatorInvokerImpl implements OperatorInvoker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OperatorInvokerImpl.class);
+
+    private static final long DEFAULT_TIMEOUT = 30000;
+    private static final String CLIENT_PREFIX = "isg.client.";
+    private static final String TIMEOUT_SUFFIX = ".timeout";
+
+    private final OperatorExecutor operatorExecutor;
+    private final Environment environment;
+    private final Map<Integer, Long> operatorDeadlines = new HashMap<Integer, Long>();
+    // only clients with deadline overrides, username -> operator -> deadline
+    private final Map<String, Map<Integer, Long>> clientDeadlines = new HashMap<String, Map<Integer, Long>>();
+    private ScheduledThreadPoolExecutor deadlineTimer;
+
+    @Autowired
+    public OperatorInvokerImpl(OperatorExecutor operatorExecutor, Environment environment) {
+        this.operatorExecutor = operatorExecutor;
+        this.environment = environment;
+    }
+
+    @PostConstruct
+    public void start() {
+        long defaultTimeout = parseTimeout("isg.operator.timeout", DEFAULT_TIMEOUT);
+        for (int operatorId : OperatorKeys.OPERATOR_IDS) {
+            operatorDeadlines.put(operatorId, parseTimeout(OperatorKeys.of(operatorId) + TIMEOUT_SUFFIX, defaultTimeout));
+        }
+        for (String username : clientKeys()) {
+            String client = CLIENT_PREFIX + username;
+            Map<Integer, Long> deadlines = new HashMap<Integer, Long>();
+            for (int operatorId : OperatorKeys.OPERATOR_IDS) {
+                deadlines.put(operatorId, parseTimeout(client + "." + OperatorKeys.of(operatorId) + TIMEOUT_SUFFIX,
+                                                       parseTimeout(client + TIMEOUT_SUFFIX, operatorDeadlines.get(operatorId))));
+            }
+            clientDeadlines.put(username, deadlines);
+        }
+        deadlineTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "isg-operator-deadline");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        deadlineTimer.setRemoveOnCancelPolicy(true);
+        LOG.info("operator deadlines: {}, client deadlines: {}", operatorDeadlines, clientDeadlines);
+    }
+
+    @PreDestroy
+    public void stop() {
+        deadlineTimer.shutdownNow();
+    }
+
+    @Override
+    public CompletableFuture<OperatorServiceResponse> topupAsync(int operatorId, final OperatorService operatorService,
+            final String consumer, final int amount,
+            final long transactionId, final String action,
+            final String customerName, final String vendor,
+            final String channel, final String clientUsername, long deadline) {
+
+        return invoke(operatorId, deadline, "recharge", new Callable<OperatorServiceResponse>() {
+            @Override
+            public OperatorServiceResponse call() {
+                return operatorService.topup(consumer, amount, transactionId, action,
+                                             customerName, vendor, channel, clientUsername);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<OperatorServiceResponse> getBillAsync(int operatorId, final OperatorService operatorService,
+            final String consumer) {
+
+        return invoke(operatorId, getDeadline(operatorId, null), "get bill", new Callable<OperatorServiceResponse>() {
+            @Override
+            public OperatorServiceResponse call() {
+                return operatorService.getBill(consumer);
+            }
+        });
+    }
+
+    @Override
+    public OperatorServiceResponse topup(int operatorId, OperatorService operatorService,
+                                         String consumer, int amount,
+                                         long transactionId, String action,
+                                         String customerName, String vendor,
+                                         String channel, String clientUsername, long deadline) {
+
+        return await(topupAsync(operatorId, operatorService, consumer, amount, transactionId,
+                                action, customerName, vendor, channel, clientUsername, deadline));
+    }
+
+    @Override
+    public OperatorServiceResponse getBill(int operatorId, OperatorService operatorService, String consumer) {
+        return await(getBillAsync(operatorId, operatorService, consumer));
+    }
+
+    @Override
+    public long getDeadline(int operatorId, String clientUsername) {
+        Long deadline = operatorDeadlines.get(operatorId);
+        if (deadline == null) {
+            // unknown operator
+            return DEFAULT_TIMEOUT;
+        }
+        if (clientUsername == null) {
+            return deadline;
+        }
+        Map<Integer, Long> deadlines = clientDeadlines.get(clientUsername);
+        return (deadlines == null) ? deadline : deadlines.get(operatorId);
+    }
+
+    private CompletableFuture<OperatorServiceResponse> invoke(int operatorId, long deadline, final String request,
+            final Callable<OperatorServiceResponse> call) {
+
+        final String operator = OperatorKeys.of(operatorId);
+        final CompletableFuture<OperatorServiceResponse> response = new CompletableFuture<OperatorServiceResponse>();
+        final CompletableFuture<OperatorServiceResponse> result = new CompletableFuture<OperatorServiceResponse>();
+        final RequestTrace trace = RequestTrace.current();
+        // set by whichever comes first, operator call or deadline while call still queued
+        final AtomicBoolean started = new AtomicBoolean();
+
+        // throws OperatorRejectedException if operator executor full, nothing sent yet
+        final Future<Void> task = operatorExecutor.submit(operatorId, new Callable<Void>() {
+            @Override
+            public Void call() {
+                if (!started.compareAndSet(false, true)) {
+                    // deadline passed in queue
+                    return null;
+                }
+                RequestTrace previous = RequestTrace.bind(trace);
+                RequestTrace.stage("executorQueue");
+                try {
+                    response.complete(call.call());
+                } catch (Throwable e) {
+                    response.completeExceptionally(e);
+                } finally {
+                    RequestTrace.bind(previous);
+                }
+                return null;
+            }
+        });
+
+        final ScheduledFuture<?> timer = deadlineTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (started.compareAndSet(false, true)) {
+                    // still queued, nothing sent to operator
+                    task.cancel(false);
+                    response.completeExceptionally(new OperatorRejectedException(
+                                                       String.format("timeout, %s not sent to %s, still queued", request, operator)));
+                    return;
+                }
+                // operator call not completed yet, set for STF, switch should recheck later
+                // operator call goes on, its late response is still available to caller
+                result.completeExceptionally(new OperatorTimeoutException(
+                                                 String.format("timeout, %s response is ambiguous from %s, set for STF", request, operator),
+                                                 response));
+            }
+        }, deadline, TimeUnit.MILLISECONDS);
+
+        response.whenComplete(new BiConsumer<OperatorServiceResponse, Throwable>() {
+            @Override
+            public void accept(OperatorServiceResponse operatorResponse, Throwable error) {
+                timer.cancel(false);
+                if (error == null) {
+                    result.complete(operatorResponse);
+                } else {
+                    result.completeExceptionally(error);
+                }
+            }
+        });
+        return result;
+    }
+
+    private OperatorServiceResponse await(CompletableFuture<OperatorServiceResponse> future) {
+        try {
+            // bounded by deadline timer
+            return future.get();
+        } catch (InterruptedException e) {
+            // operator result unknown, this will be set for STF
+            Thread.currentThread().interrupt();
+            throw new OperatorUnknownResponseException("interrupted, operator response is ambiguous, set for STF", e);
+        } catch (ExecutionException e) {
+            // rethrow the same exception thrown by operator service
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            } else {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * [username] for all isg.client.[username].timeout and isg.client.[username].[operator].timeout keys
+     */
+    private Set<String> clientKeys() {
+        Set<String> keys = new TreeSet<String>();
+        if (!(environment instanceof ConfigurableEnvironment)) {
+            return keys;
+        }
+        for (PropertySource<?> propertySource : ((ConfigurableEnvironment) environment).getPropertySources()) {
+            if (!(propertySource instanceof EnumerablePropertySource)) {
+                continue;
+            }
+            for (String name : ((EnumerablePropertySource<?>) propertySource).getPropertyNames()) {
+                if (!name.startsWith(CLIENT_PREFIX) || !name.endsWith(TIMEOUT_SUFFIX)
+                    || (name.length() <= CLIENT_PREFIX.length() + TIMEOUT_SUFFIX.length())) {
+                    continue;
+                }
+                String key = name.substring(CLIENT_PREFIX.length(), name.length() - TIMEOUT_SUFFIX.length());
+                for (int operatorId : OperatorKeys.OPERATOR_IDS) {
+                    String operator = "." + OperatorKeys.of(operatorId);
+                    if (key.endsWith(operator) && (key.length() > operator.length())) {
+                        key = key.substring(0, key.length() - operator.length());
+                        break;
+                    }
+                }
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    private long parseTimeout(String key, long defaultTimeout) {
+        String value = environment.getProperty(key);
+        if (value == null) {
+            return defaultTimeout;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            LOG.error("invalid {} param, using default {}", key, defaultTimeout);
+            return defaultTimeout;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.infotech.isg.service.impl;
+
+import com.infotech.isg.domain.Operator;
+
+/**
+ * operator names used as isg.ini key prefixes
+ *
+ * @author Sevak Gharibian
+ */
+final class OperatorKeys {
+
+    static final int[] OPERATOR_IDS = {Operator.MTN_ID, Operator.MCI_ID, Operator.JIRING_ID,
+                                       Operator.RIGHTEL_ID, Operator.MCI_PINLESS_ID, Operator.VOPAY_ID
+                                      };
+
+    private OperatorKeys() {
+    }
+
+    static String of(int operatorId) {
+        if (operatorId == Operator.MTN_ID) {
+            return "mtn";
+        } else if (operatorId == Operator.MCI_ID) {
+            return "mci";
+        } else if (operatorId == Operator.JIRING_ID) {
+            return "jiring";
+        } else if (operatorId == Operator.RIGHTEL_ID) {
+            return "rightel";
+        } else if (operatorId == Operator.MCI_PINLESS_ID) {
+            return "mcipinless";
+        } else if (operatorId == Operator.VOPAY_ID) {
+            return "vopay";
+        }
+        throw new IllegalArgumentException("unknown operator: " + operatorId);
+    }
+}
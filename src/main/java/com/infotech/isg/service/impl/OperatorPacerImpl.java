@@ -0,0 +1,175 @@
+package com.infotech.isg.service.impl;
+
+import com.infotech.isg.service.OperatorPacer;
+import com.infotech.isg.util.TokenBucket;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+
+import org.springframework.stereotype.Service;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.core.env.PropertySource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * token bucket pacing per operator and per operator vendor.
+ *
+ * buckets are configured by isg.ini keys:
+ * [operator].pacer.tps, [operator].pacer.burst for operator contract
+ * [operator].[vendor].pacer.tps, [operator].[vendor].pacer.burst for a vendor account
+ * tps zero or less, or missing, means not paced. burst defaults to tps.
+ *
+ * @author Sevak Gharibian
+ */
+@Service
+public class OperatorPacerImpl implements OperatorPacer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OperatorPacerImpl.class);
+
+    private static final String SUFFIX = ".pacer.tps";
+
+    private final Environment environment;
+
+    // operator buckets by operator id, vendor buckets by [operator].[vendor]
+    private Map<Integer, TokenBucket> operatorBuckets;
+    private Map<String, TokenBucket> vendorBuckets;
+    private final Map<Integer, AtomicLong> shed = new HashMap<Integer, AtomicLong>();
+
+    @Autowired
+    public OperatorPacerImpl(Environment environment) {
+        this.environment = environment;
+    }
+
+    @PostConstruct
+    public void start() {
+        Map<Integer, TokenBucket> operators = new HashMap<Integer, TokenBucket>();
+        for (int operatorId : OperatorKeys.OPERATOR_IDS) {
+            shed.put(operatorId, new AtomicLong());
+            TokenBucket bucket = create(OperatorKeys.of(operatorId));
+            if (bucket != null) {
+                operators.put(operatorId, bucket);
+            }
+        }
+        Map<String, TokenBucket> vendors = new HashMap<String, TokenBucket>();
+        for (String key : vendorKeys()) {
+            TokenBucket bucket = create(key);
+            if (bucket != null) {
+                vendors.put(key.toLowerCase(), bucket);
+            }
+        }
+        operatorBuckets = Collections.unmodifiableMap(operators);
+        vendorBuckets = Collections.unmodifiableMap(vendors);
+    }
+
+    @Override
+    public boolean pace(int operatorId, String vendor, long maxWait) {
+        TokenBucket operatorBucket = operatorBuckets.get(operatorId);
+        TokenBucket vendorBucket = (vendor == null) ? null : vendorBuckets.get(OperatorKeys.of(operatorId) + "." + vendor.toLowerCase());
+        if ((operatorBucket == null) && (vendorBucket == null)) {
+            return true;
+        }
+
+        long wait = 0;
+        if (operatorBucket != null) {
+            wait = operatorBucket.reserve(maxWait);
+            if (wait < 0) {
+                return shed(operatorId);
+            }
+        }
+        if (vendorBucket != null) {
+            long vendorWait = vendorBucket.reserve(maxWait);
+            if (vendorWait < 0) {
+                if (operatorBucket != null) {
+                    operatorBucket.cancel();
+                }
+                return shed(operatorId);
+            }
+            wait = Math.max(wait, vendorWait);
+        }
+
+        if (wait > 0) {
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                // permits reserved but not used
+                Thread.currentThread().interrupt();
+                if (operatorBucket != null) {
+                    operatorBucket.cancel();
+                }
+                if (vendorBucket != null) {
+                    vendorBucket.cancel();
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public long getShedCount(int operatorId) {
+        AtomicLong count = shed.get(operatorId);
+        return (count == null) ? 0 : count.get();
+    }
+
+    private boolean shed(int operatorId) {
+        long count = shed.get(operatorId).incrementAndGet();
+        if ((count == 1) || (count % 100 == 0)) {
+            LOG.warn("{} tps reached, {} operator calls shed so far", OperatorKeys.of(operatorId), count);
+        }
+        return false;
+    }
+
+    private TokenBucket create(String key) {
+        double tps = environment.getProperty(key + SUFFIX, Double.class, 0.0);
+        if (tps <= 0) {
+            return null;
+        }
+        double burst = Math.max(1, environment.getProperty(key + ".pacer.burst", Double.class, tps));
+        LOG.info("{} paced, tps: {}, burst: {}", key, tps, burst);
+        return new TokenBucket(tps, burst);
+    }
+
+    /**
+     * [operator].[vendor] for all [operator].[vendor].pacer.tps keys
+     */
+    private Set<String> vendorKeys() {
+        Set<String> keys = new TreeSet<String>();
+        if (!(environment instanceof ConfigurableEnvironment)) {
+            return keys;
+        }
+        for (PropertySource<?> propertySource : ((ConfigurableEnvironment) environment).getPropertySources()) {
+            if (!(propertySource instanceof EnumerablePropertySource)) {
+                continue;
+            }
+            for (String name : ((EnumerablePropertySource<?>) propertySource).getPropertyNames()) {
+                if (!name.endsWith(SUFFIX)) {
+                    continue;
+                }
+                String key = name.substring(0, name.length() - SUFFIX.length());
+                int dot = key.indexOf('.');
+                if ((dot > 0) && (dot < key.length() - 1) && isOperator(key.substring(0, dot))) {
+                    keys.add(key);
+                }
+            }
+        }
+        return keys;
+    }
+
+    private boolean isOperator(String name) {
+        for (int operatorId : OperatorKeys.OPERATOR_IDS) {
+            if (OperatorKeys.of(operatorId).equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
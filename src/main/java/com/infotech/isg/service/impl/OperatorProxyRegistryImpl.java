@@ -0,0 +1,302 @@
+package com.infotech.isg.service.impl;
+
+import com.infotech.isg.service.OperatorProxyRegistry;
+import com.infotech.isg.service.MTNAccount;
+import com.infotech.isg.proxy.mci.MCIProxy;
+import com.infotech.isg.proxy.mci.MCIProxyImpl;
+import com.infotech.isg.proxy.mcipinless.MCIPinLessProxy;
+import com.infotech.isg.proxy.mcipinless.MCIPinLessProxyImpl;
+import com.infotech.isg.proxy.jiring.JiringProxy;
+import com.infotech.isg.proxy.jiring.JiringProxyImpl;
+import com.infotech.isg.proxy.rightel.RightelProxy;
+import com.infotech.isg.proxy.rightel.RightelProxyImpl;
+import com.infotech.isg.proxy.vopay.VopayProxy;
+import com.infotech.isg.proxy.vopay.VopayProxyImpl;
+import com.infotech.isg.proxy.mtn.MTNProxy;
+import com.infotech.isg.proxy.mtn.MTNProxyImpl;
+import com.infotech.isg.util.EndpointGroup;
+import com.infotech.isg.util.EndpointGroup.Endpoint;
+import com.infotech.isg.util.EndpointGroup.ProxyFactory;
+import com.infotech.isg.util.ProxyPool;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.io.InputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.HttpURLConnection;
+import javax.annotation.PostConstruct;
+
+import org.springframework.stereotype.Service;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.core.env.Environment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * operator proxy registry implementation.
+ *
+ * proxies come from isgcommon and are not known to be thread-safe, so each
+ * thread calling an endpoint gets its own proxy, built once per thread.
+ * HTTP connections are kept alive and reused by JDK per endpoint,
+ * http.maxConnections system property, set in isg.ini, caps only idle
+ * connections cached per endpoint, not open connections; concurrent calls
+ * are bounded by operator executor and concurrency limiter.
+ *
+ * optionally (isg.proxy.warmup, off by default) one connection is opened to
+ * each endpoint at startup, so first requests find DNS, TCP and TLS already
+ * set up. warm up sends a plain unauthenticated GET to operator endpoints,
+ * so enable it only where operators accept it.
+ *
+ * MTN proxies are built with vendor name of each request, so they are
+ * pooled per account and vendor name instead, at most isg.proxy.maxIdle
+ * idle proxies per pool, evicted after isg.proxy.idleTimeout unused.
+ *
+ * endpoints of an operator are listed by [operator].endpoints, key prefixes
+ * of each endpoint settings, i.e. mci.endpoints=mci,mci2 for mci.url and
+ * mci2.url, defaults to operator name itself.
+ *
+ * @author Sevak Gharibian
+ */
+@Service
+public class OperatorProxyRegistryImpl implements OperatorProxyRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OperatorProxyRegistryImpl.class);
+
+    private final Environment environment;
+
+    @Value("${isg.proxy.warmup:false}")
+    private boolean warmup = false;
+
+    @Value("${isg.proxy.warmupTimeout:2000}")
+    private int warmupTimeout = 2000;
+
+    // msec an endpoint failing consecutively is skipped
+    @Value("${isg.proxy.coolDown:10000}")
+    private long coolDown = 10000;
+
+    @Value("${isg.proxy.maxIdle:20}")
+    private int maxIdle = 20;
+
+    // msec a pooled proxy is kept unused
+    @Value("${isg.proxy.idleTimeout:60000}")
+    private long idleTimeout = 60000;
+
+    private final ConcurrentMap<MTNAccount, ConcurrentMap<String, ProxyPool<MTNProxy>>> mtnProxyPools =
+        new ConcurrentHashMap<MTNAccount, ConcurrentMap<String, ProxyPool<MTNProxy>>>();
+
+    private EndpointGroup<MCIProxy> mciEndpoints;
+    private EndpointGroup<MCIPinLessProxy> mciPinLessEndpoints;
+    private EndpointGroup<JiringProxy> jiringEndpoints;
+    private EndpointGroup<RightelProxy> rightelEndpoints;
+    private ThreadLocal<VopayProxy> vopayProxy;
+    private String vopayUrl;
+
+    @Autowired
+    public OperatorProxyRegistryImpl(Environment environment) {
+        this.environment = environment;
+    }
+
+    @PostConstruct
+    public void start() {
+        List<Endpoint<MCIProxy>> mci = new ArrayList<Endpoint<MCIProxy>>();
+        for (final String key : endpointKeys("mci")) {
+            mci.add(new Endpoint<MCIProxy>(key, url(key), username(key), new ProxyFactory<MCIProxy>() {
+                @Override
+                public MCIProxy create() {
+                    return new MCIProxyImpl(url(key), username(key), password(key), namespace(key));
+                }
+            }));
+        }
+        mciEndpoints = new EndpointGroup<MCIProxy>("mci", mci, coolDown);
+
+        List<Endpoint<MCIPinLessProxy>> mciPinLess = new ArrayList<Endpoint<MCIPinLessProxy>>();
+        for (final String key : endpointKeys("mcipinless")) {
+            mciPinLess.add(new Endpoint<MCIPinLessProxy>(key, url(key), username(key), new ProxyFactory<MCIPinLessProxy>() {
+                @Override
+                public MCIPinLessProxy create() {
+                    return new MCIPinLessProxyImpl(url(key), username(key), password(key), namespace(key));
+                }
+            }));
+        }
+        mciPinLessEndpoints = new EndpointGroup<MCIPinLessProxy>("mcipinless", mciPinLess, coolDown);
+
+        List<Endpoint<JiringProxy>> jiring = new ArrayList<Endpoint<JiringProxy>>();
+        for (final String key : endpointKeys("jiring")) {
+            jiring.add(new Endpoint<JiringProxy>(key, url(key), username(key), new ProxyFactory<JiringProxy>() {
+                @Override
+                public JiringProxy create() {
+                    return new JiringProxyImpl(url(key), username(key), password(key));
+                }
+            }));
+        }
+        jiringEndpoints = new EndpointGroup<JiringProxy>("jiring", jiring, coolDown);
+
+        List<Endpoint<RightelProxy>> rightel = new ArrayList<Endpoint<RightelProxy>>();
+        for (final String key : endpointKeys("rightel")) {
+            rightel.add(new Endpoint<RightelProxy>(key, url(key), username(key), new ProxyFactory<RightelProxy>() {
+                @Override
+                public RightelProxy create() {
+                    return new RightelProxyImpl(url(key), username(key), password(key), namespace(key));
+                }
+            }));
+        }
+        rightelEndpoints = new EndpointGroup<RightelProxy>("rightel", rightel, coolDown);
+
+        vopayUrl = url("vopay");
+        vopayProxy = new ThreadLocal<VopayProxy>() {
+            @Override
+            protected VopayProxy initialValue() {
+                return new VopayProxyImpl(vopayUrl,
+                                          environment.getProperty("vopay.accountId"),
+                                          environment.getProperty("vopay.agentId"),
+                                          environment.getProperty("vopay.key"),
+                                          environment.getProperty("vopay.secret"),
+                                          environment.getProperty("vopay.authorizedIp"));
+            }
+        };
+
+        if (!warmup) {
+            return;
+        }
+        final List<String> urls = new ArrayList<String>();
+        for (EndpointGroup<?> group : new EndpointGroup<?>[] {mciEndpoints, mciPinLessEndpoints, jiringEndpoints, rightelEndpoints}) {
+            for (Endpoint<?> endpoint : group.getEndpoints()) {
+                urls.add(endpoint.getUrl());
+            }
+        }
+        urls.add(vopayUrl);
+        Thread warmer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (String url : urls) {
+                    connect(url);
+                }
+            }
+        }, "isg-proxy-warmup");
+        warmer.setDaemon(true);
+        warmer.start();
+    }
+
+    @Override
+    public EndpointGroup<MCIProxy> getMCIEndpoints() {
+        return mciEndpoints;
+    }
+
+    @Override
+    public EndpointGroup<MCIPinLessProxy> getMCIPinLessEndpoints() {
+        return mciPinLessEndpoints;
+    }
+
+    @Override
+    public EndpointGroup<JiringProxy> getJiringEndpoints() {
+        return jiringEndpoints;
+    }
+
+    @Override
+    public EndpointGroup<RightelProxy> getRightelEndpoints() {
+        return rightelEndpoints;
+    }
+
+    @Override
+    public VopayProxy getVopayProxy() {
+        return vopayProxy.get();
+    }
+
+    @Override
+    public ProxyPool<MTNProxy> getMTNProxyPool(final MTNAccount account, final String vendorName) {
+        ConcurrentMap<String, ProxyPool<MTNProxy>> pools = mtnProxyPools.get(account);
+        if (pools == null) {
+            mtnProxyPools.putIfAbsent(account, new ConcurrentHashMap<String, ProxyPool<MTNProxy>>());
+            pools = mtnProxyPools.get(account);
+        }
+        ProxyPool<MTNProxy> pool = pools.get(vendorName);
+        if (pool == null) {
+            pools.putIfAbsent(vendorName, new ProxyPool<MTNProxy>(new ProxyFactory<MTNProxy>() {
+                @Override
+                public MTNProxy create() {
+                    return new MTNProxyImpl(account.getUrl(), account.getUsername(), account.getPassword(),
+                                            vendorName, account.getNamespace());
+                }
+            }, maxIdle, idleTimeout));
+            pool = pools.get(vendorName);
+        }
+        return pool;
+    }
+
+    @Override
+    @Scheduled(fixedDelayString = "${isg.proxy.evictInterval:30000}")
+    public void evict() {
+        long now = System.currentTimeMillis();
+        for (ConcurrentMap<String, ProxyPool<MTNProxy>> pools : mtnProxyPools.values()) {
+            Iterator<ProxyPool<MTNProxy>> iterator = pools.values().iterator();
+            while (iterator.hasNext()) {
+                ProxyPool<MTNProxy> pool = iterator.next();
+                pool.evict(now);
+                if (pool.getIdleCount() == 0) {
+                    // vendor names come with requests, drop unused pools
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private String[] endpointKeys(String operator) {
+        String[] keys = environment.getProperty(operator + ".endpoints", operator).split(",");
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = keys[i].trim();
+        }
+        return keys;
+    }
+
+    private String url(String key) {
+        return environment.getRequiredProperty(key + ".url");
+    }
+
+    private String username(String key) {
+        return environment.getProperty(key + ".username");
+    }
+
+    private String password(String key) {
+        return environment.getProperty(key + ".password");
+    }
+
+    private String namespace(String key) {
+        return environment.getProperty(key + ".namespace");
+    }
+
+    /**
+     * opens a connection to endpoint and leaves it in JDK keep-alive cache
+     */
+    private void connect(String url) {
+        long start = System.currentTimeMillis();
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(warmupTimeout);
+            connection.setReadTimeout(warmupTimeout);
+            int status = connection.getResponseCode();
+            // response should be read completely for connection to be reused
+            InputStream input = (status < 400) ? connection.getInputStream() : connection.getErrorStream();
+            if (input != null) {
+                byte[] buffer = new byte[1024];
+                while (input.read(buffer) != -1) {
+                    // discard
+                }
+                input.close();
+            }
+            LOG.info("connection to {} warmed up in {} msec", url, System.currentTimeMillis() - start);
+        } catch (IOException | ClassCastException e) {
+            // operator not available now, first request will connect
+            LOG.warn("could not warm up connection to {}: {}", url, e.getMessage());
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.infotech.isg.service.impl;
+
+import com.infotech.isg.domain.Operator;
+import com.infotech.isg.domain.OperatorStatus;
+import com.infotech.isg.repository.OperatorStatusRepository;
+import com.infotech.isg.service.OperatorStatusCache;
+import com.infotech.isg.service.OperatorProxyRegistry;
+import com.infotech.isg.proxy.mci.MCIProxy;
+import com.infotech.isg.proxy.mcipinless.MCIPinLessProxy;
+import com.infotech.isg.util.EndpointGroup;
+import com.infotech.isg.util.EndpointGroup.Endpoint;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.stereotype.Service;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * operator availability served from memory.
+ *
+ * operator status table is reloaded every isg.status.refreshInterval msec
+ * into an immutable snapshot swapped atomically, changes are logged.
+ * if isg.status.probe is set, MCI and MCIPinLess endpoints are probed by
+ * GetToken every isg.status.probeInterval msec, operator is available
+ * only if its status is available and, if probed, any endpoint responded.
+ * probes run on their own threads (isg.status.probeThreads), not on shared
+ * scheduler, an endpoint not responding within isg.status.probeTimeout msec
+ * is taken as failed.
+ *
+ * @author Sevak Gharibian
+ */
+@Service
+public class OperatorStatusCacheImpl implements OperatorStatusCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OperatorStatusCacheImpl.class);
+
+    private final OperatorStatusRepository operatorStatusRepository;
+    private final OperatorProxyRegistry operatorProxyRegistry;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${isg.status.probe:false}")
+    private boolean probeEnabled = false;
+
+    @Value("${isg.status.probeInterval:30000}")
+    private long probeInterval = 30000;
+
+    @Value("${isg.status.probeTimeout:5000}")
+    private long probeTimeout = 5000;
+
+    // one runs probe rounds, others call endpoints
+    @Value("${isg.status.probeThreads:4}")
+    private int probeThreads = 4;
+
+    private ScheduledThreadPoolExecutor probeExecutor;
+
+    // status availability per operator id
+    private volatile Map<Integer, Boolean> snapshot;
+
+    // probe result per operator id, absent if not probed
+    private final ConcurrentMap<Integer, Boolean> probes = new ConcurrentHashMap<Integer, Boolean>();
+
+    @Autowired
+    public OperatorStatusCacheImpl(OperatorStatusRepository operatorStatusRepository,
+                                   OperatorProxyRegistry operatorProxyRegistry,
+                                   PlatformTransactionManager transactionManager) {
+        this.operatorStatusRepository = operatorStatusRepository;
+        this.operatorProxyRegistry = operatorProxyRegistry;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!probeEnabled) {
+            return;
+        }
+        probeExecutor = new ScheduledThreadPoolExecutor(Math.max(2, probeThreads), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "isg-status-probe");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        probeExecutor.setRemoveOnCancelPolicy(true);
+        probeExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    probe();
+                } catch (RuntimeException e) {
+                    LOG.error("error probing operators", e);
+                }
+            }
+        }, 0, probeInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (probeExecutor != null) {
+            probeExecutor.shutdownNow();
+        }
+    }
+
+    @Override
+    public Boolean isAvailable(int operatorId) {
+        Map<Integer, Boolean> statuses = snapshot;
+        if (statuses == null) {
+            statuses = load();
+            snapshot = statuses;
+        }
+        Boolean available = statuses.get(operatorId);
+        if (available == null) {
+            return null;
+        }
+        Boolean probed = probes.get(operatorId);
+        return available && ((probed == null) || probed);
+    }
+
+    @Override
+    @Scheduled(fixedDelayString = "${isg.status.refreshInterval:5000}")
+    public void reload() {
+        try {
+            Map<Integer, Boolean> statuses = load();
+            Map<Integer, Boolean> last = snapshot;
+            if (last != null) {
+                for (Map.Entry<Integer, Boolean> entry : statuses.entrySet()) {
+                    if (!entry.getValue().equals(last.get(entry.getKey()))) {
+                        LOG.info("{} status changed to available: {}", Operator.getName(entry.getKey()), entry.getValue());
+                    }
+                }
+            }
+            snapshot = statuses;
+        } catch (RuntimeException e) {
+            // keep the last snapshot
+            LOG.error("error reloading operator status, last snapshot kept", e);
+        }
+    }
+
+    @Override
+    public void probe() {
+        if (!probeEnabled) {
+            return;
+        }
+        update(Operator.MCI_ID, probe("mci", operatorProxyRegistry.getMCIEndpoints(), new Prober<MCIProxy>() {
+            @Override
+            public boolean probe(MCIProxy proxy) {
+                return (proxy.getToken().getToken() != null);
+            }
+        }));
+        update(Operator.MCI_PINLESS_ID, probe("mcipinless", operatorProxyRegistry.getMCIPinLessEndpoints(), new Prober<MCIPinLessProxy>() {
+            @Override
+            public boolean probe(MCIPinLessProxy proxy) {
+                return (proxy.getToken().getToken() != null);
+            }
+        }));
+    }
+
+    private void update(int operatorId, boolean available) {
+        Boolean last = probes.put(operatorId, available);
+        if ((last == null) || (last != available)) {
+            LOG.info("{} probed available: {}", Operator.getName(operatorId), available);
+        }
+    }
+
+    /**
+     * cheap operator call on endpoint proxy
+     */
+    private interface Prober<T> {
+        public boolean probe(T proxy);
+    }
+
+    /**
+     * probes all endpoints in parallel, each bounded by probe timeout
+     *
+     * @return true if any endpoint responded
+     */
+    private <T> boolean probe(final String name, EndpointGroup<T> endpoints, final Prober<T> prober) {
+        // msec probe took, null if failed
+        List<Future<Long>> results = new ArrayList<Future<Long>>();
+        for (final Endpoint<T> endpoint : endpoints.getEndpoints()) {
+            results.add(probeExecutor.submit(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    long start = System.currentTimeMillis();
+                    try {
+                        return prober.probe(endpoint.getProxy()) ? System.currentTimeMillis() - start : null;
+                    } catch (RuntimeException e) {
+                        LOG.debug("{} probe failed on {}", name, endpoint, e);
+                        return null;
+                    }
+                }
+            }));
+        }
+
+        boolean available = false;
+        long start = System.currentTimeMillis();
+        long deadline = start + probeTimeout;
+        for (int i = 0; i < results.size(); i++) {
+            Endpoint<T> endpoint = endpoints.getEndpoints().get(i);
+            Long latency = null;
+            try {
+                latency = results.get(i).get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                results.get(i).cancel(true);
+                LOG.debug("{} probe timed out on {}", name, endpoint);
+            } catch (ExecutionException e) {
+                LOG.debug("{} probe failed on {}", name, endpoint, e.getCause());
+            } catch (InterruptedException e) {
+                // shutting down, outcome unknown
+                Thread.currentThread().interrupt();
+                for (Future<Long> result : results) {
+                    result.cancel(true);
+                }
+                return available;
+            }
+            boolean success = (latency != null);
+            endpoint.record(success, success ? latency : System.currentTimeMillis() - start);
+            available |= success;
+        }
+        return available;
+    }
+
+    private Map<Integer, Boolean> load() {
+        return transactionTemplate.execute(new TransactionCallback<Map<Integer, Boolean>>() {
+            @Override
+            public Map<Integer, Boolean> doInTransaction(TransactionStatus status) {
+                Map<Integer, Boolean> statuses = new HashMap<Integer, Boolean>();
+                for (int id : OperatorKeys.OPERATOR_IDS) {
+                    OperatorStatus operatorStatus = operatorStatusRepository.findById(id);
+                    if (operatorStatus != null) {
+                        statuses.put(id, operatorStatus.getIsAvailable());
+                    }
+                }
+                return Collections.unmodifiableMap(statuses);
+            }
+        });
+    }
+}
@@ -0,0 +1,169 @@
+package com.infotech.isg.service.impl;
+
+import com.infotech.isg.service.OperatorTokenManager;
+import com.infotech.isg.service.OperatorNotAvailableException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.stereotype.Service;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * operator token manager implementation.
+ *
+ * tokens used during last ttl are refreshed in background before expiry,
+ * so under steady load requests never wait for a token.
+ *
+ * @author Sevak Gharibian
+ */
+@Service
+public class OperatorTokenManagerImpl implements OperatorTokenManager {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OperatorTokenManagerImpl.class);
+
+    private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<String, Session>();
+
+    // msec before expiry a token is refreshed in background
+    @Value("${isg.token.refreshAhead:10000}")
+    private long refreshAhead = 10000;
+
+    @Override
+    public String getToken(String url, String username, long ttl, TokenSource tokenSource) {
+        if (ttl <= 0) {
+            return tokenSource.fetch();
+        }
+        String key = url + "|" + username;
+        Session session = sessions.get(key);
+        if (session == null) {
+            Session newSession = new Session(key, ttl, tokenSource);
+            session = sessions.putIfAbsent(key, newSession);
+            if (session == null) {
+                session = newSession;
+            }
+        }
+        return session.getToken();
+    }
+
+    @Override
+    public void invalidate(String url, String username, String token) {
+        Session session = sessions.get(url + "|" + username);
+        if (session != null) {
+            session.invalidate(token);
+        }
+    }
+
+    @Override
+    @Scheduled(fixedDelayString = "${isg.token.refreshInterval:1000}")
+    public void refresh() {
+        long now = System.currentTimeMillis();
+        for (Session session : sessions.values()) {
+            CachedToken cached = session.current;
+            if ((cached == null) || (cached.expires - now > refreshAhead)) {
+                continue;
+            }
+            if (cached.lastUsed < cached.fetched) {
+                // not used since fetched, let it expire
+                continue;
+            }
+            try {
+                session.fetch();
+            } catch (RuntimeException e) {
+                LOG.error("error refreshing operator token for: {}", session.key, e);
+            }
+        }
+    }
+
+    private static class CachedToken {
+        private final String token;
+        private final long fetched;
+        private final long expires;
+        private volatile long lastUsed;
+
+        CachedToken(String token, long fetched, long expires) {
+            this.token = token;
+            this.fetched = fetched;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * token of one (url, username), single-flight fetch
+     */
+    private static class Session {
+        private final String key;
+        private final long ttl;
+        private final TokenSource tokenSource;
+        private final AtomicReference<CompletableFuture<CachedToken>> fetching = new AtomicReference<CompletableFuture<CachedToken>>();
+        private volatile CachedToken current;
+
+        Session(String key, long ttl, TokenSource tokenSource) {
+            this.key = key;
+            this.ttl = ttl;
+            this.tokenSource = tokenSource;
+        }
+
+        String getToken() {
+            CachedToken cached = current;
+            long now = System.currentTimeMillis();
+            if ((cached == null) || (cached.expires <= now)) {
+                cached = fetch();
+            }
+            cached.lastUsed = now;
+            return cached.token;
+        }
+
+        void invalidate(String token) {
+            CachedToken cached = current;
+            if ((cached != null) && cached.token.equals(token)) {
+                current = null;
+                LOG.info("operator token invalidated for: {}", key);
+            }
+        }
+
+        CachedToken fetch() {
+            CompletableFuture<CachedToken> future = new CompletableFuture<CachedToken>();
+            if (!fetching.compareAndSet(null, future)) {
+                // another fetch in progress, wait for it
+                CompletableFuture<CachedToken> inProgress = fetching.get();
+                if (inProgress != null) {
+                    return await(inProgress);
+                }
+                return fetch();
+            }
+            try {
+                long now = System.currentTimeMillis();
+                String token = tokenSource.fetch();
+                CachedToken cached = new CachedToken(token, now, now + ttl);
+                current = cached;
+                future.complete(cached);
+                return cached;
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+                throw e;
+            } finally {
+                fetching.set(null);
+            }
+        }
+
+        private CachedToken await(CompletableFuture<CachedToken> future) {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new OperatorNotAvailableException("interrupted waiting for operator token", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new OperatorNotAvailableException(e.getCause());
+            }
+        }
+    }
+}
@@ -1,18 +1,20 @@
 package com.infotech.isg.service.impl;
 
 import com.infotech.isg.service.OperatorService;
+import com.infotech.isg.service.OperatorProxyRegistry;
 import com.infotech.isg.service.OperatorServiceResponse;
 import com.infotech.isg.service.OperatorNotAvailableException;
 import com.infotech.isg.service.OperatorUnknownResponseException;
+import com.infotech.isg.metrics.RequestTrace;
 import com.infotech.isg.proxy.ProxyAccessException;
+import com.infotech.isg.util.EndpointGroup.Endpoint;
 import com.infotech.isg.proxy.rightel.RightelProxy;
-import com.infotech.isg.proxy.rightel.RightelProxyImpl;
 import com.infotech.isg.proxy.rightel.RightelProxySubmitChargeRequestResponse;
 import com.infotech.isg.proxy.rightel.RightelProxyConfirmChargeRequestResponse;
 import com.infotech.isg.domain.ServiceActions;
 
 import org.springframework.stereotype.Service;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -26,23 +28,20 @@ public class RightelOperatorServiceImpl implements OperatorService {
 
     private static final Logger LOG = LoggerFactory.getLogger(RightelOperatorServiceImpl.class);
 
-    @Value("${rightel.url}")
-    private String url;
+    private final OperatorProxyRegistry operatorProxyRegistry;
 
-    @Value("${rightel.username}")
-    private String username;
-
-    @Value("${rightel.password}")
-    private String password;
-
-    @Value("${rightel.namespace}")
-    private String namespace;
+    @Autowired
+    public RightelOperatorServiceImpl(OperatorProxyRegistry operatorProxyRegistry) {
+        this.operatorProxyRegistry = operatorProxyRegistry;
+    }
 
     @Override
     public OperatorServiceResponse topup(String consumer, int amount, long transactionId, String action, 
                                          String customerName, String vendor, String channel, String clientUsername) {
 
-        RightelProxy rightelProxy = new RightelProxyImpl(url, username, password, namespace);
+        // healthiest endpoint, no fail over once selected
+        Endpoint<RightelProxy> endpoint = operatorProxyRegistry.getRightelEndpoints().select();
+        RightelProxy rightelProxy = endpoint.getProxy();
 
         // submit charge request
         int actionCode = 0;
@@ -52,11 +51,15 @@ public class RightelOperatorServiceImpl implements OperatorService {
             default:break;
         }
         RightelProxySubmitChargeRequestResponse submitChargeRequestResponse = null;
+        long start = System.currentTimeMillis();
         try {
             submitChargeRequestResponse = rightelProxy.submitChargeRequest(consumer, amount, actionCode);
         } catch (ProxyAccessException e) {
+            endpoint.record(false, System.currentTimeMillis() - start);
             throw new OperatorNotAvailableException("error in rightel SubmitChargeRequestResponse", e);
         }
+        endpoint.record(true, System.currentTimeMillis() - start);
+        RequestTrace.stage("submitChargeRequest");
 
         if (submitChargeRequestResponse.getErrorCode() != 0) {
             // charge not available, set response
@@ -72,11 +75,15 @@ public class RightelOperatorServiceImpl implements OperatorService {
 
         // confirm charge request
         RightelProxyConfirmChargeRequestResponse confirmChargeRequestResponse = null;
+        start = System.currentTimeMillis();
         try {
             confirmChargeRequestResponse = rightelProxy.confirmChargeRequest(submitChargeRequestResponse.getRequestId(), transactionId);
         } catch (ProxyAccessException e) {
+            endpoint.record(false, System.currentTimeMillis() - start);
             throw new OperatorUnknownResponseException("error in rightel ConfirmChargeRequest", e);
         }
+        endpoint.record(true, System.currentTimeMillis() - start);
+        RequestTrace.stage("confirmChargeRequest");
 
         if (confirmChargeRequestResponse.getErrorCode() != 0) {
             // ambiguous response, should be set for STF
@@ -0,0 +1,248 @@
+package com.infotech.isg.service.impl;
+
+import com.infotech.isg.service.TransactionIndex;
+import com.infotech.isg.util.BloomFilter;
+
+import java.util.Date;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import javax.sql.DataSource;
+import javax.annotation.PostConstruct;
+
+import org.springframework.stereotype.Service;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * bloom filter based transaction index.
+ *
+ * two filter generations are kept, each covering one window, so index
+ * answers for transactions registered during last one to two windows.
+ * with no window, a single generation covers all transactions in DB and
+ * index is complete, i.e. a miss means transaction was never registered.
+ * complete index is verified against recent transactions in DB, if any
+ * is found it has never seen twice, i.e. written by another instance,
+ * index is no more taken as complete.
+ * index is warmed from DB at startup, until then every lookup is a hit
+ * so that DB is always checked.
+ *
+ * @author Sevak Gharibian
+ */
+@Service
+public class TransactionIndexImpl implements TransactionIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TransactionIndexImpl.class);
+
+    private final DataSource dataSource;
+
+    @Value("${isg.txfilter.enabled:false}")
+    private boolean enabled = false;
+
+    // msec covered by each filter generation, zero for all transactions
+    @Value("${isg.txfilter.window:0}")
+    private long window = 0;
+
+    @Value("${isg.txfilter.expectedInsertions:1000000}")
+    private long expectedInsertions = 1000000;
+
+    @Value("${isg.txfilter.fpp:0.01}")
+    private double fpp = 0.01;
+
+    // memory budget for all generations
+    @Value("${isg.txfilter.maxBytes:8388608}")
+    private long maxBytes = 8388608;
+
+    // bank receipt, bank code and client id of transactions registered since given time
+    @Value("${isg.txfilter.warmupQuery:select refnum, bankcode, clientid from info_topup_transactions where trdatetime >= ?}")
+    private String warmupQuery;
+
+    private volatile BloomFilter current;
+    private volatile BloomFilter previous;
+    private volatile long rotateAt;
+    private volatile boolean ready;
+    private volatile boolean foreignWrites;
+    // start of last verification, transactions registered since are verified next time
+    private volatile long verifiedAt;
+    private volatile long lastVerifiedAt;
+    // transactions not seen by index at last verification
+    private Set<String> unseen = new HashSet<String>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong falsePositives = new AtomicLong();
+
+    @Autowired
+    public TransactionIndexImpl(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            LOG.info("transaction index disabled");
+            return;
+        }
+        current = newFilter();
+        if (window > 0) {
+            previous = newFilter();
+            rotateAt = System.currentTimeMillis() + window;
+        } else {
+            // single generation, never rotated
+            rotateAt = Long.MAX_VALUE;
+        }
+        LOG.info("transaction index created: {} bits, {} hashes per generation", current.getBitCount(), current.getHashCount());
+
+        Thread warmer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                warmup();
+            }
+        }, "isg-txindex-warmup");
+        warmer.setDaemon(true);
+        warmer.start();
+    }
+
+    @Override
+    public boolean mightContain(String bankReceipt, String bankCode, int clientId) {
+        if (!ready) {
+            return true;
+        }
+        rotateIfNeeded();
+        String key = key(bankReceipt, bankCode, clientId);
+        BloomFilter previous = this.previous;
+        if (current.mightContain(key) || ((previous != null) && previous.mightContain(key))) {
+            hits.incrementAndGet();
+            return true;
+        }
+        misses.incrementAndGet();
+        return false;
+    }
+
+    @Override
+    public void put(String bankReceipt, String bankCode, int clientId) {
+        if (current == null) {
+            return;
+        }
+        rotateIfNeeded();
+        current.put(key(bankReceipt, bankCode, clientId));
+    }
+
+    @Override
+    public void recordFalsePositive() {
+        falsePositives.incrementAndGet();
+    }
+
+    @Override
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public boolean isComplete() {
+        return ready && (window <= 0) && !foreignWrites;
+    }
+
+    @Override
+    @Scheduled(fixedDelayString = "${isg.txfilter.verifyInterval:10000}")
+    public synchronized void verify() {
+        if (!ready || (window > 0) || foreignWrites) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            final Set<String> missing = new HashSet<String>();
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+            // transactions registered since one run before last, as registration may be committed late
+            jdbcTemplate.query(warmupQuery, new Object[] {new Date(verifiedAt)}, new RowCallbackHandler() {
+                @Override
+                public void processRow(ResultSet rs) throws SQLException {
+                    String key = key(rs.getString(1), rs.getString(2), rs.getInt(3));
+                    if (!current.mightContain(key)) {
+                        missing.add(key);
+                    }
+                }
+            });
+            // missing twice is not a registration being put into index
+            for (String key : missing) {
+                if (unseen.contains(key)) {
+                    foreignWrites = true;
+                    LOG.error("transaction {} registered in DB not seen by index, i.e. by another instance, index no more taken as complete", key);
+                    return;
+                }
+            }
+            unseen = missing;
+            verifiedAt = lastVerifiedAt;
+            lastVerifiedAt = start;
+        } catch (RuntimeException e) {
+            LOG.error("error verifying transaction index, retried next time", e);
+        }
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public long getFalsePositiveCount() {
+        return falsePositives.get();
+    }
+
+    private void warmup() {
+        long start = System.currentTimeMillis();
+        final AtomicLong count = new AtomicLong();
+        try {
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+            jdbcTemplate.setFetchSize(1000);
+            jdbcTemplate.query(warmupQuery, new Object[] {new Date((window > 0) ? start - window : 0L)}, new RowCallbackHandler() {
+                @Override
+                public void processRow(ResultSet rs) throws SQLException {
+                    current.put(key(rs.getString(1), rs.getString(2), rs.getInt(3)));
+                    count.incrementAndGet();
+                }
+            });
+            verifiedAt = start;
+            lastVerifiedAt = start;
+            ready = true;
+            LOG.info("transaction index warmed with {} transactions in {} msec", count.get(), System.currentTimeMillis() - start);
+        } catch (RuntimeException e) {
+            // index never gets ready, DB is checked for all transactions
+            LOG.error("error warming transaction index, index not used", e);
+        }
+    }
+
+    private void rotateIfNeeded() {
+        if (System.currentTimeMillis() < rotateAt) {
+            return;
+        }
+        synchronized (this) {
+            if (System.currentTimeMillis() < rotateAt) {
+                return;
+            }
+            previous = current;
+            current = newFilter();
+            rotateAt = System.currentTimeMillis() + window;
+        }
+    }
+
+    private BloomFilter newFilter() {
+        return new BloomFilter(expectedInsertions, fpp, (window > 0) ? maxBytes / 2 : maxBytes);
+    }
+
+    private static String key(String bankReceipt, String bankCode, int clientId) {
+        return bankReceipt + "|" + bankCode + "|" + clientId;
+    }
+}
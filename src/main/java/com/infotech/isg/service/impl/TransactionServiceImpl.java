@@ -0,0 +1,148 @@
+package com.infotech.isg.service.impl;
+
+import com.infotech.isg.service.TransactionService;
+import com.infotech.isg.service.TransactionIndex;
+import com.infotech.isg.domain.Transaction;
+import com.infotech.isg.repository.TransactionRepository;
+import com.infotech.isg.validation.ErrorCodes;
+
+import java.util.Date;
+import java.util.List;
+import javax.sql.DataSource;
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.TemporalType;
+
+import org.springframework.stereotype.Service;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.annotation.Transactional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * transaction service impl
+ *
+ * in-flight transactions, registered with status -1 and no STF, are set
+ * for STF once older than in-flight timeout, i.e. if process died while
+ * calling operator. in-flight transactions are recovered through JPA,
+ * so only with jpa profiles.
+ *
+ * @author Sevak Gharibian
+ */
+@Service
+public class TransactionServiceImpl implements TransactionService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TransactionServiceImpl.class);
+
+    private static final String RECOVERY_QUERY = "update Transaction t"
+            + " set t.status = :status, t.stf = 1, t.stfResult = 0, t.operatorResponseCode = -1"
+            + " where t.status = -1 and t.stf is null and t.operatorResponseCode is null"
+            + " and t.trDateTime >= :from and t.trDateTime < :to";
+
+    private final TransactionRepository transactionRepository;
+    private final TransactionIndex transactionIndex;
+    private final JdbcTemplate jdbcTemplate;
+    private EntityManager entityManager;
+
+    // msec after which an in-flight transaction is taken as abandoned, well above any operator call deadline
+    @Value("${isg.topup.inFlightTimeout:600000}")
+    private long inFlightTimeout = 600000;
+
+    // msec back in-flight transactions are looked for
+    @Value("${isg.topup.recoveryWindow:86400000}")
+    private long recoveryWindow = 86400000;
+
+    // STF is claimed only if still unresolved, as STF process may resolve it concurrently
+    @Value("${isg.stf.resolveQuery:update info_topup_transactions set stf=?, stfresult=? where id=? and stf=1 and stfresult=0}")
+    private String stfResolveQuery;
+
+    @Autowired
+    public TransactionServiceImpl(TransactionRepository transactionRepository,
+                                  TransactionIndex transactionIndex,
+                                  DataSource dataSource) {
+        this.transactionRepository = transactionRepository;
+        this.transactionIndex = transactionIndex;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    /**
+     * in-flight transactions are recovered if set, i.e. with jpa profiles
+     */
+    @Autowired(required = false)
+    public void setEntityManagerFactory(EntityManagerFactory entityManagerFactory) {
+        this.entityManager = SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory);
+    }
+
+    @PostConstruct
+    public void init() {
+        if (entityManager == null) {
+            LOG.warn("no JPA entity manager, abandoned in-flight transactions not set for STF");
+        }
+    }
+
+    @Override
+    @Transactional
+    public void save(Transaction transaction) {
+        transactionRepository.save(transaction);
+        transactionIndex.put(transaction.getRefNum(), transaction.getBankCode(), transaction.getClientId());
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<Transaction> findByRefNumBankCodeClientId(String refNum, String bankCode, int clientId) {
+        return transactionRepository.findByRefNumBankCodeClientId(refNum, bankCode, clientId);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Transaction findByProviderOperatorTId(int provider, String transactionId) {
+        return transactionRepository.findByProviderOperatorTId(provider, transactionId);
+    }
+
+    @Override
+    @Transactional
+    public boolean resolveStf(Transaction transaction) {
+        if (jdbcTemplate.update(stfResolveQuery, transaction.getStf(), transaction.getStfResult(), transaction.getId()) == 0) {
+            return false;
+        }
+        // claimed, STF process no more touches it
+        transactionRepository.save(transaction);
+        return true;
+    }
+
+    @Override
+    @Transactional
+    public void setForStf(Transaction transaction) {
+        transaction.setStf(1);
+        transaction.setStfResult(0);
+        transaction.setOperatorResponseCode(-1);
+        transactionRepository.save(transaction);
+    }
+
+    @Override
+    @Transactional
+    @Scheduled(fixedDelayString = "${isg.topup.recoveryInterval:60000}")
+    public void recoverInFlight() {
+        if (entityManager == null) {
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            int count = entityManager.createQuery(RECOVERY_QUERY)
+                        .setParameter("status", ErrorCodes.OPERATOR_SERVICE_ERROR_DONOT_REVERSE)
+                        .setParameter("from", new Date(now - recoveryWindow), TemporalType.TIMESTAMP)
+                        .setParameter("to", new Date(now - inFlightTimeout), TemporalType.TIMESTAMP)
+                        .executeUpdate();
+            if (count > 0) {
+                LOG.warn("{} abandoned in-flight transactions set for STF", count);
+            }
+        } catch (RuntimeException e) {
+            LOG.error("error recovering in-flight transactions, retried next time", e);
+        }
+    }
+}
@@ -1,18 +1,19 @@
 package com.infotech.isg.service.impl;
 
 import com.infotech.isg.service.OperatorService;
+import com.infotech.isg.service.OperatorProxyRegistry;
 import com.infotech.isg.service.OperatorServiceResponse;
 import com.infotech.isg.service.OperatorNotAvailableException;
 import com.infotech.isg.service.OperatorUnknownResponseException;
+import com.infotech.isg.metrics.RequestTrace;
 import com.infotech.isg.proxy.ProxyAccessException;
 import com.infotech.isg.proxy.vopay.VopayProxy;
-import com.infotech.isg.proxy.vopay.VopayProxyImpl;
 import com.infotech.isg.proxy.vopay.VopayProxyAccountInfoResponse;
 import com.infotech.isg.proxy.vopay.VopayProxyAvailablePackagesResponse;
 import com.infotech.isg.proxy.vopay.VopayProxyPerformTransactionResponse;
 
 import org.springframework.stereotype.Service;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -26,29 +27,18 @@ public class VopayOperatorServiceImpl implements OperatorService {
 
     private static final Logger LOG = LoggerFactory.getLogger(VopayOperatorServiceImpl.class);
 
-    @Value("${vopay.url}")
-    private String url;
+    private final OperatorProxyRegistry operatorProxyRegistry;
 
-    @Value("${vopay.accountId}")
-    private String accountId;
-
-    @Value("${vopay.agentId}")
-    private String agentId;
-
-    @Value("${vopay.key}")
-    private String key;
-
-    @Value("${vopay.secret}")
-    private String secret;
-
-    @Value("${vopay.authorizedIp}")
-    private String authorizedIp;
+    @Autowired
+    public VopayOperatorServiceImpl(OperatorProxyRegistry operatorProxyRegistry) {
+        this.operatorProxyRegistry = operatorProxyRegistry;
+    }
 
     @Override
     public OperatorServiceResponse topup(String consumer, int amount, long transactionId, String action, 
                                          String customerName, String vendor, String channel, String clientUsername) {
 
-        VopayProxy vopayProxy = new VopayProxyImpl(url, accountId, agentId, key, secret, authorizedIp);
+        VopayProxy vopayProxy = operatorProxyRegistry.getVopayProxy();
 
         // request Vopay to perform charge transaction
         VopayProxyPerformTransactionResponse performTransactionResponse = null;
@@ -57,6 +47,7 @@ public class VopayOperatorServiceImpl implements OperatorService {
         } catch (ProxyAccessException e) {
             throw new OperatorUnknownResponseException("error in vopay perform_transction", e);
         }
+        RequestTrace.stage("performTransaction");
 
         // check perform_transaction response
         if ((performTransactionResponse == null)
@@ -0,0 +1,101 @@
+package com.infotech.isg.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * thread-safe bloom filter for string keys,
+ * lock-free, bits are set with CAS.
+ *
+ * @author Sevak Gharibian
+ */
+public class BloomFilter {
+
+    private static final double LN2 = Math.log(2);
+
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashCount;
+
+    /**
+     * @param expectedInsertions expected number of keys
+     * @param fpp target false positive probability
+     * @param maxBytes memory budget, filter is never larger than this
+     */
+    public BloomFilter(long expectedInsertions, double fpp, long maxBytes) {
+        if ((expectedInsertions <= 0) || (fpp <= 0) || (fpp >= 1) || (maxBytes < 8)) {
+            throw new IllegalArgumentException("invalid bloom filter params");
+        }
+        long optimalBits = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (LN2 * LN2));
+        long words = Math.min((optimalBits + 63) / 64, maxBytes / 8);
+        if (words > Integer.MAX_VALUE) {
+            words = Integer.MAX_VALUE;
+        }
+        this.bits = new AtomicLongArray((int) Math.max(1, words));
+        this.bitCount = this.bits.length() * 64L;
+        this.hashCount = (int) Math.max(1, Math.round((double) bitCount / expectedInsertions * LN2));
+    }
+
+    public void put(String key) {
+        long hash = hash64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long index = indexOf(h1 + (i * h2));
+            int word = (int) (index >>> 6);
+            long mask = 1L << index;
+            while (true) {
+                long value = bits.get(word);
+                if (((value & mask) != 0) || bits.compareAndSet(word, value, value | mask)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    public boolean mightContain(String key) {
+        long hash = hash64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long index = indexOf(h1 + (i * h2));
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getBitCount() {
+        return bitCount;
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    private long indexOf(int combinedHash) {
+        if (combinedHash < 0) {
+            combinedHash = ~combinedHash;
+        }
+        return combinedHash % bitCount;
+    }
+
+    /**
+     * 64-bit FNV-1a followed by murmur3 finalizer
+     */
+    private static long hash64(String key) {
+        byte[] data = key.getBytes(StandardCharsets.UTF_8);
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : data) {
+            hash ^= (b & 0xff);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
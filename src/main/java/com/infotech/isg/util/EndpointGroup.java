@@ -0,0 +1,186 @@
+package com.infotech.isg.util;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * group of equivalent operator endpoints with live health scores.
+ *
+ * each endpoint keeps error rate (exponentially weighted) and p95 latency
+ * of its last calls. requests go to the healthiest endpoint, an endpoint
+ * failing consecutively is skipped for a cool down period unless all are.
+ *
+ * @author Sevak Gharibian
+ */
+public class EndpointGroup<T> {
+
+    private static final int MAX_CONSECUTIVE_FAILURES = 3;
+
+    private final String name;
+    private final List<Endpoint<T>> endpoints;
+    private final long coolDown;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * @param coolDown msec a failing endpoint is skipped
+     */
+    public EndpointGroup(String name, List<Endpoint<T>> endpoints, long coolDown) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("no endpoint for: " + name);
+        }
+        this.name = name;
+        this.endpoints = Collections.unmodifiableList(new ArrayList<Endpoint<T>>(endpoints));
+        this.coolDown = coolDown;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<Endpoint<T>> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * healthiest endpoint
+     */
+    public Endpoint<T> select() {
+        return ordered().get(0);
+    }
+
+    /**
+     * endpoints ordered healthiest first, to fail over in order
+     */
+    public List<Endpoint<T>> ordered() {
+        final long now = System.currentTimeMillis();
+        // rotate first, so equally healthy endpoints share load
+        int size = endpoints.size();
+        int start = (next.getAndIncrement() & Integer.MAX_VALUE) % size;
+        List<Endpoint<T>> result = new ArrayList<Endpoint<T>>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(endpoints.get((start + i) % size));
+        }
+        if (size > 1) {
+            // stable sort, keeps rotation among equal scores
+            Collections.sort(result, new Comparator<Endpoint<T>>() {
+                @Override
+                public int compare(Endpoint<T> a, Endpoint<T> b) {
+                    return Double.compare(a.score(now, coolDown), b.score(now, coolDown));
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * builds proxy of an endpoint
+     */
+    public interface ProxyFactory<T> {
+        public T create();
+    }
+
+    /**
+     * one endpoint, its proxies and health.
+     *
+     * operator proxies are not known to be safe to share between threads,
+     * so each calling thread gets its own proxy, created on first use.
+     * calls run on bounded executor threads, so proxies are bounded too.
+     */
+    public static class Endpoint<T> {
+
+        private static final int SAMPLES = 128;
+        private static final double ALPHA = 0.1;
+
+        private final String name;
+        private final String url;
+        private final String username;
+        private final ThreadLocal<T> proxy;
+
+        private final long[] latencies = new long[SAMPLES];
+        private int sampleCount;
+        private volatile long p95;
+        private volatile double errorRate;
+        private volatile int consecutiveFailures;
+        private volatile long lastFailure;
+
+        public Endpoint(String name, String url, String username, final ProxyFactory<T> factory) {
+            this.name = name;
+            this.url = url;
+            this.username = username;
+            this.proxy = new ThreadLocal<T>() {
+                @Override
+                protected T initialValue() {
+                    return factory.create();
+                }
+            };
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        /**
+         * proxy of calling thread
+         */
+        public T getProxy() {
+            return proxy.get();
+        }
+
+        public long getP95() {
+            return p95;
+        }
+
+        public double getErrorRate() {
+            return errorRate;
+        }
+
+        /**
+         * records outcome of a call to this endpoint
+         */
+        public synchronized void record(boolean success, long latency) {
+            latencies[sampleCount % SAMPLES] = latency;
+            sampleCount++;
+            if ((sampleCount % 8 == 0) || (sampleCount < SAMPLES)) {
+                long[] sorted = Arrays.copyOf(latencies, Math.min(sampleCount, SAMPLES));
+                Arrays.sort(sorted);
+                p95 = sorted[(int) Math.ceil(sorted.length * 0.95) - 1];
+            }
+            errorRate = (1 - ALPHA) * errorRate + ALPHA * (success ? 0 : 1);
+            if (success) {
+                consecutiveFailures = 0;
+            } else {
+                consecutiveFailures++;
+                lastFailure = System.currentTimeMillis();
+            }
+        }
+
+        /**
+         * lower is healthier
+         */
+        double score(long now, long coolDown) {
+            double score = (p95 + 1) * (1 + 10 * errorRate);
+            if ((consecutiveFailures >= MAX_CONSECUTIVE_FAILURES) && (now - lastFailure < coolDown)) {
+                // down, used only if all endpoints are down
+                score += 1e12;
+            }
+            return score;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[url=%s, p95=%d, errorRate=%.3f]", name, url, p95, errorRate);
+        }
+    }
+}
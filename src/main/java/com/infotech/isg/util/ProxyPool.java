@@ -0,0 +1,90 @@
+package com.infotech.isg.util;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * bounded pool of idle proxies of one route.
+ *
+ * borrow takes most recently released proxy, so its keep-alive connection
+ * is most likely still open, or builds a new one if none idle. at most
+ * maxIdle proxies are kept, proxies idle longer than idleTimeout are evicted.
+ * a proxy failed in a call should not be released, so it is dropped.
+ *
+ * @author Sevak Gharibian
+ */
+public class ProxyPool<T> {
+
+    private final EndpointGroup.ProxyFactory<T> factory;
+    private final int maxIdle;
+    private final long idleTimeout;
+    private final ConcurrentLinkedDeque<Idle<T>> idle = new ConcurrentLinkedDeque<Idle<T>>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    /**
+     * @param idleTimeout msec an unused proxy is kept
+     */
+    public ProxyPool(EndpointGroup.ProxyFactory<T> factory, int maxIdle, long idleTimeout) {
+        if (maxIdle < 1) {
+            throw new IllegalArgumentException("invalid proxy pool size: " + maxIdle);
+        }
+        this.factory = factory;
+        this.maxIdle = maxIdle;
+        this.idleTimeout = idleTimeout;
+    }
+
+    public T borrow() {
+        long now = System.currentTimeMillis();
+        Idle<T> entry;
+        while ((entry = idle.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            if (now - entry.since < idleTimeout) {
+                return entry.proxy;
+            }
+            // most recent expired, so are all older ones
+            evict(now);
+        }
+        return factory.create();
+    }
+
+    public void release(T proxy) {
+        if (idleCount.incrementAndGet() > maxIdle) {
+            // pool full, drop
+            idleCount.decrementAndGet();
+            return;
+        }
+        idle.offerFirst(new Idle<T>(proxy, System.currentTimeMillis()));
+    }
+
+    /**
+     * drops proxies idle longer than idle timeout
+     */
+    public void evict(long now) {
+        Iterator<Idle<T>> iterator = idle.descendingIterator();
+        while (iterator.hasNext()) {
+            Idle<T> entry = iterator.next();
+            if (now - entry.since < idleTimeout) {
+                // newer ones are not expired either
+                return;
+            }
+            if (idle.removeLastOccurrence(entry)) {
+                idleCount.decrementAndGet();
+            }
+        }
+    }
+
+    public int getIdleCount() {
+        return idleCount.get();
+    }
+
+    private static class Idle<T> {
+        private final T proxy;
+        private final long since;
+
+        Idle(T proxy, long since) {
+            this.proxy = proxy;
+            this.since = since;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.infotech.isg.util;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * lock-free bounded ring buffer, many producers and a single consumer.
+ *
+ * each slot has a sequence telling whether it is free for producer at
+ * a position or published for consumer, producers claim positions by CAS.
+ * offer never blocks, it fails when buffer is full.
+ *
+ * @author Sevak Gharibian
+ */
+public class RingBuffer<T> {
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<T> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * @param capacity rounded up to power of two, at least 2, as with a
+     *        single slot its free and published sequences would be the same
+     */
+    public RingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("invalid ring buffer capacity: " + capacity);
+        }
+        this.capacity = Math.max(2, Integer.highestOneBit(capacity - 1) << 1);
+        this.mask = this.capacity - 1;
+        this.slots = new AtomicReferenceArray<T>(this.capacity);
+        this.sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @return false if buffer is full
+     */
+    public boolean offer(T item) {
+        long position;
+        int index;
+        while (true) {
+            position = tail.get();
+            index = (int) position & mask;
+            long sequence = sequences.get(index);
+            if (sequence < position) {
+                return false;
+            }
+            if ((sequence == position) && tail.compareAndSet(position, position + 1)) {
+                break;
+            }
+        }
+        slots.lazySet(index, item);
+        sequences.lazySet(index, position + 1);
+        return true;
+    }
+
+    /**
+     * moves up to max published items into collection, single consumer only
+     *
+     * @return items moved
+     */
+    public int drainTo(Collection<? super T> collection, int max) {
+        long position = head.get();
+        int count = 0;
+        while (count < max) {
+            int index = (int) position & mask;
+            if (sequences.get(index) != position + 1) {
+                break;
+            }
+            collection.add(slots.get(index));
+            slots.lazySet(index, null);
+            sequences.lazySet(index, position + capacity);
+            position++;
+            count++;
+        }
+        head.lazySet(position);
+        return count;
+    }
+
+    public int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
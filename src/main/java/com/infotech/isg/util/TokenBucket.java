@@ -0,0 +1,72 @@
+package com.infotech.isg.util;
+
+/**
+ * thread-safe token bucket, refilled at a fixed rate up to burst tokens.
+ * a permit may be reserved ahead of time, caller waits until it is due.
+ *
+ * @author Sevak Gharibian
+ */
+public class TokenBucket {
+
+    private final double rate;
+    private final double burst;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param rate permits per second
+     * @param burst max permits taken at once
+     */
+    public TokenBucket(double rate, double burst) {
+        if ((rate <= 0) || (burst < 1)) {
+            throw new IllegalArgumentException("invalid token bucket params");
+        }
+        this.rate = rate;
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * reserves a permit if available within maxWait
+     *
+     * @return msec to wait before using the permit, -1 if not reserved
+     */
+    public synchronized long reserve(long maxWait) {
+        refill();
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        long wait = (long) Math.ceil((1 - tokens) * 1000 / rate);
+        if (wait > maxWait) {
+            return -1;
+        }
+        tokens -= 1;
+        return wait;
+    }
+
+    /**
+     * takes a permit only if available now
+     */
+    public boolean tryAcquire() {
+        return reserve(0) == 0;
+    }
+
+    /**
+     * gives back a reserved permit not used
+     */
+    public synchronized void cancel() {
+        tokens = Math.min(burst, tokens + 1);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefill) * rate / 1e9);
+        lastRefill = now;
+    }
+}
@@ -37,6 +37,7 @@ public class ErrorCodes {
     public static final int STF_RESOLVED_FAILED = -28;
     public static final int STF_RESOLVED_SUCCESSFUL = -29;
     public static final int INVALID_TRANSACTION_ID = -30;
+    public static final int CLIENT_RATE_LIMIT_EXCEEDED = -31;
 
     public static String toString(int errorCode) {
         switch (errorCode) {
@@ -70,6 +71,7 @@ public class ErrorCodes {
             case OPERATOR_SERVICE_ERROR: return "OPERATOR_SERVICE_ERROR";
             case STF_RESOLVED_FAILED: return "STF_RESOLVED_FAILED";
             case STF_RESOLVED_SUCCESSFUL: return "STF_RESOLVED_SUCCESSFUL";
+            case CLIENT_RATE_LIMIT_EXCEEDED: return "CLIENT_RATE_LIMIT_EXCEEDED";
             default: return "";
         }
     }
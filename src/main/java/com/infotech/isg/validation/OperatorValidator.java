@@ -7,4 +7,5 @@ package com.infotech.isg.validation;
  */
 public interface OperatorValidator {
     public int validate(int operatorId);
+    public void reload();
 }
@@ -7,4 +7,5 @@ package com.infotech.isg.validation;
  */
 public interface PaymentChannelValidator {
     public int validate(String channelId);
+    public void reload();
 }
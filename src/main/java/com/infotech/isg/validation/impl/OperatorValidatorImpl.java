@@ -5,36 +5,101 @@ import com.infotech.isg.domain.Operator;
 import com.infotech.isg.repository.OperatorRepository;
 import com.infotech.isg.validation.ErrorCodes;
 
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Collections;
+
 import org.springframework.stereotype.Component;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * validator for service provider opertor.
  *
+ * validates against an immutable snapshot of validation results per operator id.
+ * operators are loaded from repository into snapshot on first use (copy on write),
+ * whole snapshot is reloaded periodically and swapped atomically.
+ *
  * @author Sevak Gharibian
  */
 @Component("OperatorValidator")
 public class OperatorValidatorImpl implements OperatorValidator {
 
+    private static final Logger LOG = LoggerFactory.getLogger(OperatorValidatorImpl.class);
+
     private final OperatorRepository operatorRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    // validation result per operator id
+    private volatile Map<Integer, Integer> snapshot = Collections.<Integer, Integer>emptyMap();
 
     @Autowired
-    public OperatorValidatorImpl(OperatorRepository operatorRepository) {
+    public OperatorValidatorImpl(OperatorRepository operatorRepository,
+                                 PlatformTransactionManager transactionManager) {
         this.operatorRepository = operatorRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
     }
 
     @Override
-    @Transactional(readOnly = true)
     public int validate(int operatorId) {
-        Operator operator = operatorRepository.findById(operatorId);
-        if (operator == null) {
-            return ErrorCodes.INVALID_OPERATOR;
+        Integer code = snapshot.get(operatorId);
+        if (code != null) {
+            return code;
         }
-        if (!operator.getIsActive()) {
-            return ErrorCodes.DISABLED_OPERATOR;
+
+        // not seen before, operator ids are fixed by services so snapshot stays small
+        code = load(operatorId);
+        synchronized (this) {
+            Map<Integer, Integer> operators = new HashMap<Integer, Integer>(snapshot);
+            operators.put(operatorId, code);
+            snapshot = Collections.unmodifiableMap(operators);
         }
-        return ErrorCodes.OK;
+        return code;
+    }
+
+    @Override
+    @Scheduled(fixedDelayString = "${isg.refdata.refreshInterval:60000}")
+    public void reload() {
+        try {
+            Map<Integer, Integer> operators = new HashMap<Integer, Integer>();
+            for (Integer operatorId : snapshot.keySet()) {
+                operators.put(operatorId, load(operatorId));
+            }
+            synchronized (this) {
+                // keep operators added during reload
+                for (Map.Entry<Integer, Integer> entry : snapshot.entrySet()) {
+                    if (!operators.containsKey(entry.getKey())) {
+                        operators.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                snapshot = Collections.unmodifiableMap(operators);
+            }
+        } catch (RuntimeException e) {
+            // keep the last snapshot
+            LOG.error("error reloading operators, last snapshot kept", e);
+        }
+    }
+
+    private int load(final int operatorId) {
+        return transactionTemplate.execute(new TransactionCallback<Integer>() {
+            @Override
+            public Integer doInTransaction(TransactionStatus status) {
+                Operator operator = operatorRepository.findById(operatorId);
+                if (operator == null) {
+                    return ErrorCodes.INVALID_OPERATOR;
+                }
+                if (!operator.getIsActive()) {
+                    return ErrorCodes.DISABLED_OPERATOR;
+                }
+                return ErrorCodes.OK;
+            }
+        });
     }
 }
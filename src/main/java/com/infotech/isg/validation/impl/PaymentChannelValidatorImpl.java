@@ -5,29 +5,105 @@ import com.infotech.isg.domain.PaymentChannel;
 import com.infotech.isg.repository.PaymentChannelRepository;
 import com.infotech.isg.validation.ErrorCodes;
 
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Collections;
+
 import org.springframework.stereotype.Component;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * validator for payment channels.
  *
+ * validates against an immutable snapshot of validation results per channel id.
+ * channels are added to snapshot on first use (copy on write), whole snapshot
+ * is reloaded periodically and swapped atomically.
+ *
  * @author Sevak Gharibian
  */
 @Component("PaymentChannelValidator")
 public class PaymentChannelValidatorImpl implements PaymentChannelValidator {
 
+    private static final Logger LOG = LoggerFactory.getLogger(PaymentChannelValidatorImpl.class);
+
     private final PaymentChannelRepository paymentChannelRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    // validation result per channel id
+    private volatile Map<String, Integer> snapshot = Collections.<String, Integer>emptyMap();
+
+    @Value("${isg.refdata.maxChannels:1000}")
+    private int maxChannels = 1000;
 
     @Autowired
-    public PaymentChannelValidatorImpl(PaymentChannelRepository paymentChannelRepository) {
+    public PaymentChannelValidatorImpl(PaymentChannelRepository paymentChannelRepository,
+                                       PlatformTransactionManager transactionManager) {
         this.paymentChannelRepository = paymentChannelRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
     }
 
     @Override
-    @Transactional(readOnly = true)
     public int validate(String channelId) {
+        Integer code = snapshot.get(channelId);
+        if (code != null) {
+            return code;
+        }
+
+        // not seen before
+        code = load(channelId);
+        synchronized (this) {
+            // unknown channels are cached up to a limit, request validation runs before authentication
+            if ((code != ErrorCodes.INVALID_PAYMENT_CHANNEL) || (snapshot.size() < maxChannels)) {
+                Map<String, Integer> channels = new HashMap<String, Integer>(snapshot);
+                channels.put(channelId, code);
+                snapshot = Collections.unmodifiableMap(channels);
+            }
+        }
+        return code;
+    }
+
+    @Override
+    @Scheduled(fixedDelayString = "${isg.refdata.refreshInterval:60000}")
+    public void reload() {
+        try {
+            Map<String, Integer> channels = new HashMap<String, Integer>();
+            for (String channelId : snapshot.keySet()) {
+                channels.put(channelId, load(channelId));
+            }
+            synchronized (this) {
+                // keep channels added during reload
+                for (Map.Entry<String, Integer> entry : snapshot.entrySet()) {
+                    if (!channels.containsKey(entry.getKey())) {
+                        channels.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                snapshot = Collections.unmodifiableMap(channels);
+            }
+        } catch (RuntimeException e) {
+            // keep the last snapshot
+            LOG.error("error reloading payment channels, last snapshot kept", e);
+        }
+    }
+
+    private int load(final String channelId) {
+        return transactionTemplate.execute(new TransactionCallback<Integer>() {
+            @Override
+            public Integer doInTransaction(TransactionStatus status) {
+                return doLoad(channelId);
+            }
+        });
+    }
+
+    private int doLoad(String channelId) {
         PaymentChannel channel = paymentChannelRepository.findById(channelId);
         if (channel == null) {
             return ErrorCodes.INVALID_PAYMENT_CHANNEL;
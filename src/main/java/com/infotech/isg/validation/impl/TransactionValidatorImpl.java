@@ -2,7 +2,8 @@ package com.infotech.isg.validation.impl;
 
 import com.infotech.isg.validation.TransactionValidator;
 import com.infotech.isg.domain.Transaction;
-import com.infotech.isg.repository.TransactionRepository;
+import com.infotech.isg.service.TransactionService;
+import com.infotech.isg.service.TransactionIndex;
 import com.infotech.isg.validation.ErrorCodes;
 
 import java.util.List;
@@ -10,30 +11,51 @@ import java.util.List;
 import org.springframework.stereotype.Component;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.transaction.annotation.Transactional;
 
 /**
  * validator for request transaction.
+ * transaction index, if any, is checked first and DB is not queried
+ * if complete index has never seen transaction, i.e. older or other
+ * instances' transactions are always looked up in DB.
+ * DB is accessed through transaction service, each call in its own DB transaction.
  *
  * @author Sevak Gharibian
  */
 @Component("TransactionValidator")
 public class TransactionValidatorImpl implements TransactionValidator {
 
-    private final TransactionRepository transactionRepository;
+    private final TransactionService transactionService;
+    private final TransactionIndex transactionIndex;
+
+    public TransactionValidatorImpl(TransactionService transactionService) {
+        this(transactionService, null);
+    }
 
     @Autowired
-    public TransactionValidatorImpl(TransactionRepository transactionRepository) {
-        this.transactionRepository = transactionRepository;
+    public TransactionValidatorImpl(TransactionService transactionService,
+                                    TransactionIndex transactionIndex) {
+        this.transactionService = transactionService;
+        this.transactionIndex = transactionIndex;
     }
 
     @Override
-    @Transactional(readOnly = true)
     public int validate(String bankReceipt, String bankCode, int clientId,
                         String orderId, int operatorId, int amount,
                         String channelId, String consumer, String customerIp) {
 
-        List<Transaction> transactions = transactionRepository.findByRefNumBankCodeClientId(bankReceipt, bankCode, clientId);
+        boolean indexed = true;
+        if (transactionIndex != null) {
+            indexed = transactionIndex.mightContain(bankReceipt, bankCode, clientId);
+            if (!indexed && transactionIndex.isComplete()) {
+                // certainly not tried before
+                return ErrorCodes.OK;
+            }
+        }
+
+        List<Transaction> transactions = transactionService.findByRefNumBankCodeClientId(bankReceipt, bankCode, clientId);
+        if (indexed && (transactionIndex != null) && transactionIndex.isReady() && transactions.isEmpty()) {
+            transactionIndex.recordFalsePositive();
+        }
         for (Transaction transaction : transactions) {
 
             if (!((transaction.getProvider() == operatorId)
@@ -46,6 +68,12 @@ public class TransactionValidatorImpl implements TransactionValidator {
                 return ErrorCodes.DOUBLE_SPENDING_TRANSACTION;
             }
 
+            if ((transaction.getStf() == null) && (transaction.getStatus() == -1)
+                && (transaction.getOperatorResponseCode() == null)) {
+                // in-flight, operator outcome not known yet
+                return ErrorCodes.OPERATOR_SERVICE_ERROR_DONOT_REVERSE;
+            }
+
             if (transaction.getStf() == null) {
                 // not set for STF, means already handled
                 return ErrorCodes.REPETITIVE_TRANSACTION;
@@ -68,10 +96,7 @@ public class TransactionValidatorImpl implements TransactionValidator {
 
             // invalid STF value
             // set for STF to try again
-            transaction.setStf(1);
-            transaction.setStfResult(0);
-            transaction.setOperatorResponseCode(-1);
-            transactionRepository.save(transaction);
+            transactionService.setForStf(transaction);
             return ErrorCodes.OPERATOR_SERVICE_ERROR_DONOT_REVERSE;
         }
 
@@ -0,0 +1,135 @@
+package com.infotech.isg.ws;
+
+import com.infotech.isg.service.AccessControl;
+import com.infotech.isg.util.TokenBucket;
+
+import java.util.Set;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import javax.annotation.PostConstruct;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.stereotype.Component;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * early reject filter ahead of JAX-WS servlet, registered by DelegatingFilterProxy.
+ *
+ * requests from addresses not belonging to any client, or over the global
+ * rate isg.ipfilter.tps, get a prebuilt SOAP fault, without parsing SOAP.
+ * allowlist is built from IPs of all clients, loaded by access control,
+ * and reloaded periodically, exact client/IP check is still done by access control.
+ *
+ * @author Sevak Gharibian
+ */
+@Component("ISGRequestFilter")
+public class ISGRequestFilter implements Filter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ISGRequestFilter.class);
+
+    private static final String FAULT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                                        + "<S:Envelope xmlns:S=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+                                        + "<S:Body><S:Fault><faultcode>S:%s</faultcode><faultstring>%s</faultstring></S:Fault></S:Body>"
+                                        + "</S:Envelope>";
+    private static final byte[] IP_FAULT = String.format(FAULT, "Client", "access denied").getBytes(StandardCharsets.UTF_8);
+    private static final byte[] RATE_FAULT = String.format(FAULT, "Server", "server busy").getBytes(StandardCharsets.UTF_8);
+
+    private final AccessControl accessControl;
+
+    @Value("${isg.ipfilter.enabled:false}")
+    private boolean enabled = false;
+
+    @Value("${isg.ipfilter.tps:0}")
+    private double tps = 0;
+
+    private volatile Set<String> allowlist;
+    private TokenBucket bucket;
+    private final AtomicLong rejected = new AtomicLong();
+
+    @Autowired
+    public ISGRequestFilter(AccessControl accessControl) {
+        this.accessControl = accessControl;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (tps > 0) {
+            bucket = new TokenBucket(tps, tps);
+        }
+        if (enabled) {
+            reload();
+        }
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if (enabled) {
+            Set<String> ips = allowlist;
+            if ((ips != null) && !ips.contains(request.getRemoteAddr())) {
+                reject(response, IP_FAULT, "not allowed address: " + request.getRemoteAddr());
+                return;
+            }
+        }
+        if ((bucket != null) && !bucket.tryAcquire()) {
+            reject(response, RATE_FAULT, "global rate " + tps + " reached");
+            return;
+        }
+        chain.doFilter(request, response);
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * reloads allowlist from client IPs, last allowlist kept on error
+     */
+    @Scheduled(fixedDelayString = "${isg.ipfilter.refreshInterval:60000}")
+    public void reload() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Set<String> ips = accessControl.getClientIps();
+            if (ips == null) {
+                LOG.error("clients can not be listed, IP allowlist not reloaded");
+                return;
+            }
+            allowlist = Collections.unmodifiableSet(ips);
+        } catch (RuntimeException e) {
+            LOG.error("error reloading IP allowlist, last allowlist kept", e);
+        }
+    }
+
+    private void reject(ServletResponse response, byte[] fault, String reason) throws IOException {
+        long count = rejected.incrementAndGet();
+        if ((count == 1) || (count % 1000 == 0)) {
+            LOG.warn("request rejected, {}, {} requests rejected so far", reason, count);
+        }
+        HttpServletResponse httpResponse = (HttpServletResponse) response;
+        httpResponse.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        httpResponse.setContentType("text/xml; charset=utf-8");
+        httpResponse.setContentLength(fault.length);
+        httpResponse.getOutputStream().write(fault);
+    }
+}
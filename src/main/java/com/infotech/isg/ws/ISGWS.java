@@ -3,8 +3,9 @@ package com.infotech.isg.ws;
 import com.infotech.isg.service.ISGService;
 import com.infotech.isg.service.ISGServiceResponse;
 import com.infotech.isg.service.BalanceService;
-import com.infotech.isg.domain.Balance;
 import com.infotech.isg.validation.ErrorCodes;
+import com.infotech.isg.metrics.RequestTrace;
+import com.infotech.isg.metrics.RequestTracer;
 
 import javax.jws.WebService;
 import javax.jws.WebMethod;
@@ -28,6 +29,8 @@ import org.slf4j.LoggerFactory;
 /**
  * publishes ISG service endpoint through XML Web service.
  *
+ * topup requests are traced if sampled by request tracer.
+ *
  * @author Sevak Gharibian
  */
 @WebService(name = "ISGWS", targetNamespace = "urn:TopUpWSDL")
@@ -47,6 +50,7 @@ public class ISGWS {
     private final ISGService vopayService;
     private final ISGService mciPinLessService;
     private final BalanceService balanceService;
+    private final RequestTracer requestTracer;
 
     /**
     * gets client remote IP through web service context
@@ -57,6 +61,24 @@ public class ISGWS {
         return request.getRemoteAddr();
     }
 
+    /**
+    * pin is consumed only if recharge was sent to operator and did not
+    * definitely fail, ambiguous results keep the pin to avoid overselling.
+    * internal errors keep it too, as they may happen after recharge is sent.
+    */
+    private boolean isMCIPinConsumed(ISGServiceResponse response) {
+        if ((response == null)
+            || (response.getStatus().equals("ERROR") && (response.getISGDoc() == ErrorCodes.INTERNAL_SYSTEM_ERROR))) {
+            return true;
+        }
+        if (!response.isSentToOperator()) {
+            // rejected, replayed or repeated, no recharge sent by this request
+            return false;
+        }
+        return response.getStatus().equals("OK")
+               || (response.getISGDoc() == ErrorCodes.OPERATOR_SERVICE_ERROR_DONOT_REVERSE);
+    }
+
     @Autowired
     public ISGWS(@Qualifier("MTNService") ISGService mtnService,
                  @Qualifier("MCIService") ISGService mciService,
@@ -64,7 +86,8 @@ public class ISGWS {
                  @Qualifier("RightelService") ISGService rightelService,
                  @Qualifier("MCIPinLessService") ISGService mciPinLessService,
                  @Qualifier("VopayService") ISGService vopayService,
-                 BalanceService balanceService) {
+                 BalanceService balanceService,
+                 RequestTracer requestTracer) {
         this.mtnService = mtnService;
         this.mciService = mciService;
         this.jiringService = jiringService;
@@ -72,6 +95,7 @@ public class ISGWS {
         this.vopayService = vopayService;
         this.mciPinLessService = mciPinLessService;
         this.balanceService = balanceService;
+        this.requestTracer = requestTracer;
     }
 
     /**
@@ -93,29 +117,35 @@ public class ISGWS {
 
         ISGServiceResponse response = null;
 
-        // custom and temp control for migrating to mci pinless
-        // if MCI account available, give it the priority
-        Balance balance = balanceService.findById(1);
-
-        if (((amount == 10000) && (balance.getMci10000() > 0L)) ||
-            ((amount == 20000) && (balance.getMci20000() > 0L)) ||
-            ((amount == 50000) && (balance.getMci50000() > 0L)) ||
-            ((amount == 100000) && (balance.getMci100000() > 0L)) ||
-            ((amount == 200000) && (balance.getMci200000() > 0L)) ||
-            ((amount == 500000) && (balance.getMci500000() > 0L)) ||
-            ((amount == 1000000) && (balance.getMci1000000() > 0L))) {
-            
-            // balance available in MCI
-            response = mciService.topup(username, password, bankCode, amount, channel,
-                                        state, bankReceipt, orderId, consumer, customerIp,
-                                        getClientIp(), "top-up", "noname", "infotech");
-        } else {
-            // balance not available in MCI, go with pinless
-            response = mciPinLessService.topup(username, password, bankCode, amount, channel,
-                                               state, bankReceipt, orderId, consumer, customerIp,
-                                               getClientIp(), "top-up", "noname", "infotech");
-
-        }   
+        RequestTrace trace = requestTracer.start("MCI");
+        try {
+            // custom and temp control for migrating to mci pinless
+            // if MCI account available, give it the priority
+            if (balanceService.reserveMCI(amount)) {
+                // balance available in MCI, one pin reserved
+                boolean consumed = true;
+                try {
+                    response = mciService.topup(username, password, bankCode, amount, channel,
+                                                state, bankReceipt, orderId, consumer, customerIp,
+                                                getClientIp(), "top-up", "noname", "infotech");
+                    consumed = isMCIPinConsumed(response);
+                } finally {
+                    if (consumed) {
+                        balanceService.commitMCI(amount);
+                    } else {
+                        balanceService.releaseMCI(amount);
+                    }
+                }
+            } else {
+                // balance not available in MCI, go with pinless
+                response = mciPinLessService.topup(username, password, bankCode, amount, channel,
+                                                   state, bankReceipt, orderId, consumer, customerIp,
+                                                   getClientIp(), "top-up", "noname", "infotech");
+
+            }
+        } finally {
+            requestTracer.end(trace);
+        }
 
         return response;
     }
@@ -140,12 +170,15 @@ public class ISGWS {
                                   @WebParam(name = "customerName") String customerName,
                                   @WebParam(name = "vendor") String vendor) {
 
-        ISGServiceResponse response = mtnService.topup(username, password, bankCode, amount, channel,
-                                      state, bankReceipt, orderId, consumer, customerIp,
-                                      getClientIp(), action, customerName, 
-                                      ((vendor == null) || vendor.isEmpty()) ? "infotech" : vendor);
-
-        return response;
+        RequestTrace trace = requestTracer.start("MTN");
+        try {
+            return mtnService.topup(username, password, bankCode, amount, channel,
+                                    state, bankReceipt, orderId, consumer, customerIp,
+                                    getClientIp(), action, customerName,
+                                    ((vendor == null) || vendor.isEmpty()) ? "infotech" : vendor);
+        } finally {
+            requestTracer.end(trace);
+        }
     }
 
     /**
@@ -167,14 +200,17 @@ public class ISGWS {
                                      @WebParam(name = "action") String action, 
                                      @WebParam(name = "customerName") String customerName) {
 
-        ISGServiceResponse response = jiringService.topup(username, password, bankCode, amount, channel,
-                                      state, bankReceipt, orderId, consumer, customerIp,
-                                      getClientIp(),
-                                      ((action == null) || action.isEmpty()) ? "top-up" : action,   // top-up default action 
-                                      ((customerName == null) || customerName.isEmpty()) ? "noname" : customerName, // wallet(sndr) only, temp solution
-                                      "infotech");    
-
-        return response;
+        RequestTrace trace = requestTracer.start("Jiring");
+        try {
+            return jiringService.topup(username, password, bankCode, amount, channel,
+                                       state, bankReceipt, orderId, consumer, customerIp,
+                                       getClientIp(),
+                                       ((action == null) || action.isEmpty()) ? "top-up" : action,   // top-up default action
+                                       ((customerName == null) || customerName.isEmpty()) ? "noname" : customerName, // wallet(sndr) only, temp solution
+                                       "infotech");
+        } finally {
+            requestTracer.end(trace);
+        }
     }
 
     /**
@@ -195,11 +231,14 @@ public class ISGWS {
                                       @WebParam(name = "consumer") String consumer,
                                       @WebParam(name = "customerip") String customerIp) {
 
-        ISGServiceResponse response = rightelService.topup(username, password, bankCode, amount, channel,
-                                      state, bankReceipt, orderId, consumer, customerIp, getClientIp(), 
-                                      ((action == null) || action.isEmpty()) ? "top-up" : action, "noname", "infotech");
-
-        return response;
+        RequestTrace trace = requestTracer.start("Rightel");
+        try {
+            return rightelService.topup(username, password, bankCode, amount, channel,
+                                        state, bankReceipt, orderId, consumer, customerIp, getClientIp(),
+                                        ((action == null) || action.isEmpty()) ? "top-up" : action, "noname", "infotech");
+        } finally {
+            requestTracer.end(trace);
+        }
     }
 
     /**
@@ -220,11 +259,14 @@ public class ISGWS {
                                       @WebParam(name = "consumer") String consumer,
                                       @WebParam(name = "customerip") String customerIp) {
 
-        ISGServiceResponse response = vopayService.topup(username, password, bankCode, amount, channel,
+        RequestTrace trace = requestTracer.start("Vopay");
+        try {
+            return vopayService.topup(username, password, bankCode, amount, channel,
                                       state, bankReceipt, orderId, consumer, customerIp,
                                       getClientIp(), action, "noname", "infotech");
-
-        return response;
+        } finally {
+            requestTracer.end(trace);
+        }
     }
 
     /**
@@ -1,8 +1,18 @@
 package com.infotech.isg.ws;
 
-import com.infotech.isg.proxy.SOAPHelper;
-
 import java.util.Set;
+import java.util.HashSet;
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.text.SimpleDateFormat;
+import javax.annotation.PostConstruct;
 import javax.xml.ws.handler.soap.SOAPMessageContext;
 import javax.xml.ws.handler.soap.SOAPHandler;
 import javax.xml.ws.handler.MessageContext;
@@ -12,11 +22,19 @@ import javax.xml.soap.SOAPException;
 import javax.xml.soap.SOAPMessage;
 
 import org.springframework.stereotype.Service;
+import org.springframework.beans.factory.annotation.Value;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * SOAP message handler for ISG Webservice to log input/output messages.
+ * SOAP message handler for ISG Webservice to capture input/output messages.
+ *
+ * capture is opt-in: when enabled, a sampled fraction of requests, optionally
+ * only of some operations (SOAP action) and clients, is serialized, size
+ * capped and kept with its response in a ring of recent exchanges, dumped
+ * through JMX. credential fields are masked up to their close tag, CDATA
+ * and nested content included, or to the end if message was truncated.
+ * nothing is logged per message.
  *
  * @author Sevak Gharibian
  */
@@ -25,18 +43,65 @@ public class ISGWSHandler implements SOAPHandler<SOAPMessageContext> {
 
     private static final Logger LOG = LoggerFactory.getLogger(ISGWSHandler.class);
 
+    private static final String CAPTURE_PROPERTY = "isg.capture";
+    private static final Pattern USERNAME = Pattern.compile("<(?:[\\w-]+:)?username>([^<]*)<");
+
+    @Value("${isg.capture.enabled:false}")
+    private volatile boolean enabled = false;
+
+    @Value("${isg.capture.sampleRate:0.01}")
+    private volatile double sampleRate = 0.01;
+
+    // comma separated SOAP operations, i.e. MCI,MTN, empty means all
+    @Value("${isg.capture.operations:}")
+    private String operations = "";
+
+    // comma separated client usernames, empty means all
+    @Value("${isg.capture.clients:}")
+    private String clients = "";
+
+    @Value("${isg.capture.maxSize:8192}")
+    private int maxSize = 8192;
+
+    @Value("${isg.capture.bufferSize:256}")
+    private int bufferSize = 256;
+
+    // comma separated elements with masked content
+    @Value("${isg.capture.maskedFields:password}")
+    private String maskedFields = "password";
+
+    private Set<String> operationSet;
+    private Set<String> clientSet;
+    private Pattern masked;
+    private AtomicReferenceArray<Exchange> exchanges;
+    private final AtomicLong sequence = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        operationSet = split(operations);
+        clientSet = split(clients);
+        StringBuilder fields = new StringBuilder();
+        for (String field : split(maskedFields)) {
+            fields.append((fields.length() == 0) ? "" : "|").append(Pattern.quote(field));
+        }
+        // open tag, not self-closing, masked up to close tag of same prefix and name
+        masked = (fields.length() == 0) ? null
+                 : Pattern.compile("(<((?:[\\w-]+:)?)(" + fields + ")(?:\\s[^>]*)?(?<!/)>)(?s:.*?)(</\\2\\3\\s*>|$)");
+        exchanges = new AtomicReferenceArray<Exchange>(Math.max(1, bufferSize));
+    }
+
     @Override
     public boolean handleMessage(SOAPMessageContext context) {
-        if (LOG.isDebugEnabled()) {
-            logMessage(context);
+        if (enabled) {
+            capture(context);
         }
         return true;
     }
 
     @Override
     public boolean handleFault(SOAPMessageContext context) {
-        if (LOG.isDebugEnabled()) {
-            logMessage(context);
+        if (enabled) {
+            capture(context);
         }
         return true;
     }
@@ -50,14 +115,179 @@ public class ISGWSHandler implements SOAPHandler<SOAPMessageContext> {
         return null;
     }
 
-    private void logMessage(SOAPMessageContext context) {
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        LOG.info("message capture {}, sample rate: {}", (enabled) ? "enabled" : "disabled", sampleRate);
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @param sampleRate ratio of requests captured, 0 to 1
+     */
+    public void setSampleRate(double sampleRate) {
+        this.sampleRate = Math.min(1, Math.max(0, sampleRate));
+    }
+
+    /**
+     * @return captured exchanges, newest first
+     */
+    public String dump() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        StringBuilder builder = new StringBuilder();
+        long last = sequence.get();
+        for (long i = last; (i > 0) && (i > last - exchanges.length()); i--) {
+            Exchange exchange = exchanges.get((int) ((i - 1) % exchanges.length()));
+            if (exchange == null) {
+                continue;
+            }
+            builder.append(String.format("%s [%s] %s%n>> %s%n<< %s%n%n", format.format(new Date(exchange.timestamp)),
+                                         exchange.remoteAddress, exchange.operation, exchange.request, exchange.response));
+        }
+        return builder.toString();
+    }
+
+    public void clear() {
+        for (int i = 0; i < exchanges.length(); i++) {
+            exchanges.set(i, null);
+        }
+    }
+
+    private void capture(SOAPMessageContext context) {
         Boolean isResponse = (Boolean) context.get(MessageContext.MESSAGE_OUTBOUND_PROPERTY);
-        HttpServletRequest request = (HttpServletRequest)context.get(MessageContext.SERVLET_REQUEST);
-        SOAPMessage message = context.getMessage();
-        if (isResponse) {
-            LOG.debug("sending to [{}:{}]:{}", request.getRemoteAddr(), request.getRemotePort(), SOAPHelper.toString(message));
-        } else {
-            LOG.debug("received from [{}:{}]:{}", request.getRemoteAddr(), request.getRemotePort(), SOAPHelper.toString(message));
+        if ((isResponse != null) && isResponse) {
+            // response of a captured request only
+            Exchange exchange = (Exchange) context.get(CAPTURE_PROPERTY);
+            if (exchange != null) {
+                exchange.response = serialize(context.getMessage());
+            }
+            return;
+        }
+
+        HttpServletRequest request = (HttpServletRequest) context.get(MessageContext.SERVLET_REQUEST);
+        String operation = operation(request);
+        if (!operationSet.isEmpty() && !operationSet.contains(operation)) {
+            return;
+        }
+        double rate = sampleRate;
+        if ((rate < 1) && (ThreadLocalRandom.current().nextDouble() >= rate)) {
+            return;
+        }
+
+        String message = serialize(context.getMessage());
+        if (!clientSet.isEmpty()) {
+            Matcher matcher = USERNAME.matcher(message);
+            if (!matcher.find() || !clientSet.contains(matcher.group(1).trim())) {
+                return;
+            }
+        }
+
+        Exchange exchange = new Exchange();
+        exchange.timestamp = System.currentTimeMillis();
+        exchange.remoteAddress = (request == null) ? null : request.getRemoteAddr() + ":" + request.getRemotePort();
+        exchange.operation = operation;
+        exchange.request = message;
+        context.put(CAPTURE_PROPERTY, exchange);
+        context.setScope(CAPTURE_PROPERTY, MessageContext.Scope.HANDLER);
+        exchanges.set((int) ((sequence.incrementAndGet() - 1) % exchanges.length()), exchange);
+    }
+
+    /**
+     * SOAP action without namespace, i.e. MCI for urn:TopUpWSDL/MCI
+     */
+    private static String operation(HttpServletRequest request) {
+        String action = (request == null) ? null : request.getHeader("SOAPAction");
+        if (action == null) {
+            return "";
         }
+        action = action.replace("\"", "");
+        return action.substring(action.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * @return message serialized up to max size, credentials masked
+     */
+    private String serialize(SOAPMessage message) {
+        CappedOutputStream out = new CappedOutputStream(maxSize);
+        try {
+            message.writeTo(out);
+        } catch (SOAPException | IOException e) {
+            return "error serializing message: " + e.getMessage();
+        }
+        String text;
+        try {
+            text = out.toString("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            text = out.toString();
+        }
+        if (masked != null) {
+            text = masked.matcher(text).replaceAll("$1****$4");
+        }
+        if (out.getDiscarded() > 0) {
+            text += "...(" + out.getDiscarded() + " bytes truncated)";
+        }
+        return text;
+    }
+
+    private static Set<String> split(String values) {
+        Set<String> set = new HashSet<String>();
+        if (values != null) {
+            for (String value : values.split(",")) {
+                if (!value.trim().isEmpty()) {
+                    set.add(value.trim());
+                }
+            }
+        }
+        return set;
+    }
+
+    /**
+     * keeps first max bytes, discards the rest
+     */
+    private static class CappedOutputStream extends ByteArrayOutputStream {
+        private final int max;
+        private long discarded;
+
+        CappedOutputStream(int max) {
+            super(Math.min(max, 4096));
+            this.max = max;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            if (count < max) {
+                super.write(b);
+            } else {
+                discarded++;
+            }
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            int kept = Math.max(0, Math.min(len, max - count));
+            super.write(b, off, kept);
+            discarded += len - kept;
+        }
+
+        long getDiscarded() {
+            return discarded;
+        }
+    }
+
+    /**
+     * captured request and its response
+     */
+    private static class Exchange {
+        private long timestamp;
+        private String remoteAddress;
+        private String operation;
+        private String request;
+        private volatile String response;
     }
 }
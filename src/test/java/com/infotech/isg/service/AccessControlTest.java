@@ -7,10 +7,23 @@ import com.infotech.isg.validation.ErrorCodes;
 
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
 import org.testng.annotations.Test;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.DataProvider;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Matchers.any;
+import org.mockito.stubbing.Answer;
+import org.mockito.invocation.InvocationOnMock;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 
@@ -75,7 +88,7 @@ public class AccessControlTest {
             }
         };
 
-        accessControl = new AccessControlImpl(clientRepository);
+        accessControl = new AccessControlImpl(clientRepository, mock(PlatformTransactionManager.class));
     }
 
     @DataProvider(name = "provideClients")
@@ -108,4 +121,139 @@ public class AccessControlTest {
         // assert
         assertThat(result, is(errorCode));
     }
+
+    private Client root() {
+        return new Client() {{
+                setId(1);
+                setUsername("root");
+                // pass = SHA512("123456")
+                setPassword("ba3253876aed6bc22d4a6ff53d8406c6ad864195"
+                            + "ed144ab5c87621b6c233b548baeae6956df346"
+                            + "ec8c17f5ea10f35ee3cbc514797ed7ddd31454"
+                            + "64e2a0bab413");
+                addIp("1.1.1.1");
+                setIsActive(true);
+            }
+        };
+    }
+
+    @Test
+    public void shouldReloadClientWhenCacheTtlExpired() throws Exception {
+        // arrange
+        ClientRepository repository = mock(ClientRepository.class);
+        when(repository.findByUsername("root")).thenReturn(root());
+        AccessControlImpl cachedAccessControl = new AccessControlImpl(repository, mock(PlatformTransactionManager.class));
+        ReflectionTestUtils.setField(cachedAccessControl, "cacheTtl", 100L);
+
+        // act
+        int first = cachedAccessControl.authenticate("root", "123456", "1.1.1.1");
+        int cached = cachedAccessControl.authenticate("root", "123456", "1.1.1.1");
+        verify(repository, times(1)).findByUsername("root");
+        Thread.sleep(150);
+        int expired = cachedAccessControl.authenticate("root", "123456", "1.1.1.1");
+
+        // assert
+        assertThat(first, is(ErrorCodes.OK));
+        assertThat(cached, is(ErrorCodes.OK));
+        assertThat(expired, is(ErrorCodes.OK));
+        verify(repository, times(2)).findByUsername("root");
+    }
+
+    @Test
+    public void shouldReloadClientWhenInvalidated() {
+        // arrange
+        ClientRepository repository = mock(ClientRepository.class);
+        Client disabled = root();
+        disabled.setIsActive(false);
+        when(repository.findByUsername("root")).thenReturn(root(), disabled);
+        AccessControlImpl cachedAccessControl = new AccessControlImpl(repository, mock(PlatformTransactionManager.class));
+
+        // act
+        int first = cachedAccessControl.authenticate("root", "123456", "1.1.1.1");
+        // client disabled in DB, cached one still used
+        int cached = cachedAccessControl.authenticate("root", "123456", "1.1.1.1");
+        cachedAccessControl.invalidate("root");
+        int invalidated = cachedAccessControl.authenticate("root", "123456", "1.1.1.1");
+
+        // assert
+        assertThat(first, is(ErrorCodes.OK));
+        assertThat(cached, is(ErrorCodes.OK));
+        assertThat(invalidated, is(ErrorCodes.DISABLED_CLIENT_ACCOUNT));
+        verify(repository, times(2)).findByUsername("root");
+    }
+
+    @Test
+    public void shouldCacheUnknownUsernameForNegativeCacheTtl() throws Exception {
+        // arrange
+        ClientRepository repository = mock(ClientRepository.class);
+        when(repository.findByUsername("root")).thenReturn(null, root());
+        AccessControlImpl cachedAccessControl = new AccessControlImpl(repository, mock(PlatformTransactionManager.class));
+        ReflectionTestUtils.setField(cachedAccessControl, "negativeCacheTtl", 100L);
+
+        // act
+        int first = cachedAccessControl.authenticate("root", "123456", "1.1.1.1");
+        // client added in DB, still unknown until negative cache expires
+        int cached = cachedAccessControl.authenticate("root", "123456", "1.1.1.1");
+        Thread.sleep(150);
+        int expired = cachedAccessControl.authenticate("root", "123456", "1.1.1.1");
+
+        // assert
+        assertThat(first, is(ErrorCodes.INVALID_USERNAME_OR_PASSWORD));
+        assertThat(cached, is(ErrorCodes.INVALID_USERNAME_OR_PASSWORD));
+        assertThat(expired, is(ErrorCodes.OK));
+        verify(repository, times(2)).findByUsername("root");
+    }
+
+    @Test
+    public void shouldNotCacheUnknownUsernamesOverCacheSize() {
+        // arrange
+        ClientRepository repository = mock(ClientRepository.class);
+        AccessControlImpl cachedAccessControl = new AccessControlImpl(repository, mock(PlatformTransactionManager.class));
+        ReflectionTestUtils.setField(cachedAccessControl, "cacheSize", 1);
+
+        // act
+        cachedAccessControl.authenticate("unknown1", "123456", "1.1.1.1");
+        cachedAccessControl.authenticate("unknown2", "123456", "1.1.1.1");
+        cachedAccessControl.authenticate("unknown1", "123456", "1.1.1.1");
+        cachedAccessControl.authenticate("unknown2", "123456", "1.1.1.1");
+
+        // assert
+        verify(repository, times(1)).findByUsername("unknown1");
+        verify(repository, times(2)).findByUsername("unknown2");
+    }
+
+    @Test
+    public void shouldReadClientIpsWithinTransaction() {
+        // arrange
+        final AtomicBoolean committed = new AtomicBoolean();
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                committed.set(true);
+                return null;
+            }
+        }).when(transactionManager).commit(any(TransactionStatus.class));
+        // IPs loaded lazily, not available once transaction is committed
+        Client client = spy(root());
+        when(client.getIps()).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                if (committed.get()) {
+                    throw new IllegalStateException("no session, IPs not loaded");
+                }
+                return invocation.callRealMethod();
+            }
+        });
+        ClientRepository repository = mock(ClientRepository.class);
+        when(repository.findByUsername("root")).thenReturn(client);
+        AccessControlImpl cachedAccessControl = new AccessControlImpl(repository, transactionManager);
+
+        // act
+        int result = cachedAccessControl.authenticate("root", "123456", "1.1.1.1");
+
+        // assert
+        assertThat(result, is(ErrorCodes.OK));
+        assertThat(committed.get(), is(true));
+    }
 }
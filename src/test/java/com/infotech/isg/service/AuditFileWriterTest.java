@@ -0,0 +1,163 @@
+package com.infotech.isg.service;
+
+import com.infotech.isg.domain.Operator;
+import com.infotech.isg.service.impl.AuditFileWriterImpl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.zip.GZIPInputStream;
+
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.AfterMethod;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.containsString;
+
+/**
+ * test cases for audit file writer.
+ *
+ * @author Sevak Gharibian
+ */
+public class AuditFileWriterTest {
+
+    private AuditFileWriterImpl auditFileWriter;
+    private File dir;
+    private File file;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("isg.audit").toFile();
+        file = new File(dir, "isg.audit.log");
+        auditFileWriter = new AuditFileWriterImpl();
+        ReflectionTestUtils.setField(auditFileWriter, "file", file.getPath());
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        for (File child : dir.listFiles()) {
+            child.delete();
+        }
+        dir.delete();
+    }
+
+    private void write(String message) {
+        auditFileWriter.write(new Date(), "top-up", Operator.MCI_ID, "root", "1.1.1.1", "59",
+                              "terminal", "09125067064", "10000", "receipt", "vendor", "OK",
+                              1L, null, message, 10L, null);
+    }
+
+    /**
+     * waits until writer has appended to current file, so next record goes in another batch
+     */
+    private void awaitWritten(long size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((file.length() <= size) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+        }
+        assertThat(file.length() > size, is(true));
+    }
+
+    /**
+     * files in audit dir other than current one
+     */
+    private List<File> rotated(String suffix) {
+        List<File> files = new ArrayList<File>();
+        for (File child : dir.listFiles()) {
+            if (!child.equals(file) && child.getName().endsWith(suffix)) {
+                files.add(child);
+            }
+        }
+        return files;
+    }
+
+    private List<String> readGzip(File gzipped) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(gzipped)), StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    @Test
+    public void shouldEscapeJSONSpecialCharacters() throws Exception {
+        // arrange
+        auditFileWriter.start();
+
+        // act
+        write("quote\" backslash\\ newline\n tab\t control\u0001");
+        auditFileWriter.stop();
+
+        // assert
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertThat(lines.size(), is(1));
+        assertThat(lines.get(0), containsString("\"message\":\"quote\\\" backslash\\\\ newline\\n tab\\t control\\u0001\""));
+        assertThat(lines.get(0), containsString("\"oprDoc\":null"));
+    }
+
+    @Test
+    public void shouldRotateFileWhenMaxSizeReached() throws Exception {
+        // arrange
+        ReflectionTestUtils.setField(auditFileWriter, "maxSize", 1L);
+        ReflectionTestUtils.setField(auditFileWriter, "compress", false);
+        auditFileWriter.start();
+        write("first");
+        awaitWritten(0);
+
+        // act
+        write("second");
+        auditFileWriter.stop();
+
+        // assert
+        List<File> files = rotated("");
+        assertThat(files.size(), is(1));
+        List<String> rotatedLines = Files.readAllLines(files.get(0).toPath(), StandardCharsets.UTF_8);
+        assertThat(rotatedLines.size(), is(1));
+        assertThat(rotatedLines.get(0), containsString("\"message\":\"first\""));
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertThat(lines.size(), is(1));
+        assertThat(lines.get(0), containsString("\"message\":\"second\""));
+    }
+
+    @Test
+    public void shouldGzipRotatedFile() throws Exception {
+        // arrange
+        ReflectionTestUtils.setField(auditFileWriter, "maxSize", 1L);
+        ReflectionTestUtils.setField(auditFileWriter, "compress", true);
+        auditFileWriter.start();
+        write("first");
+        awaitWritten(0);
+
+        // act
+        write("second");
+        auditFileWriter.stop();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (((rotated(".gz").size() == 0) || (rotated("").size() > 1)) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+        }
+
+        // assert
+        List<File> gzipped = rotated(".gz");
+        assertThat(gzipped.size(), is(1));
+        // uncompressed segment deleted
+        assertThat(rotated("").size(), is(1));
+        List<String> lines = readGzip(gzipped.get(0));
+        assertThat(lines.size(), is(1));
+        assertThat(lines.get(0), containsString("\"message\":\"first\""));
+    }
+}
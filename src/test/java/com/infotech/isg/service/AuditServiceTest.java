@@ -0,0 +1,236 @@
+package com.infotech.isg.service;
+
+import com.infotech.isg.service.impl.AuditServiceImpl;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import javax.sql.DataSource;
+
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.AfterMethod;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.times;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import org.mockito.stubbing.Answer;
+import org.mockito.invocation.InvocationOnMock;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * test cases for audit service.
+ *
+ * @author Sevak Gharibian
+ */
+public class AuditServiceTest {
+
+    private AuditServiceImpl auditService;
+    private PreparedStatement statement;
+    private File spillFile;
+
+    // DB writes wait on this, if set
+    private volatile CountDownLatch dbGate;
+    private volatile boolean dbDown;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        DataSource dataSource = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+        DatabaseMetaData metaData = mock(DatabaseMetaData.class);
+        statement = mock(PreparedStatement.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.prepareStatement(anyString())).thenReturn(statement);
+        when(connection.getMetaData()).thenReturn(metaData);
+        when(metaData.supportsBatchUpdates()).thenReturn(true);
+        when(metaData.getDriverName()).thenReturn("mock");
+        when(metaData.getDatabaseProductName()).thenReturn("mock");
+        when(statement.getConnection()).thenReturn(connection);
+        when(statement.executeBatch()).thenAnswer(new Answer<int[]>() {
+            @Override
+            public int[] answer(InvocationOnMock invocation) throws Throwable {
+                if (dbGate != null) {
+                    dbGate.await();
+                }
+                if (dbDown) {
+                    throw new SQLException("db down");
+                }
+                return new int[0];
+            }
+        });
+        dbGate = null;
+        dbDown = false;
+
+        spillFile = File.createTempFile("isg.audit", ".spill");
+        spillFile.delete();
+        auditService = new AuditServiceImpl(dataSource, mock(PlatformTransactionManager.class));
+        ReflectionTestUtils.setField(auditService, "spillFile", spillFile.getPath());
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        spillFile.delete();
+        new File(spillFile.getPath() + ".replay").delete();
+    }
+
+    private void log(String bankReceipt) {
+        auditService.log("root", "054", "10000", "59", "state", bankReceipt, "orderid",
+                         "09125067064", "10.20.120.30", "1.1.1.1", "top-up", 1,
+                         "OK", 1L, null, new Date(), 10L, "vendor");
+    }
+
+    /**
+     * logs a record and waits until writer has taken it and is blocked in DB
+     */
+    private void blockWriter() throws Exception {
+        dbGate = new CountDownLatch(1);
+        log("first");
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((auditService.getQueueSize() > 0) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+        }
+        assertThat(auditService.getQueueSize(), is(0));
+    }
+
+    @Test
+    public void shouldWriteQueuedRecordsOnShutdown() throws Exception {
+        // arrange
+        auditService.start();
+
+        // act
+        for (int i = 0; i < 500; i++) {
+            log("receipt" + i);
+        }
+        auditService.stop();
+
+        // assert
+        verify(statement, times(500)).addBatch();
+        assertThat(auditService.getDroppedCount(), is(0L));
+        assertThat(auditService.getSpilledCount(), is(0L));
+        assertThat(spillFile.exists(), is(false));
+    }
+
+    @Test
+    public void shouldDropRecordWhenQueueFullAndPolicyDrop() throws Exception {
+        // arrange
+        ReflectionTestUtils.setField(auditService, "queueSize", 1);
+        ReflectionTestUtils.setField(auditService, "overflow", "DROP");
+        auditService.start();
+        blockWriter();
+
+        // act
+        log("queued");
+        log("dropped");
+        dbGate.countDown();
+        auditService.stop();
+
+        // assert
+        assertThat(auditService.getDroppedCount(), is(1L));
+        assertThat(auditService.getSpilledCount(), is(0L));
+        verify(statement, times(2)).addBatch();
+    }
+
+    @Test
+    public void shouldSpillRecordWhenQueueFullAndPolicySpill() throws Exception {
+        // arrange
+        ReflectionTestUtils.setField(auditService, "queueSize", 1);
+        ReflectionTestUtils.setField(auditService, "overflow", "SPILL");
+        auditService.start();
+        blockWriter();
+
+        // act
+        log("queued");
+        log("spilled");
+        dbGate.countDown();
+        auditService.stop();
+
+        // assert
+        assertThat(auditService.getDroppedCount(), is(0L));
+        assertThat(auditService.getSpilledCount(), is(1L));
+        List<String> lines = Files.readAllLines(spillFile.toPath());
+        assertThat(lines.size(), is(1));
+        assertThat(lines.get(0).split("\t")[6], is("spilled"));
+        verify(statement, times(2)).addBatch();
+    }
+
+    @Test
+    public void shouldWaitForFreeSpaceWhenQueueFullAndPolicyBlock() throws Exception {
+        // arrange
+        ReflectionTestUtils.setField(auditService, "queueSize", 1);
+        ReflectionTestUtils.setField(auditService, "overflow", "BLOCK");
+        auditService.start();
+        blockWriter();
+        log("queued");
+
+        // act
+        Thread caller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                log("blocked");
+            }
+        });
+        caller.start();
+        caller.join(200);
+        boolean blocked = caller.isAlive();
+        dbGate.countDown();
+        caller.join(5000);
+        auditService.stop();
+
+        // assert
+        assertThat(blocked, is(true));
+        assertThat(caller.isAlive(), is(false));
+        assertThat(auditService.getDroppedCount(), is(0L));
+        assertThat(auditService.getSpilledCount(), is(0L));
+        verify(statement, times(3)).addBatch();
+    }
+
+    @Test
+    public void shouldReplaySpilledRecordsWhenDBAvailable() throws Exception {
+        // arrange
+        dbDown = true;
+        auditService.start();
+        log("receipt\twith tab");
+        auditService.stop();
+        assertThat(auditService.getSpilledCount(), is(1L));
+        dbDown = false;
+
+        // act
+        auditService.replaySpill();
+
+        // assert
+        assertThat(auditService.getReplayedCount(), is(1L));
+        assertThat(spillFile.exists(), is(false));
+        assertThat(new File(spillFile.getPath() + ".replay").exists(), is(false));
+        // set once when DB was down, once replayed
+        verify(statement, times(2)).setString(anyInt(), eq("receipt\twith tab"));
+    }
+
+    @Test
+    public void shouldKeepSpilledRecordsWhenDBStillNotAvailable() throws Exception {
+        // arrange
+        dbDown = true;
+        auditService.start();
+        log("receipt");
+        auditService.stop();
+
+        // act
+        auditService.replaySpill();
+
+        // assert
+        assertThat(auditService.getReplayedCount(), is(0L));
+        assertThat(auditService.getSpilledCount(), is(2L));
+        assertThat(Files.readAllLines(spillFile.toPath()).size(), is(1));
+    }
+}
@@ -0,0 +1,152 @@
+package com.infotech.isg.service;
+
+import com.infotech.isg.domain.Balance;
+import com.infotech.isg.repository.BalanceRepository;
+import com.infotech.isg.service.impl.BalanceServiceImpl;
+
+import org.springframework.transaction.PlatformTransactionManager;
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeMethod;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Matchers.anyInt;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * test cases for MCI pin inventory of balance service.
+ *
+ * @author Sevak Gharibian
+ */
+public class BalanceServiceTest {
+
+    private BalanceRepository balanceRepository;
+    private BalanceService balanceService;
+
+    @BeforeMethod
+    public void setUp() {
+        balanceRepository = mock(BalanceRepository.class);
+        balanceService = new BalanceServiceImpl(balanceRepository, mock(PlatformTransactionManager.class));
+    }
+
+    private void setMCI10000(final long count) {
+        Balance balance = new Balance();
+        balance.setMci10000(count);
+        balance.setMci20000(0L);
+        balance.setMci50000(0L);
+        balance.setMci100000(0L);
+        balance.setMci200000(0L);
+        balance.setMci500000(0L);
+        balance.setMci1000000(0L);
+        when(balanceRepository.findById(anyInt())).thenReturn(balance);
+    }
+
+    private int reserveAll(int amount) {
+        int count = 0;
+        while (balanceService.reserveMCI(amount)) {
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void shouldNotReserveMoreThanDBCount() {
+        // arrange
+        setMCI10000(3L);
+
+        // act
+        int reserved = reserveAll(10000);
+
+        // assert
+        assertThat(reserved, is(3));
+        assertThat(balanceService.reserveMCI(20000), is(false));
+        assertThat(balanceService.reserveMCI(12345), is(false));
+    }
+
+    @Test
+    public void shouldMakeReleasedPinAvailableAgain() {
+        // arrange
+        setMCI10000(1L);
+        balanceService.reserveMCI(10000);
+
+        // act
+        boolean before = balanceService.reserveMCI(10000);
+        balanceService.releaseMCI(10000);
+        boolean after = balanceService.reserveMCI(10000);
+
+        // assert
+        assertThat(before, is(false));
+        assertThat(after, is(true));
+    }
+
+    @Test
+    public void shouldKeepCommittedPinsUnavailableWhenDBCountUnchanged() {
+        // arrange
+        setMCI10000(3L);
+        balanceService.reserveMCI(10000);
+        balanceService.commitMCI(10000);
+
+        // act
+        balanceService.reconcile();
+
+        // assert
+        assertThat(reserveAll(10000), is(2));
+    }
+
+    @Test
+    public void shouldNotOversellWhenRefillDoesNotIncludeCommittedPins() {
+        // arrange
+        setMCI10000(10L);
+        for (int i = 0; i < 3; i++) {
+            balanceService.reserveMCI(10000);
+            balanceService.commitMCI(10000);
+        }
+
+        // act
+        // refilled by 5, committed pins not yet seen in DB
+        setMCI10000(15L);
+        balanceService.reconcile();
+
+        // assert
+        assertThat(reserveAll(10000), is(12));
+    }
+
+    @Test
+    public void shouldRebaseWhenDBCountIncludesCommittedPins() {
+        // arrange
+        setMCI10000(10L);
+        for (int i = 0; i < 3; i++) {
+            balanceService.reserveMCI(10000);
+            balanceService.commitMCI(10000);
+        }
+
+        // act
+        // committed pins seen in DB
+        setMCI10000(7L);
+        balanceService.reconcile();
+        // then refilled by 5
+        setMCI10000(12L);
+        balanceService.reconcile();
+
+        // assert
+        assertThat(reserveAll(10000), is(12));
+    }
+
+    @Test
+    public void shouldKeepInFlightReservationsWhenReconciled() {
+        // arrange
+        setMCI10000(5L);
+        balanceService.reserveMCI(10000);
+        balanceService.reserveMCI(10000);
+
+        // act
+        // pins taken by others in DB
+        setMCI10000(3L);
+        balanceService.reconcile();
+        balanceService.commitMCI(10000);
+        balanceService.releaseMCI(10000);
+
+        // assert
+        assertThat(reserveAll(10000), is(2));
+    }
+}
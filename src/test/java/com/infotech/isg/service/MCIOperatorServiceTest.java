@@ -0,0 +1,172 @@
+package com.infotech.isg.service;
+
+import java.util.Arrays;
+
+import com.infotech.isg.proxy.ProxyAccessException;
+import com.infotech.isg.proxy.mci.MCIProxy;
+import com.infotech.isg.proxy.mci.MCIProxyGetTokenResponse;
+import com.infotech.isg.proxy.mci.MCIProxyRechargeResponse;
+import com.infotech.isg.service.impl.MCIOperatorServiceImpl;
+import com.infotech.isg.service.impl.OperatorTokenManagerImpl;
+import com.infotech.isg.util.EndpointGroup;
+import com.infotech.isg.util.EndpointGroup.Endpoint;
+import com.infotech.isg.util.EndpointGroup.ProxyFactory;
+
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeMethod;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.greaterThan;
+
+/**
+ * test cases for GetToken fail over over MCI endpoints.
+ *
+ * @author Sevak Gharibian
+ */
+public class MCIOperatorServiceTest {
+
+    private MCIProxy proxy1;
+    private MCIProxy proxy2;
+    private Endpoint<MCIProxy> endpoint1;
+    private Endpoint<MCIProxy> endpoint2;
+    private OperatorService mciOperatorService;
+
+    private Endpoint<MCIProxy> endpoint(String name, final MCIProxy proxy) {
+        return new Endpoint<MCIProxy>(name, "http://" + name, "user", new ProxyFactory<MCIProxy>() {
+            @Override
+            public MCIProxy create() {
+                return proxy;
+            }
+        });
+    }
+
+    private MCIProxyGetTokenResponse token(String token) {
+        MCIProxyGetTokenResponse response = new MCIProxyGetTokenResponse();
+        response.setToken(token);
+        return response;
+    }
+
+    private MCIProxyRechargeResponse recharged() {
+        MCIProxyRechargeResponse response = new MCIProxyRechargeResponse();
+        response.setResponse(Arrays.asList("0", "123456"));
+        return response;
+    }
+
+    @BeforeMethod
+    public void setUp() {
+        proxy1 = mock(MCIProxy.class);
+        proxy2 = mock(MCIProxy.class);
+        endpoint1 = endpoint("mci", proxy1);
+        endpoint2 = endpoint("mci2", proxy2);
+        // new group keeps configured order while endpoints are equally healthy
+        EndpointGroup<MCIProxy> endpoints = new EndpointGroup<MCIProxy>("mci", Arrays.asList(endpoint1, endpoint2), 10000);
+        OperatorProxyRegistry operatorProxyRegistry = mock(OperatorProxyRegistry.class);
+        when(operatorProxyRegistry.getMCIEndpoints()).thenReturn(endpoints);
+        mciOperatorService = new MCIOperatorServiceImpl(new OperatorTokenManagerImpl(), operatorProxyRegistry);
+    }
+
+    @Test
+    public void shouldRechargeOnEndpointGivingToken() {
+        // arrange
+        when(proxy1.getToken()).thenReturn(token("token1"));
+        when(proxy1.recharge(anyString(), anyString(), anyInt(), anyLong())).thenReturn(recharged());
+
+        // act
+        OperatorServiceResponse response = mciOperatorService.topup("09125067064", 10000, 1L, "top-up", null, null, "59", "root");
+
+        // assert
+        assertThat(response.getCode(), is("0"));
+        assertThat(response.getToken(), is("token1"));
+        verify(proxy1).recharge("token1", "09125067064", 10000, 1L);
+        verifyZeroInteractions(proxy2);
+    }
+
+    @Test
+    public void shouldFailOverGetTokenOnProxyError() {
+        // arrange
+        when(proxy1.getToken()).thenThrow(ProxyAccessException.class);
+        when(proxy2.getToken()).thenReturn(token("token2"));
+        when(proxy2.recharge(anyString(), anyString(), anyInt(), anyLong())).thenReturn(recharged());
+
+        // act
+        OperatorServiceResponse response = mciOperatorService.topup("09125067064", 10000, 1L, "top-up", null, null, "59", "root");
+
+        // assert
+        assertThat(response.getToken(), is("token2"));
+        verify(proxy2).recharge("token2", "09125067064", 10000, 1L);
+        verify(proxy1, never()).recharge(anyString(), anyString(), anyInt(), anyLong());
+        assertThat(endpoint1.getErrorRate(), is(greaterThan(0.0)));
+    }
+
+    @Test
+    public void shouldFailOverGetTokenOnInvalidToken() {
+        // arrange
+        when(proxy1.getToken()).thenReturn(token(null));
+        when(proxy2.getToken()).thenReturn(token("token2"));
+        when(proxy2.recharge(anyString(), anyString(), anyInt(), anyLong())).thenReturn(recharged());
+
+        // act
+        OperatorServiceResponse response = mciOperatorService.topup("09125067064", 10000, 1L, "top-up", null, null, "59", "root");
+
+        // assert
+        assertThat(response.getToken(), is("token2"));
+        verify(proxy1, never()).recharge(anyString(), anyString(), anyInt(), anyLong());
+    }
+
+    @Test(expectedExceptions = OperatorNotAvailableException.class)
+    public void shouldFailIfGetTokenFailsOnAllEndpoints() {
+        // arrange
+        when(proxy1.getToken()).thenThrow(ProxyAccessException.class);
+        when(proxy2.getToken()).thenReturn(token(null));
+
+        // act
+        try {
+            mciOperatorService.topup("09125067064", 10000, 1L, "top-up", null, null, "59", "root");
+        } finally {
+            // assert
+            verify(proxy1, never()).recharge(anyString(), anyString(), anyInt(), anyLong());
+            verify(proxy2, never()).recharge(anyString(), anyString(), anyInt(), anyLong());
+        }
+    }
+
+    @Test(expectedExceptions = OperatorUnknownResponseException.class)
+    public void shouldNotFailOverOnRechargeError() {
+        // arrange
+        when(proxy1.getToken()).thenReturn(token("token1"));
+        when(proxy1.recharge(anyString(), anyString(), anyInt(), anyLong())).thenThrow(ProxyAccessException.class);
+
+        // act
+        try {
+            mciOperatorService.topup("09125067064", 10000, 1L, "top-up", null, null, "59", "root");
+        } finally {
+            // assert
+            // recharge may have been done, nothing retried
+            verifyZeroInteractions(proxy2);
+        }
+    }
+
+    @Test
+    public void shouldSkipEndpointDownAfterConsecutiveFailures() {
+        // arrange
+        for (int i = 0; i < 3; i++) {
+            endpoint1.record(false, 10);
+        }
+        when(proxy2.getToken()).thenReturn(token("token2"));
+        when(proxy2.recharge(anyString(), anyString(), anyInt(), anyLong())).thenReturn(recharged());
+
+        // act
+        OperatorServiceResponse response = mciOperatorService.topup("09125067064", 10000, 1L, "top-up", null, null, "59", "root");
+
+        // assert
+        assertThat(response.getToken(), is("token2"));
+        verifyZeroInteractions(proxy1);
+    }
+}
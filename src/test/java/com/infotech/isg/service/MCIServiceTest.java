@@ -1,8 +1,20 @@
 package com.infotech.isg.service;
 
+import java.util.List;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.Collections;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import javax.sql.DataSource;
 
 import com.infotech.isg.domain.Client;
 import com.infotech.isg.domain.Operator;
@@ -23,10 +35,13 @@ import com.infotech.isg.service.OperatorService;
 import com.infotech.isg.service.OperatorUnknownResponseException;
 import com.infotech.isg.service.OperatorServiceResponse;
 import com.infotech.isg.service.impl.MCIServiceImpl;
+import com.infotech.isg.service.impl.TransactionServiceImpl;
+import com.infotech.isg.validation.impl.TransactionValidatorImpl;
 
 import org.testng.annotations.Test;
 import org.testng.annotations.BeforeMethod;
 import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
@@ -76,10 +91,25 @@ public class MCIServiceTest {
     @Mock
     private OperatorStatusRepository operatorStatusRepository;
 
+    @Mock
+    private OperatorInvoker operatorInvoker;
+
+    @Mock
+    private OperatorCircuitBreaker operatorCircuitBreaker;
+
+    @Mock
+    private ClientRateLimiter clientRateLimiter;
+
+    @Mock
+    private TransactionIndex transactionIndex;
+
+    @Mock
+    private DataSource dataSource;
+
     @BeforeMethod(alwaysRun = true)
     public void setup() {
         MockitoAnnotations.initMocks(this);
-        mciService = new MCIServiceImpl(accessControl, transactionRepository, mciOperatorService,
+        mciService = new MCIServiceImpl(accessControl, new TransactionServiceImpl(transactionRepository, transactionIndex, dataSource), mciOperatorService,
                                         requestValidator, transactionValidator, operatorStatusRepository);
     }
 
@@ -131,6 +161,7 @@ public class MCIServiceTest {
         assertThat(response.getStatus(), is("OK"));
         assertThat(response.getISGDoc(), is(0L));
         assertThat(response.getOPRDoc(), is(trId));
+        assertThat(response.isSentToOperator(), is(true));
     }
 
     @Test
@@ -322,6 +353,7 @@ public class MCIServiceTest {
 
         // assert
         assertThat(response.getISGDoc(), is((long)ErrorCodes.OPERATOR_SERVICE_ERROR_DONOT_REVERSE));
+        assertThat(response.isSentToOperator(), is(false));
         verifyZeroInteractions(transactionRepository);
         verifyZeroInteractions(mciOperatorService);
     }
@@ -381,6 +413,7 @@ public class MCIServiceTest {
         // assert
         assertThat(response.getISGDoc(), is(transactionId));
         assertThat(response.getStatus(), is("OK"));
+        assertThat(response.isSentToOperator(), is(false));
         verify(transactionRepository).findByRefNumBankCodeClientId("receipt", "054", clientId);
         verifyNoMoreInteractions(transactionRepository);
         verifyZeroInteractions(mciOperatorService);
@@ -510,6 +543,7 @@ public class MCIServiceTest {
 
         // assert
         assertThat(response.getISGDoc(), is((long)ErrorCodes.OPERATOR_SERVICE_ERROR_DONOT_REVERSE));
+        assertThat(response.isSentToOperator(), is(true));
         verify(mciOperatorService).topup("consumer", 10000, 0L, "top-up", "noname", "infotech", "1", "username");
         ArgumentCaptor<Transaction> captor = ArgumentCaptor.forClass(Transaction.class);
         verify(transactionRepository, times(2)).save(captor.capture());
@@ -602,6 +636,360 @@ public class MCIServiceTest {
         // assert
     }
 
+    @Test
+    public void shouldLeavePendingTransactionInFlightWhenOperatorCallDies() {
+        // arrange
+        // set all validators to OK
+        when(requestValidator.validate(anyString(), anyString(), anyString(), anyInt(),
+                                       anyString(), anyString(), anyString(), anyString(),
+                                       anyString(), anyString(), anyString(), anyString(),
+                                       anyInt())).thenReturn(ErrorCodes.OK);
+        // set authentication to OK
+        when(accessControl.authenticate(anyString(), anyString(), anyString())).thenReturn(ErrorCodes.OK);
+        int clientId = 1;
+        when(accessControl.getClient(anyString())).thenReturn(new Client() {{setId(clientId);}});
+        // set transaction validation to OK
+        when(transactionValidator.validate(anyString(), anyString(), anyInt(), anyString(), anyInt(),
+                                           anyInt(), anyString(), anyString(), anyString())).thenReturn(ErrorCodes.OK);
+        // operator call never returns an outcome, as if process died in the middle
+        when(mciOperatorService.topup(anyString(), anyInt(), anyLong(), anyString(), anyString(), anyString(), anyString(), anyString()))
+        .thenThrow(new RuntimeException("process died during charge"));
+
+        // act
+        try {
+            mciService.topup("username", "password", "054", 10000,
+                             "1", "state", "receipt", "orderid",
+                             "consumer", "customer", "ip", "top-up", "noname", "infotech");
+        } catch (RuntimeException e) {
+            // expected
+        }
+
+        // assert
+        ArgumentCaptor<Transaction> captor = ArgumentCaptor.forClass(Transaction.class);
+        verify(transactionRepository, times(1)).save(captor.capture());
+        Transaction transaction = captor.getValue();
+        assertThat(transaction.getStatus(), is(-1));
+        assertThat(transaction.getStf(), is(nullValue()));
+        assertThat(transaction.getStfResult(), is(nullValue()));
+        assertThat(transaction.getOperatorResponseCode(), is(nullValue()));
+    }
+
+    @Test
+    public void shouldCallOperatorOnceForConcurrentTopupsWithSameBankReceipt() throws Exception {
+        // arrange
+        // in-memory transactions with real duplicate check
+        final List<Transaction> transactions = Collections.synchronizedList(new ArrayList<Transaction>());
+        TransactionRepository fakeTransactionRepository = new TransactionRepository() {
+            @Override
+            public List<Transaction> findByRefNumBankCodeClientId(String refNum, String bankCode, int clientId) {
+                List<Transaction> result = new ArrayList<Transaction>();
+                synchronized (transactions) {
+                    for (Transaction transaction : transactions) {
+                        if (transaction.getRefNum().equals(refNum)
+                            && transaction.getBankCode().equals(bankCode)
+                        && (transaction.getClientId() == clientId)) {
+                            result.add(transaction);
+                        }
+                    }
+                }
+                return result;
+            }
+
+            @Override
+            public void save(Transaction transaction) {
+                if (!transactions.contains(transaction)) {
+                    transaction.setId(transactions.size() + 1);
+                    transactions.add(transaction);
+                }
+            }
+
+            @Override
+            public List<Transaction> findByStfProvider(Integer stf, int provider) { return null; }
+
+            @Override
+            public Transaction findByProviderOperatorTId(int provider, String transactionId) { return null; }
+        };
+        TransactionService transactionService = new TransactionServiceImpl(fakeTransactionRepository, transactionIndex, dataSource);
+        final ISGService service = new MCIServiceImpl(accessControl, transactionService, mciOperatorService,
+                requestValidator, new TransactionValidatorImpl(transactionService), operatorStatusRepository);
+        when(requestValidator.validate(anyString(), anyString(), anyString(), anyInt(),
+                                       anyString(), anyString(), anyString(), anyString(),
+                                       anyString(), anyString(), anyString(), anyString(),
+                                       anyInt())).thenReturn(ErrorCodes.OK);
+        when(accessControl.authenticate(anyString(), anyString(), anyString())).thenReturn(ErrorCodes.OK);
+        when(accessControl.getClient(anyString())).thenReturn(new Client() {{setId(1);}});
+        // slow operator, counting calls
+        final AtomicInteger operatorCalls = new AtomicInteger();
+        when(mciOperatorService.topup(anyString(), anyInt(), anyLong(), anyString(), anyString(),
+                                      anyString(), anyString(), anyString())).thenAnswer(new Answer<OperatorServiceResponse>() {
+            @Override
+            public OperatorServiceResponse answer(InvocationOnMock invocation) throws Throwable {
+                operatorCalls.incrementAndGet();
+                Thread.sleep(200);
+                OperatorServiceResponse response = new OperatorServiceResponse();
+                response.setCode("0");
+                response.setMessage("OK");
+                response.setTransactionId("1236549870");
+                return response;
+            }
+        });
+        final int count = 20;
+        final CyclicBarrier barrier = new CyclicBarrier(count);
+        ExecutorService executor = Executors.newFixedThreadPool(count);
+        List<Future<ISGServiceResponse>> futures = new ArrayList<Future<ISGServiceResponse>>();
+
+        // act
+        for (int i = 0; i < count; i++) {
+            futures.add(executor.submit(new Callable<ISGServiceResponse>() {
+                @Override
+                public ISGServiceResponse call() throws Exception {
+                    barrier.await();
+                    return service.topup("username", "password", "054", 10000,
+                                         "1", "state", "receipt", "orderid",
+                                         "consumer", "customer", "ip", "top-up", "noname", "infotech");
+                }
+            }));
+        }
+        int ok = 0;
+        int repetitive = 0;
+        for (Future<ISGServiceResponse> future : futures) {
+            ISGServiceResponse response = future.get();
+            if (response.getStatus().equals("OK")) {
+                ok++;
+            } else if (response.getISGDoc() == ErrorCodes.REPETITIVE_TRANSACTION) {
+                repetitive++;
+            }
+        }
+        executor.shutdown();
+
+        // assert
+        assertThat(operatorCalls.get(), is(1));
+        assertThat(transactions.size(), is(1));
+        assertThat(ok, is(1));
+        assertThat(repetitive, is(count - 1));
+    }
+
+    @Test
+    public void shouldResolveSTFWhenLateResponseReceivedAfterTimeout() throws Exception {
+        // arrange
+        // STF still unresolved when late response received
+        Connection connection = mock(Connection.class);
+        PreparedStatement statement = mock(PreparedStatement.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.prepareStatement(anyString())).thenReturn(statement);
+        when(statement.executeUpdate()).thenReturn(1);
+        // set all validators to OK
+        when(requestValidator.validate(anyString(), anyString(), anyString(), anyInt(),
+                                       anyString(), anyString(), anyString(), anyString(),
+                                       anyString(), anyString(), anyString(), anyString(),
+                                       anyInt())).thenReturn(ErrorCodes.OK);
+        // set authentication to OK
+        when(accessControl.authenticate(anyString(), anyString(), anyString())).thenReturn(ErrorCodes.OK);
+        when(accessControl.getClient(anyString())).thenReturn(new Client() {{setId(1);}});
+        // set transaction validation to OK
+        when(transactionValidator.validate(anyString(), anyString(), anyInt(), anyString(), anyInt(),
+                                           anyInt(), anyString(), anyString(), anyString())).thenReturn(ErrorCodes.OK);
+        // operator call times out, still in progress
+        CompletableFuture<OperatorServiceResponse> lateResponse = new CompletableFuture<OperatorServiceResponse>();
+        when(operatorInvoker.topup(anyInt(), any(OperatorService.class), anyString(), anyInt(), anyLong(), anyString(),
+                                   anyString(), anyString(), anyString(), anyString(), anyLong()))
+        .thenThrow(new OperatorTimeoutException("timeout", lateResponse));
+        ((MCIServiceImpl) mciService).setOperatorInvoker(operatorInvoker);
+
+        // act
+        ISGServiceResponse response = mciService.topup("username", "password", "054", 10000,
+                                      "1", "state", "receipt", "orderid",
+                                      "consumer", "customer", "ip", "top-up", "noname", "infotech");
+        OperatorServiceResponse operatorServiceResponse = new OperatorServiceResponse();
+        operatorServiceResponse.setCode("0");
+        operatorServiceResponse.setMessage("OK");
+        operatorServiceResponse.setTransactionId("1236549870");
+        lateResponse.complete(operatorServiceResponse);
+
+        // assert
+        assertThat(response.getStatus(), is("ERROR"));
+        assertThat(response.getISGDoc(), is((long)ErrorCodes.OPERATOR_SERVICE_ERROR_DONOT_REVERSE));
+        ArgumentCaptor<Transaction> captor = ArgumentCaptor.forClass(Transaction.class);
+        verify(transactionRepository, times(3)).save(captor.capture());
+        Transaction transaction = captor.getValue();
+        assertThat(transaction.getStatus(), is(ErrorCodes.OPERATOR_SERVICE_ERROR_DONOT_REVERSE));
+        assertThat(transaction.getStf(), is(2));
+        assertThat(transaction.getStfResult(), is(1));
+        assertThat(transaction.getOperatorTId(), is("1236549870"));
+    }
+
+    @Test
+    public void shouldNotOverwriteSTFAlreadyResolvedWhenLateResponseReceived() throws Exception {
+        // arrange
+        // STF already resolved by STF process when late response received
+        Connection connection = mock(Connection.class);
+        PreparedStatement statement = mock(PreparedStatement.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.prepareStatement(anyString())).thenReturn(statement);
+        when(statement.executeUpdate()).thenReturn(0);
+        // set all validators to OK
+        when(requestValidator.validate(anyString(), anyString(), anyString(), anyInt(),
+                                       anyString(), anyString(), anyString(), anyString(),
+                                       anyString(), anyString(), anyString(), anyString(),
+                                       anyInt())).thenReturn(ErrorCodes.OK);
+        // set authentication to OK
+        when(accessControl.authenticate(anyString(), anyString(), anyString())).thenReturn(ErrorCodes.OK);
+        when(accessControl.getClient(anyString())).thenReturn(new Client() {{setId(1);}});
+        // set transaction validation to OK
+        when(transactionValidator.validate(anyString(), anyString(), anyInt(), anyString(), anyInt(),
+                                           anyInt(), anyString(), anyString(), anyString())).thenReturn(ErrorCodes.OK);
+        // operator call times out, still in progress
+        CompletableFuture<OperatorServiceResponse> lateResponse = new CompletableFuture<OperatorServiceResponse>();
+        when(operatorInvoker.topup(anyInt(), any(OperatorService.class), anyString(), anyInt(), anyLong(), anyString(),
+                                   anyString(), anyString(), anyString(), anyString(), anyLong()))
+        .thenThrow(new OperatorTimeoutException("timeout", lateResponse));
+        ((MCIServiceImpl) mciService).setOperatorInvoker(operatorInvoker);
+
+        // act
+        ISGServiceResponse response = mciService.topup("username", "password", "054", 10000,
+                                      "1", "state", "receipt", "orderid",
+                                      "consumer", "customer", "ip", "top-up", "noname", "infotech");
+        OperatorServiceResponse operatorServiceResponse = new OperatorServiceResponse();
+        operatorServiceResponse.setCode("0");
+        operatorServiceResponse.setMessage("OK");
+        operatorServiceResponse.setTransactionId("1236549870");
+        lateResponse.complete(operatorServiceResponse);
+
+        // assert
+        assertThat(response.getStatus(), is("ERROR"));
+        assertThat(response.getISGDoc(), is((long)ErrorCodes.OPERATOR_SERVICE_ERROR_DONOT_REVERSE));
+        verify(statement, times(1)).executeUpdate();
+        verify(transactionRepository, times(2)).save(any(Transaction.class));
+    }
+
+    @Test
+    public void shouldFailFastWithoutRegisteringTransactionWhenCircuitOpen() {
+        // arrange
+        // set all validators to OK
+        when(requestValidator.validate(anyString(), anyString(), anyString(), anyInt(),
+                                       anyString(), anyString(), anyString(), anyString(),
+                                       anyString(), anyString(), anyString(), anyString(),
+                                       anyInt())).thenReturn(ErrorCodes.OK);
+        // set authentication to OK
+        when(accessControl.authenticate(anyString(), anyString(), anyString())).thenReturn(ErrorCodes.OK);
+        when(accessControl.getClient(anyString())).thenReturn(new Client() {{setId(1);}});
+        // set transaction validation to OK
+        when(transactionValidator.validate(anyString(), anyString(), anyInt(), anyString(), anyInt(),
+                                           anyInt(), anyString(), anyString(), anyString())).thenReturn(ErrorCodes.OK);
+        // operator circuit open
+        when(operatorCircuitBreaker.allowRequest(Operator.MCI_ID)).thenReturn(false);
+        when(operatorCircuitBreaker.getState(Operator.MCI_ID)).thenReturn(OperatorCircuitBreaker.State.OPEN);
+        ((MCIServiceImpl) mciService).setOperatorCircuitBreaker(operatorCircuitBreaker);
+
+        // act
+        ISGServiceResponse response = mciService.topup("username", "password", "054", 10000,
+                                      "1", "state", "receipt", "orderid",
+                                      "consumer", "customer", "ip", "top-up", "noname", "infotech");
+        ISGServiceResponse availability = mciService.isOperatorAvailable();
+
+        // assert
+        assertThat(response.getStatus(), is("ERROR"));
+        assertThat(response.getISGDoc(), is((long)ErrorCodes.OPERATOR_SERVICE_ERROR));
+        verify(transactionRepository, never()).save(any(Transaction.class));
+        verifyZeroInteractions(mciOperatorService);
+        assertThat(availability.getISGDoc(), is(0L));
+        verifyZeroInteractions(operatorStatusRepository);
+    }
+
+    @Test
+    public void shouldNotCountLocalRejectionAsOperatorFailure() {
+        // arrange
+        // set all validators to OK
+        when(requestValidator.validate(anyString(), anyString(), anyString(), anyInt(),
+                                       anyString(), anyString(), anyString(), anyString(),
+                                       anyString(), anyString(), anyString(), anyString(),
+                                       anyInt())).thenReturn(ErrorCodes.OK);
+        // set authentication to OK
+        when(accessControl.authenticate(anyString(), anyString(), anyString())).thenReturn(ErrorCodes.OK);
+        when(accessControl.getClient(anyString())).thenReturn(new Client() {{setId(1);}});
+        // set transaction validation to OK
+        when(transactionValidator.validate(anyString(), anyString(), anyInt(), anyString(), anyInt(),
+                                           anyInt(), anyString(), anyString(), anyString())).thenReturn(ErrorCodes.OK);
+        when(operatorCircuitBreaker.allowRequest(Operator.MCI_ID)).thenReturn(true);
+        ((MCIServiceImpl) mciService).setOperatorCircuitBreaker(operatorCircuitBreaker);
+        // operator executor full, nothing sent
+        when(operatorInvoker.topup(anyInt(), any(OperatorService.class), anyString(), anyInt(), anyLong(), anyString(),
+                                   anyString(), anyString(), anyString(), anyString(), anyLong()))
+        .thenThrow(new OperatorRejectedException("mci executor full"));
+        ((MCIServiceImpl) mciService).setOperatorInvoker(operatorInvoker);
+
+        // act
+        ISGServiceResponse response = mciService.topup("username", "password", "054", 10000,
+                                      "1", "state", "receipt", "orderid",
+                                      "consumer", "customer", "ip", "top-up", "noname", "infotech");
+
+        // assert
+        assertThat(response.getStatus(), is("ERROR"));
+        assertThat(response.getISGDoc(), is((long)ErrorCodes.OPERATOR_SERVICE_ERROR));
+        verify(operatorCircuitBreaker, never()).onFailure(Operator.MCI_ID);
+        verify(operatorCircuitBreaker).cancel(Operator.MCI_ID);
+    }
+
+    @Test
+    public void shouldCountConnectionFailureAsOperatorFailure() {
+        // arrange
+        // set all validators to OK
+        when(requestValidator.validate(anyString(), anyString(), anyString(), anyInt(),
+                                       anyString(), anyString(), anyString(), anyString(),
+                                       anyString(), anyString(), anyString(), anyString(),
+                                       anyInt())).thenReturn(ErrorCodes.OK);
+        // set authentication to OK
+        when(accessControl.authenticate(anyString(), anyString(), anyString())).thenReturn(ErrorCodes.OK);
+        when(accessControl.getClient(anyString())).thenReturn(new Client() {{setId(1);}});
+        // set transaction validation to OK
+        when(transactionValidator.validate(anyString(), anyString(), anyInt(), anyString(), anyInt(),
+                                           anyInt(), anyString(), anyString(), anyString())).thenReturn(ErrorCodes.OK);
+        when(operatorCircuitBreaker.allowRequest(Operator.MCI_ID)).thenReturn(true);
+        ((MCIServiceImpl) mciService).setOperatorCircuitBreaker(operatorCircuitBreaker);
+        // recharge may have been sent, but no response received
+        when(mciOperatorService.topup(anyString(), anyInt(), anyLong(), anyString(), anyString(),
+                                      anyString(), anyString(), anyString()))
+        .thenThrow(new OperatorUnknownResponseException("error in mci Recharge", new RuntimeException("connection refused")));
+
+        // act
+        ISGServiceResponse response = mciService.topup("username", "password", "054", 10000,
+                                      "1", "state", "receipt", "orderid",
+                                      "consumer", "customer", "ip", "top-up", "noname", "infotech");
+
+        // assert
+        assertThat(response.getISGDoc(), is((long)ErrorCodes.OPERATOR_SERVICE_ERROR_DONOT_REVERSE));
+        verify(operatorCircuitBreaker).onFailure(Operator.MCI_ID);
+        verify(operatorCircuitBreaker, never()).onSuccess(Operator.MCI_ID);
+    }
+
+    @Test
+    public void shouldReturnRateLimitExceededWhenClientOverRate() {
+        // arrange
+        // set all validators to OK
+        when(requestValidator.validate(anyString(), anyString(), anyString(), anyInt(),
+                                       anyString(), anyString(), anyString(), anyString(),
+                                       anyString(), anyString(), anyString(), anyString(),
+                                       anyInt())).thenReturn(ErrorCodes.OK);
+        // set authentication to OK
+        when(accessControl.authenticate(anyString(), anyString(), anyString())).thenReturn(ErrorCodes.OK);
+        when(accessControl.getClient(anyString())).thenReturn(new Client() {{setId(1);}});
+        // client over its rate
+        when(clientRateLimiter.tryAcquire("username")).thenReturn(false);
+        ((MCIServiceImpl) mciService).setClientRateLimiter(clientRateLimiter);
+
+        // act
+        ISGServiceResponse response = mciService.topup("username", "password", "054", 10000,
+                                      "1", "state", "receipt", "orderid",
+                                      "consumer", "customer", "ip", "top-up", "noname", "infotech");
+
+        // assert
+        assertThat(response.getStatus(), is("ERROR"));
+        assertThat(response.getISGDoc(), is((long)ErrorCodes.CLIENT_RATE_LIMIT_EXCEEDED));
+        verifyZeroInteractions(transactionValidator);
+        verify(transactionRepository, never()).save(any(Transaction.class));
+        verifyZeroInteractions(mciOperatorService);
+    }
+
     @Test
     public void shouldReturnOperatorStatus() {
         // arrange
@@ -0,0 +1,207 @@
+package com.infotech.isg.service;
+
+import com.infotech.isg.domain.Operator;
+import com.infotech.isg.service.impl.OperatorConcurrencyLimiterImpl;
+
+import org.springframework.mock.env.MockEnvironment;
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeMethod;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * test cases for operator concurrency limiter
+ *
+ * @author Sevak Gharibian
+ */
+public class OperatorConcurrencyLimiterTest {
+
+    private static final int OPERATOR = Operator.MCI_ID;
+
+    private MockEnvironment environment;
+
+    @BeforeMethod
+    public void setUp() {
+        environment = new MockEnvironment();
+        environment.setProperty("isg.limiter.initialLimit", "10");
+        environment.setProperty("isg.limiter.minLimit", "2");
+        environment.setProperty("isg.limiter.maxLimit", "11");
+        environment.setProperty("isg.limiter.backoffRatio", "0.5");
+        environment.setProperty("isg.limiter.latencyThreshold", "1000");
+    }
+
+    private OperatorConcurrencyLimiter createLimiter() {
+        OperatorConcurrencyLimiterImpl limiter = new OperatorConcurrencyLimiterImpl(environment);
+        limiter.start();
+        return limiter;
+    }
+
+    private int acquireAll(OperatorConcurrencyLimiter limiter, String client) {
+        int count = 0;
+        while (limiter.tryAcquire(OPERATOR, client)) {
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void shouldRejectBeyondLimit() {
+        // arrange
+        OperatorConcurrencyLimiter limiter = createLimiter();
+
+        // act
+        int acquired = acquireAll(limiter, null);
+
+        // assert
+        assertThat(acquired, is(10));
+        assertThat(limiter.getInFlight(OPERATOR), is(10));
+        assertThat(limiter.getRejectedCount(OPERATOR), is(1L));
+    }
+
+    @Test
+    public void shouldDecreaseLimitOnDroppedCall() {
+        // arrange
+        OperatorConcurrencyLimiter limiter = createLimiter();
+        limiter.tryAcquire(OPERATOR, null);
+
+        // act
+        limiter.release(OPERATOR, null, 10, true);
+
+        // assert
+        assertThat(limiter.getLimit(OPERATOR), is(5));
+        assertThat(limiter.getInFlight(OPERATOR), is(0));
+    }
+
+    @Test
+    public void shouldDecreaseLimitOnSlowCall() {
+        // arrange
+        OperatorConcurrencyLimiter limiter = createLimiter();
+        limiter.tryAcquire(OPERATOR, null);
+
+        // act
+        limiter.release(OPERATOR, null, 1001, false);
+
+        // assert
+        assertThat(limiter.getLimit(OPERATOR), is(5));
+    }
+
+    @Test
+    public void shouldNotDecreaseLimitBelowMin() {
+        // arrange
+        OperatorConcurrencyLimiter limiter = createLimiter();
+
+        // act
+        for (int i = 0; i < 10; i++) {
+            limiter.tryAcquire(OPERATOR, null);
+            limiter.release(OPERATOR, null, 10, true);
+        }
+
+        // assert
+        assertThat(limiter.getLimit(OPERATOR), is(2));
+    }
+
+    @Test
+    public void shouldIncreaseLimitByOnePerRoundUnderLoad() {
+        // arrange
+        OperatorConcurrencyLimiter limiter = createLimiter();
+        acquireAll(limiter, null);
+
+        // act
+        // each fast call adds 1/limit, so a round of 10 calls adds one
+        for (int i = 0; i < 10; i++) {
+            limiter.release(OPERATOR, null, 10, false);
+            limiter.tryAcquire(OPERATOR, null);
+        }
+
+        // assert
+        assertThat(limiter.getLimit(OPERATOR), is(10));
+        limiter.release(OPERATOR, null, 10, false);
+        assertThat(limiter.getLimit(OPERATOR), is(11));
+    }
+
+    @Test
+    public void shouldNotIncreaseLimitBeyondMax() {
+        // arrange
+        OperatorConcurrencyLimiter limiter = createLimiter();
+        acquireAll(limiter, null);
+
+        // act
+        for (int i = 0; i < 100; i++) {
+            limiter.release(OPERATOR, null, 10, false);
+            limiter.tryAcquire(OPERATOR, null);
+        }
+
+        // assert
+        assertThat(limiter.getLimit(OPERATOR), is(11));
+    }
+
+    @Test
+    public void shouldNotIncreaseLimitIfLightlyUsed() {
+        // arrange
+        OperatorConcurrencyLimiter limiter = createLimiter();
+
+        // act
+        for (int i = 0; i < 100; i++) {
+            limiter.tryAcquire(OPERATOR, null);
+            limiter.release(OPERATOR, null, 10, false);
+        }
+
+        // assert
+        assertThat(limiter.getLimit(OPERATOR), is(10));
+    }
+
+    @Test
+    public void shouldNotAdjustLimitOnCancel() {
+        // arrange
+        OperatorConcurrencyLimiter limiter = createLimiter();
+        acquireAll(limiter, null);
+
+        // act
+        limiter.cancel(OPERATOR, null);
+
+        // assert
+        assertThat(limiter.getLimit(OPERATOR), is(10));
+        assertThat(limiter.getInFlight(OPERATOR), is(9));
+    }
+
+    @Test
+    public void shouldShareLimitByClientWeightUnderContention() {
+        // arrange
+        environment.setProperty("isg.client.heavy.weight", "3");
+        OperatorConcurrencyLimiter limiter = createLimiter();
+        // no contention below half of limit
+        for (int i = 0; i < 5; i++) {
+            assertThat(limiter.tryAcquire(OPERATOR, "light"), is(true));
+        }
+        assertThat(limiter.tryAcquire(OPERATOR, "heavy"), is(true));
+
+        // act
+        // light share is 10 * 1 / 4, heavy share is 10 * 3 / 4
+        boolean light = limiter.tryAcquire(OPERATOR, "light");
+        boolean heavy = limiter.tryAcquire(OPERATOR, "heavy");
+
+        // assert
+        assertThat(light, is(false));
+        assertThat(heavy, is(true));
+        assertThat(limiter.getInFlight(OPERATOR), is(7));
+    }
+
+    @Test
+    public void shouldFreeClientShareOnRelease() {
+        // arrange
+        OperatorConcurrencyLimiter limiter = createLimiter();
+        for (int i = 0; i < 5; i++) {
+            limiter.tryAcquire(OPERATOR, "light");
+        }
+        limiter.tryAcquire(OPERATOR, "other");
+        assertThat(limiter.tryAcquire(OPERATOR, "light"), is(false));
+
+        // act
+        for (int i = 0; i < 5; i++) {
+            limiter.release(OPERATOR, "light", 10, false);
+        }
+
+        // assert
+        assertThat(limiter.tryAcquire(OPERATOR, "light"), is(true));
+    }
+}
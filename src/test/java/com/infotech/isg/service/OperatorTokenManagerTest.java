@@ -0,0 +1,228 @@
+package com.infotech.isg.service;
+
+import com.infotech.isg.service.OperatorTokenManager.TokenSource;
+import com.infotech.isg.service.impl.OperatorTokenManagerImpl;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeMethod;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * test cases for operator token manager
+ *
+ * @author Sevak Gharibian
+ */
+public class OperatorTokenManagerTest {
+
+    private static final String URL = "http://operator";
+    private static final String USERNAME = "user";
+
+    private OperatorTokenManager tokenManager;
+    private CountingSource tokenSource;
+
+    /**
+     * returns token1, token2, ...
+     */
+    private static class CountingSource implements TokenSource {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public String fetch() {
+            return "token" + count.incrementAndGet();
+        }
+    }
+
+    @BeforeMethod
+    public void setUp() {
+        tokenManager = new OperatorTokenManagerImpl();
+        tokenSource = new CountingSource();
+    }
+
+    @Test
+    public void shouldCacheTokenWithinTtl() {
+        // arrange
+        tokenManager.getToken(URL, USERNAME, 60000, tokenSource);
+
+        // act
+        String token = tokenManager.getToken(URL, USERNAME, 60000, tokenSource);
+
+        // assert
+        assertThat(token, is("token1"));
+        assertThat(tokenSource.count.get(), is(1));
+    }
+
+    @Test
+    public void shouldNotCacheTokenWithoutTtl() {
+        // arrange
+        tokenManager.getToken(URL, USERNAME, 0, tokenSource);
+
+        // act
+        String token = tokenManager.getToken(URL, USERNAME, 0, tokenSource);
+
+        // assert
+        assertThat(token, is("token2"));
+    }
+
+    @Test
+    public void shouldCacheTokenPerUrlAndUsername() {
+        // arrange
+        tokenManager.getToken(URL, USERNAME, 60000, tokenSource);
+
+        // act
+        String token = tokenManager.getToken(URL, "other", 60000, tokenSource);
+
+        // assert
+        assertThat(token, is("token2"));
+    }
+
+    @Test
+    public void shouldFetchOnceForConcurrentRequests() throws Exception {
+        // arrange
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger count = new AtomicInteger();
+        final TokenSource slowSource = new TokenSource() {
+            @Override
+            public String fetch() {
+                count.incrementAndGet();
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "token";
+            }
+        };
+        Callable<String> request = new Callable<String>() {
+            @Override
+            public String call() {
+                return tokenManager.getToken(URL, USERNAME, 60000, slowSource);
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        List<Future<String>> tokens = new ArrayList<Future<String>>();
+
+        // act
+        tokens.add(executor.submit(request));
+        entered.await();
+        for (int i = 0; i < 4; i++) {
+            tokens.add(executor.submit(request));
+        }
+        Thread.sleep(100);
+        release.countDown();
+
+        // assert
+        for (Future<String> token : tokens) {
+            assertThat(token.get(), is("token"));
+        }
+        assertThat(count.get(), is(1));
+        executor.shutdown();
+    }
+
+    @Test
+    public void shouldFetchAgainAfterFailedFetch() {
+        // arrange
+        final AtomicInteger count = new AtomicInteger();
+        TokenSource failingOnce = new TokenSource() {
+            @Override
+            public String fetch() {
+                if (count.incrementAndGet() == 1) {
+                    throw new OperatorNotAvailableException("no token");
+                }
+                return "token";
+            }
+        };
+        try {
+            tokenManager.getToken(URL, USERNAME, 60000, failingOnce);
+        } catch (OperatorNotAvailableException e) {
+            // expected
+        }
+
+        // act
+        String token = tokenManager.getToken(URL, USERNAME, 60000, failingOnce);
+
+        // assert
+        assertThat(token, is("token"));
+        assertThat(count.get(), is(2));
+    }
+
+    @Test
+    public void shouldFetchNewTokenIfInvalidated() {
+        // arrange
+        String rejected = tokenManager.getToken(URL, USERNAME, 60000, tokenSource);
+
+        // act
+        tokenManager.invalidate(URL, USERNAME, rejected);
+
+        // assert
+        assertThat(tokenManager.getToken(URL, USERNAME, 60000, tokenSource), is("token2"));
+    }
+
+    @Test
+    public void shouldKeepTokenIfStaleTokenInvalidated() {
+        // arrange
+        String stale = tokenManager.getToken(URL, USERNAME, 60000, tokenSource);
+        tokenManager.invalidate(URL, USERNAME, stale);
+        tokenManager.getToken(URL, USERNAME, 60000, tokenSource);
+
+        // act
+        // another request rejected with old token after it was replaced
+        tokenManager.invalidate(URL, USERNAME, stale);
+
+        // assert
+        assertThat(tokenManager.getToken(URL, USERNAME, 60000, tokenSource), is("token2"));
+    }
+
+    @Test
+    public void shouldRefreshUsedTokenAboutToExpire() {
+        // arrange
+        // ttl within default refresh ahead of 10 seconds, used after fetched
+        tokenManager.getToken(URL, USERNAME, 5000, tokenSource);
+        tokenManager.getToken(URL, USERNAME, 5000, tokenSource);
+
+        // act
+        tokenManager.refresh();
+
+        // assert
+        assertThat(tokenSource.count.get(), is(2));
+        assertThat(tokenManager.getToken(URL, USERNAME, 5000, tokenSource), is("token2"));
+    }
+
+    @Test
+    public void shouldNotRefreshTokenNotUsedSinceFetched() {
+        // arrange
+        // refreshed token is not used afterwards
+        tokenManager.getToken(URL, USERNAME, 5000, tokenSource);
+        tokenManager.getToken(URL, USERNAME, 5000, tokenSource);
+        tokenManager.refresh();
+
+        // act
+        tokenManager.refresh();
+
+        // assert
+        assertThat(tokenSource.count.get(), is(2));
+    }
+
+    @Test
+    public void shouldNotRefreshTokenFarFromExpiry() {
+        // arrange
+        tokenManager.getToken(URL, USERNAME, 60000, tokenSource);
+
+        // act
+        tokenManager.refresh();
+
+        // assert
+        assertThat(tokenSource.count.get(), is(1));
+    }
+}
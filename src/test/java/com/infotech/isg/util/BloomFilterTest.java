@@ -0,0 +1,50 @@
+package com.infotech.isg.util;
+
+import org.testng.annotations.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+/**
+ * test cases for bloom filter
+ *
+ * @author Sevak Gharibian
+ */
+public class BloomFilterTest {
+
+    @Test
+    public void shouldContainAllInsertedKeys() {
+        // arrange
+        BloomFilter filter = new BloomFilter(10000, 0.01, 1024 * 1024);
+
+        // act
+        for (int i = 0; i < 10000; i++) {
+            filter.put("receipt" + i + "|054|1");
+        }
+
+        // assert
+        for (int i = 0; i < 10000; i++) {
+            assertThat(filter.mightContain("receipt" + i + "|054|1"), is(true));
+        }
+    }
+
+    @Test
+    public void shouldKeepFalsePositivesNearExpectedRate() {
+        // arrange
+        BloomFilter filter = new BloomFilter(10000, 0.01, 1024 * 1024);
+        for (int i = 0; i < 10000; i++) {
+            filter.put("receipt" + i + "|054|1");
+        }
+
+        // act
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContain("other" + i + "|054|1")) {
+                falsePositives++;
+            }
+        }
+
+        // assert
+        assertThat(falsePositives, is(lessThan(300)));
+    }
+}
@@ -0,0 +1,48 @@
+package com.infotech.isg.util;
+
+import org.testng.annotations.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+/**
+ * test cases for latency histogram
+ *
+ * @author Sevak Gharibian
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void shouldReturnZeroWhenEmpty() {
+        // arrange
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        // act
+        long p99 = histogram.getPercentile(99);
+
+        // assert
+        assertThat(p99, is(0L));
+        assertThat(histogram.getCount(), is(0L));
+    }
+
+    @Test
+    public void shouldReturnPercentilesWithinRelativeError() {
+        // arrange
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        // act
+        for (long i = 1; i <= 100000; i++) {
+            histogram.record(i);
+        }
+
+        // assert
+        assertThat(histogram.getCount(), is(100000L));
+        assertThat(histogram.getMax(), is(100000L));
+        assertThat(histogram.getPercentile(50), greaterThanOrEqualTo(50000L));
+        assertThat(histogram.getPercentile(50), lessThanOrEqualTo(51600L));
+        assertThat(histogram.getPercentile(99), greaterThanOrEqualTo(99000L));
+        assertThat(histogram.getPercentile(99), lessThanOrEqualTo(100000L));
+        assertThat(histogram.getPercentile(100), is(100000L));
+    }
+}
@@ -0,0 +1,97 @@
+package com.infotech.isg.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+/**
+ * test cases for proxy pool
+ *
+ * @author Sevak Gharibian
+ */
+public class ProxyPoolTest {
+
+    private static class Counter implements EndpointGroup.ProxyFactory<Object> {
+        private final AtomicInteger created = new AtomicInteger();
+
+        @Override
+        public Object create() {
+            created.incrementAndGet();
+            return new Object();
+        }
+    }
+
+    @Test
+    public void shouldReuseReleasedProxy() {
+        // arrange
+        Counter factory = new Counter();
+        ProxyPool<Object> pool = new ProxyPool<Object>(factory, 2, 60000);
+        Object proxy = pool.borrow();
+        pool.release(proxy);
+
+        // act
+        Object reused = pool.borrow();
+
+        // assert
+        assertThat(reused, is(sameInstance(proxy)));
+        assertThat(factory.created.get(), is(1));
+    }
+
+    @Test
+    public void shouldCreateProxyIfNoneIdle() {
+        // arrange
+        Counter factory = new Counter();
+        ProxyPool<Object> pool = new ProxyPool<Object>(factory, 2, 60000);
+        Object first = pool.borrow();
+
+        // act
+        Object second = pool.borrow();
+
+        // assert
+        assertThat(second, is(not(sameInstance(first))));
+        assertThat(factory.created.get(), is(2));
+    }
+
+    @Test
+    public void shouldKeepAtMostMaxIdle() {
+        // arrange
+        ProxyPool<Object> pool = new ProxyPool<Object>(new Counter(), 2, 60000);
+
+        // act
+        pool.release(new Object());
+        pool.release(new Object());
+        pool.release(new Object());
+
+        // assert
+        assertThat(pool.getIdleCount(), is(2));
+    }
+
+    @Test
+    public void shouldEvictExpiredProxies() {
+        // arrange
+        Counter factory = new Counter();
+        ProxyPool<Object> pool = new ProxyPool<Object>(factory, 2, 1000);
+        Object proxy = pool.borrow();
+        pool.release(proxy);
+
+        // act
+        pool.evict(System.currentTimeMillis() + 1000);
+
+        // assert
+        assertThat(pool.getIdleCount(), is(0));
+        assertThat(pool.borrow(), is(not(sameInstance(proxy))));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void shouldRejectInvalidSize() {
+        // arrange
+        // act
+        new ProxyPool<Object>(new Counter(), 0, 1000);
+
+        // assert
+    }
+}
@@ -0,0 +1,119 @@
+package com.infotech.isg.util;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import org.testng.annotations.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.contains;
+
+/**
+ * test cases for ring buffer
+ *
+ * @author Sevak Gharibian
+ */
+public class RingBufferTest {
+
+    @Test
+    public void shouldRejectOfferWhenFull() {
+        // arrange
+        RingBuffer<Integer> buffer = new RingBuffer<Integer>(3);
+        for (int i = 0; i < 4; i++) {
+            buffer.offer(i);
+        }
+
+        // act
+        boolean offered = buffer.offer(4);
+
+        // assert
+        assertThat(buffer.getCapacity(), is(4));
+        assertThat(offered, is(false));
+        assertThat(buffer.size(), is(4));
+    }
+
+    @Test
+    public void shouldRoundCapacityOfOneUpToTwo() {
+        // arrange
+        RingBuffer<Integer> buffer = new RingBuffer<Integer>(1);
+        List<Integer> items = new ArrayList<Integer>();
+        buffer.offer(1);
+        buffer.offer(2);
+
+        // act
+        boolean offered = buffer.offer(3);
+        buffer.drainTo(items, 10);
+
+        // assert
+        assertThat(buffer.getCapacity(), is(2));
+        assertThat(offered, is(false));
+        assertThat(items, contains(1, 2));
+    }
+
+    @Test
+    public void shouldDrainInOfferOrder() {
+        // arrange
+        RingBuffer<Integer> buffer = new RingBuffer<Integer>(4);
+        List<Integer> items = new ArrayList<Integer>();
+        buffer.offer(1);
+        buffer.offer(2);
+        buffer.drainTo(items, 10);
+        buffer.offer(3);
+        buffer.offer(4);
+        buffer.offer(5);
+
+        // act
+        int count = buffer.drainTo(items, 10);
+
+        // assert
+        assertThat(count, is(3));
+        assertThat(items, contains(1, 2, 3, 4, 5));
+        assertThat(buffer.size(), is(0));
+    }
+
+    @Test
+    public void shouldNotLoseItemsOfConcurrentProducers() throws InterruptedException {
+        // arrange
+        final RingBuffer<Integer> buffer = new RingBuffer<Integer>(1024);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> producers = new ArrayList<Thread>();
+        for (int p = 0; p < 4; p++) {
+            Thread producer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < 10000; i++) {
+                        while (!buffer.offer(i)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            producer.start();
+            producers.add(producer);
+        }
+
+        // act
+        start.countDown();
+        List<Integer> items = new ArrayList<Integer>();
+        while (items.size() < 40000) {
+            buffer.drainTo(items, 100);
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        // assert
+        long sum = 0;
+        for (int item : items) {
+            sum += item;
+        }
+        assertThat(items.size(), is(40000));
+        assertThat(sum, is(4L * 9999 * 10000 / 2));
+    }
+}
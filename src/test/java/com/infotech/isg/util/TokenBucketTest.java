@@ -0,0 +1,55 @@
+package com.infotech.isg.util;
+
+import org.testng.annotations.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+/**
+ * test cases for token bucket
+ *
+ * @author Sevak Gharibian
+ */
+public class TokenBucketTest {
+
+    @Test
+    public void shouldAllowBurstWithoutWait() {
+        // arrange
+        TokenBucket bucket = new TokenBucket(10, 5);
+
+        // act
+        // assert
+        for (int i = 0; i < 5; i++) {
+            assertThat(bucket.reserve(0), is(0L));
+        }
+        assertThat(bucket.tryAcquire(), is(false));
+    }
+
+    @Test
+    public void shouldReserveWithinMaxWait() {
+        // arrange
+        TokenBucket bucket = new TokenBucket(10, 1);
+        bucket.reserve(0);
+
+        // act
+        long wait = bucket.reserve(1000);
+
+        // assert
+        assertThat(wait, greaterThan(0L));
+        assertThat(wait, lessThanOrEqualTo(100L));
+    }
+
+    @Test
+    public void shouldNotReserveBeyondMaxWait() {
+        // arrange
+        TokenBucket bucket = new TokenBucket(1, 1);
+        bucket.reserve(0);
+
+        // act
+        long wait = bucket.reserve(100);
+
+        // assert
+        assertThat(wait, is(-1L));
+    }
+}
@@ -8,9 +8,11 @@ import com.infotech.isg.repository.OperatorRepository;
 import java.util.Map;
 import java.util.HashMap;
 
+import org.springframework.transaction.PlatformTransactionManager;
 import org.testng.annotations.Test;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.BeforeClass;
+import static org.mockito.Mockito.mock;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 
@@ -33,6 +35,8 @@ public class OperatorValidatorTest {
                     put(Operator.MCI_ID, new Operator() {{setId(Operator.MTN_ID); setName("MTN"); setIsActive(true);}});
                     put(Operator.MTN_ID, new Operator() {{setId(Operator.MCI_ID); setName("MCI"); setIsActive(true);}});
                     put(Operator.JIRING_ID, new Operator() {{setId(Operator.JIRING_ID); setName("JIRING"); setIsActive(false);}});
+                    // operator known only by DB
+                    put(99, new Operator() {{setId(99); setName("NEW"); setIsActive(true);}});
                 }
             };
 
@@ -41,7 +45,7 @@ public class OperatorValidatorTest {
                 return operators.get(operatorId);
             }
         };
-        operatorValidator = new OperatorValidatorImpl(operatorRepository);
+        operatorValidator = new OperatorValidatorImpl(operatorRepository, mock(PlatformTransactionManager.class));
     }
 
     @DataProvider(name = "provideOperators")
@@ -51,7 +55,9 @@ public class OperatorValidatorTest {
             {0, ErrorCodes.INVALID_OPERATOR},
             {Operator.JIRING_ID, ErrorCodes.DISABLED_OPERATOR},
             {Operator.MTN_ID, ErrorCodes.OK},
-            {Operator.MCI_ID, ErrorCodes.OK}
+            {Operator.MCI_ID, ErrorCodes.OK},
+            {99, ErrorCodes.OK},
+            {98, ErrorCodes.INVALID_OPERATOR}
         };
     }
 
@@ -8,9 +8,11 @@ import com.infotech.isg.repository.PaymentChannelRepository;
 import java.util.Map;
 import java.util.HashMap;
 
+import org.springframework.transaction.PlatformTransactionManager;
 import org.testng.annotations.Test;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.BeforeClass;
+import static org.mockito.Mockito.mock;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 
@@ -43,7 +45,7 @@ public class PaymentChannelValidatorTest {
                 return channels.get(channelId);
             }
         };
-        paymentChannelValidator = new PaymentChannelValidatorImpl(paymentChannelRepository);
+        paymentChannelValidator = new PaymentChannelValidatorImpl(paymentChannelRepository, mock(PlatformTransactionManager.class));
     }
 
     @DataProvider(name = "providePaymentChannels")
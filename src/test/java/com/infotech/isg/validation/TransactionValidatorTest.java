@@ -5,15 +5,26 @@ import com.infotech.isg.domain.Transaction;
 import com.infotech.isg.validation.TransactionValidator;
 import com.infotech.isg.validation.impl.TransactionValidatorImpl;
 import com.infotech.isg.repository.TransactionRepository;
+import com.infotech.isg.service.TransactionIndex;
+import com.infotech.isg.service.impl.TransactionServiceImpl;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import javax.sql.DataSource;
 
 import org.testng.annotations.Test;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.BeforeClass;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyInt;
+import org.mockito.ArgumentCaptor;
 
 /**
  * test cases for transaction validator
@@ -124,6 +135,20 @@ public class TransactionValidatorTest {
                             setStfResult(0);
                         }
                     });
+                    add(new Transaction() {{
+                            setRefNum("777");
+                            setBankCode("054");
+                            setClientId(1);
+                            setResNum("ABC12");
+                            setProvider(Operator.MCI_ID);
+                            setAmount(20000);
+                            setChannel("1");
+                            setConsumer("09125067064");
+                            setCustomerIp("10.20.1.5");
+                            setStatus(-1);
+                            // in-flight, no operator response and STF is NULL
+                        }
+                    });
                 }
             };
 
@@ -149,7 +174,8 @@ public class TransactionValidatorTest {
             @Override
             public Transaction findByProviderOperatorTId(int provider, String transactionId) { return null; }
         };
-        transactionValidator = new TransactionValidatorImpl(transactionRepository);
+        transactionValidator = new TransactionValidatorImpl(new TransactionServiceImpl(transactionRepository,
+                mock(TransactionIndex.class), mock(DataSource.class)));
     }
 
     @DataProvider(name = "provideTransactions")
@@ -336,6 +362,19 @@ public class TransactionValidatorTest {
                 "10.20.1.5",        // customer ip
                 // STF_ERROR, invalid STF value, should bet set for retry
                 ErrorCodes.OPERATOR_SERVICE_ERROR_DONOT_REVERSE
+            },
+            {
+                "777",              // refnum/bankReceipt
+                "054",              // backCode
+                1,                  // client id
+                "ABC12",            // resnum/order id
+                Operator.MCI_ID,    // operator id
+                20000,              // amount
+                "1",                // channel id
+                "09125067064",      // cell number (consumer)
+                "10.20.1.5",        // customer ip
+                // in-flight, operator outcome not known yet
+                ErrorCodes.OPERATOR_SERVICE_ERROR_DONOT_REVERSE
             }
         };
     }
@@ -356,4 +395,89 @@ public class TransactionValidatorTest {
         // assert
         assertThat(result, is(errorCode));
     }
+
+    @Test
+    public void transactionValidatorShouldSaveInvalidStfSetForStf() {
+        // arrange
+        TransactionRepository repository = mock(TransactionRepository.class);
+        Transaction transaction = new Transaction() {{
+                setRefNum("888");
+                setBankCode("054");
+                setClientId(1);
+                setResNum("ABC12");
+                setProvider(Operator.MCI_ID);
+                setAmount(20000);
+                setChannel("1");
+                setConsumer("09125067064");
+                setCustomerIp("10.20.1.5");
+                setStatus(-1);
+                setOperatorResponseCode(2);
+                setStf(5);
+                setStfResult(3);
+            }
+        };
+        when(repository.findByRefNumBankCodeClientId("888", "054", 1)).thenReturn(Arrays.asList(transaction));
+        TransactionValidator validator = new TransactionValidatorImpl(new TransactionServiceImpl(repository,
+                mock(TransactionIndex.class), mock(DataSource.class)));
+
+        // act
+        int result = validator.validate("888", "054", 1, "ABC12", Operator.MCI_ID, 20000,
+                                        "1", "09125067064", "10.20.1.5");
+
+        // assert
+        assertThat(result, is(ErrorCodes.OPERATOR_SERVICE_ERROR_DONOT_REVERSE));
+        ArgumentCaptor<Transaction> saved = ArgumentCaptor.forClass(Transaction.class);
+        verify(repository).save(saved.capture());
+        assertThat(saved.getValue().getStf(), is(1));
+        assertThat(saved.getValue().getStfResult(), is(0));
+        assertThat(saved.getValue().getOperatorResponseCode(), is(-1));
+    }
+
+    @Test
+    public void transactionValidatorShouldCheckDBWhenNotInIncompleteIndex() {
+        // arrange
+        TransactionRepository repository = mock(TransactionRepository.class);
+        when(repository.findByRefNumBankCodeClientId("999", "054", 1)).thenReturn(new ArrayList<Transaction>() {{
+                add(new Transaction() {{
+                        setProvider(Operator.MCI_ID);
+                        setStatus(1);
+                        setOperatorResponseCode(0);
+                    }
+                });
+            }
+        });
+        TransactionIndex index = mock(TransactionIndex.class);
+        when(index.mightContain(anyString(), anyString(), anyInt())).thenReturn(false);
+        when(index.isComplete()).thenReturn(false);
+        TransactionValidator validator = new TransactionValidatorImpl(new TransactionServiceImpl(repository,
+                index, mock(DataSource.class)), index);
+
+        // act
+        int result = validator.validate("999", "054", 1, "ABC12", Operator.MCI_ID, 20000,
+                                        "1", "09125067064", "10.20.1.5");
+
+        // assert
+        // older transaction or written by another instance, not in index
+        assertThat(result, is(ErrorCodes.DOUBLE_SPENDING_TRANSACTION));
+        verify(repository).findByRefNumBankCodeClientId("999", "054", 1);
+    }
+
+    @Test
+    public void transactionValidatorShouldNotCheckDBWhenNotInCompleteIndex() {
+        // arrange
+        TransactionRepository repository = mock(TransactionRepository.class);
+        TransactionIndex index = mock(TransactionIndex.class);
+        when(index.mightContain(anyString(), anyString(), anyInt())).thenReturn(false);
+        when(index.isComplete()).thenReturn(true);
+        TransactionValidator validator = new TransactionValidatorImpl(new TransactionServiceImpl(repository,
+                index, mock(DataSource.class)), index);
+
+        // act
+        int result = validator.validate("999", "054", 1, "ABC12", Operator.MCI_ID, 20000,
+                                        "1", "09125067064", "10.20.1.5");
+
+        // assert
+        assertThat(result, is(ErrorCodes.OK));
+        verifyZeroInteractions(repository);
+    }
 }
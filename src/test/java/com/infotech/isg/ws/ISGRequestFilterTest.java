@@ -0,0 +1,178 @@
+package com.infotech.isg.ws;
+
+import com.infotech.isg.service.AccessControl;
+
+import java.util.Set;
+import java.util.HashSet;
+import java.util.Arrays;
+import java.nio.charset.StandardCharsets;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeMethod;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import org.mockito.ArgumentCaptor;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.containsString;
+
+/**
+ * test cases for early reject request filter.
+ *
+ * @author Sevak Gharibian
+ */
+public class ISGRequestFilterTest {
+
+    private AccessControl accessControl;
+    private ISGRequestFilter filter;
+    private FilterChain chain;
+    private HttpServletResponse response;
+    private ServletOutputStream output;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        accessControl = mock(AccessControl.class);
+        filter = new ISGRequestFilter(accessControl);
+        chain = mock(FilterChain.class);
+        response = mock(HttpServletResponse.class);
+        output = mock(ServletOutputStream.class);
+        when(response.getOutputStream()).thenReturn(output);
+    }
+
+    private HttpServletRequest request(String remoteAddr) {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getRemoteAddr()).thenReturn(remoteAddr);
+        return request;
+    }
+
+    private void enable(String... ips) {
+        when(accessControl.getClientIps()).thenReturn(new HashSet<String>(Arrays.asList(ips)));
+        ReflectionTestUtils.setField(filter, "enabled", true);
+        filter.start();
+    }
+
+    /**
+     * fault written to response
+     */
+    private String fault() throws Exception {
+        ArgumentCaptor<byte[]> fault = ArgumentCaptor.forClass(byte[].class);
+        verify(output).write(fault.capture());
+        verify(response).setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        return new String(fault.getValue(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void shouldPassClientAddress() throws Exception {
+        // arrange
+        enable("1.1.1.1");
+        HttpServletRequest request = request("1.1.1.1");
+
+        // act
+        filter.doFilter(request, response, chain);
+
+        // assert
+        verify(chain).doFilter(request, response);
+        verifyZeroInteractions(response);
+    }
+
+    @Test
+    public void shouldRejectNotClientAddress() throws Exception {
+        // arrange
+        enable("1.1.1.1");
+        HttpServletRequest request = request("2.2.2.2");
+
+        // act
+        filter.doFilter(request, response, chain);
+
+        // assert
+        verify(chain, never()).doFilter(request, response);
+        assertThat(fault(), containsString("access denied"));
+        assertThat(filter.getRejectedCount(), is(1L));
+    }
+
+    @Test
+    public void shouldPassAllIfClientsNotListed() throws Exception {
+        // arrange
+        when(accessControl.getClientIps()).thenReturn(null);
+        ReflectionTestUtils.setField(filter, "enabled", true);
+        filter.start();
+        HttpServletRequest request = request("2.2.2.2");
+
+        // act
+        filter.doFilter(request, response, chain);
+
+        // assert
+        verify(chain).doFilter(request, response);
+    }
+
+    @Test
+    public void shouldKeepLastAllowlistOnReloadError() throws Exception {
+        // arrange
+        enable("1.1.1.1");
+        when(accessControl.getClientIps()).thenThrow(new RuntimeException("db not available"));
+        HttpServletRequest request = request("2.2.2.2");
+
+        // act
+        filter.reload();
+        filter.doFilter(request, response, chain);
+
+        // assert
+        verify(chain, never()).doFilter(request, response);
+        assertThat(fault(), containsString("access denied"));
+    }
+
+    @Test
+    public void shouldAllowNewClientAddressAfterReload() throws Exception {
+        // arrange
+        enable("1.1.1.1");
+        Set<String> ips = new HashSet<String>(Arrays.asList("1.1.1.1", "2.2.2.2"));
+        when(accessControl.getClientIps()).thenReturn(ips);
+        HttpServletRequest request = request("2.2.2.2");
+
+        // act
+        filter.reload();
+        filter.doFilter(request, response, chain);
+
+        // assert
+        verify(chain).doFilter(request, response);
+    }
+
+    @Test
+    public void shouldRejectOverGlobalRate() throws Exception {
+        // arrange
+        ReflectionTestUtils.setField(filter, "tps", 1.0);
+        filter.start();
+        HttpServletRequest request = request("1.1.1.1");
+        filter.doFilter(request, response, chain);
+
+        // act
+        filter.doFilter(request, response, chain);
+
+        // assert
+        verify(chain).doFilter(request, response);
+        assertThat(fault(), containsString("server busy"));
+        assertThat(filter.getRejectedCount(), is(1L));
+    }
+
+    @Test
+    public void shouldPassAllIfDisabled() throws Exception {
+        // arrange
+        filter.start();
+        HttpServletRequest request = request("2.2.2.2");
+
+        // act
+        filter.doFilter(request, response, chain);
+
+        // assert
+        verify(chain).doFilter(request, response);
+        verifyZeroInteractions(accessControl);
+    }
+}
@@ -0,0 +1,169 @@
+package com.infotech.isg.ws;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import javax.servlet.http.HttpServletRequest;
+import javax.xml.soap.SOAPMessage;
+import javax.xml.ws.handler.MessageContext;
+import javax.xml.ws.handler.soap.SOAPMessageContext;
+
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testng.annotations.Test;
+import org.testng.annotations.BeforeMethod;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Matchers.any;
+import org.mockito.stubbing.Answer;
+import org.mockito.invocation.InvocationOnMock;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+
+/**
+ * test cases for SOAP message capture.
+ *
+ * @author Sevak Gharibian
+ */
+public class ISGWSHandlerTest {
+
+    private ISGWSHandler handler;
+
+    @BeforeMethod
+    public void setUp() {
+        handler = new ISGWSHandler();
+        ReflectionTestUtils.setField(handler, "enabled", true);
+        ReflectionTestUtils.setField(handler, "sampleRate", 1.0);
+    }
+
+    /**
+     * inbound request of given SOAP action and content
+     */
+    private SOAPMessageContext request(String action, final String content) throws Exception {
+        SOAPMessage message = mock(SOAPMessage.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                ((OutputStream) invocation.getArguments()[0]).write(content.getBytes(StandardCharsets.UTF_8));
+                return null;
+            }
+        }).when(message).writeTo(any(OutputStream.class));
+        HttpServletRequest servletRequest = mock(HttpServletRequest.class);
+        when(servletRequest.getHeader("SOAPAction")).thenReturn("\"urn:TopUpWSDL/" + action + "\"");
+        when(servletRequest.getRemoteAddr()).thenReturn("1.1.1.1");
+        SOAPMessageContext context = mock(SOAPMessageContext.class);
+        when(context.get(MessageContext.MESSAGE_OUTBOUND_PROPERTY)).thenReturn(false);
+        when(context.get(MessageContext.SERVLET_REQUEST)).thenReturn(servletRequest);
+        when(context.getMessage()).thenReturn(message);
+        return context;
+    }
+
+    @Test
+    public void shouldMaskPasswordContent() throws Exception {
+        // arrange
+        handler.start();
+
+        // act
+        handler.handleMessage(request("MCI", "<MCI><username>root</username><password>secret</password><amount>10000</amount></MCI>"));
+
+        // assert
+        String dump = handler.dump();
+        assertThat(dump, containsString("<password>****</password>"));
+        assertThat(dump, containsString("<username>root</username>"));
+        assertThat(dump, containsString("<amount>10000</amount>"));
+        assertThat(dump, not(containsString("secret")));
+    }
+
+    @Test
+    public void shouldMaskCDATAAndPrefixedPassword() throws Exception {
+        // arrange
+        handler.start();
+
+        // act
+        handler.handleMessage(request("MCI", "<MCI><ns1:password xsi:type=\"xsd:string\"><![CDATA[se<cr>et]]></ns1:password><amount>10000</amount></MCI>"));
+
+        // assert
+        String dump = handler.dump();
+        assertThat(dump, containsString("<ns1:password xsi:type=\"xsd:string\">****</ns1:password>"));
+        assertThat(dump, containsString("<amount>10000</amount>"));
+        assertThat(dump, not(containsString("se<cr>et")));
+        assertThat(dump, not(containsString("CDATA")));
+    }
+
+    @Test
+    public void shouldMaskPasswordOfTruncatedMessage() throws Exception {
+        // arrange
+        String content = "<MCI><username>root</username><password>secret</password></MCI>";
+        ReflectionTestUtils.setField(handler, "maxSize", content.indexOf("cret</password>"));
+        handler.start();
+
+        // act
+        handler.handleMessage(request("MCI", content));
+
+        // assert
+        String dump = handler.dump();
+        assertThat(dump, containsString("<password>****...("));
+        assertThat(dump, containsString("bytes truncated)"));
+        assertThat(dump, not(containsString("se...")));
+    }
+
+    @Test
+    public void shouldNotMaskSelfClosingOrSimilarFields() throws Exception {
+        // arrange
+        handler.start();
+
+        // act
+        handler.handleMessage(request("MCI", "<MCI><password/><passwordHint>hint</passwordHint><amount>10000</amount></MCI>"));
+
+        // assert
+        String dump = handler.dump();
+        assertThat(dump, containsString("<password/><passwordHint>hint</passwordHint><amount>10000</amount>"));
+    }
+
+    @Test
+    public void shouldCaptureOnlyListedOperations() throws Exception {
+        // arrange
+        ReflectionTestUtils.setField(handler, "operations", "MTN");
+        handler.start();
+
+        // act
+        handler.handleMessage(request("MCI", "<MCI><username>root</username></MCI>"));
+        String skipped = handler.dump();
+        handler.handleMessage(request("MTN", "<MTN><username>root</username></MTN>"));
+
+        // assert
+        assertThat(skipped, is(""));
+        assertThat(handler.dump(), containsString("MTN"));
+    }
+
+    @Test
+    public void shouldCaptureOnlyListedClients() throws Exception {
+        // arrange
+        ReflectionTestUtils.setField(handler, "clients", "root");
+        handler.start();
+
+        // act
+        handler.handleMessage(request("MCI", "<MCI><username>other</username></MCI>"));
+        String skipped = handler.dump();
+        handler.handleMessage(request("MCI", "<MCI><ns1:username>root</ns1:username></MCI>"));
+
+        // assert
+        assertThat(skipped, is(""));
+        assertThat(handler.dump(), containsString("<ns1:username>root</ns1:username>"));
+    }
+
+    @Test
+    public void shouldNotCaptureWhenDisabled() throws Exception {
+        // arrange
+        handler.start();
+        handler.setEnabled(false);
+
+        // act
+        handler.handleMessage(request("MCI", "<MCI><username>root</username></MCI>"));
+
+        // assert
+        assertThat(handler.dump(), is(""));
+        assertThat(handler.isEnabled(), is(false));
+    }
+}